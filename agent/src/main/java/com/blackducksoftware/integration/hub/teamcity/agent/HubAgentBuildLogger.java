@@ -23,9 +23,9 @@
  */
 package com.blackducksoftware.integration.hub.teamcity.agent;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
-
+import com.blackducksoftware.integration.hub.teamcity.agent.log.HubBuildLogSink;
+import com.blackducksoftware.integration.hub.teamcity.agent.log.HubDirectLogSink;
+import com.blackducksoftware.integration.hub.teamcity.common.HubStackTraceCache;
 import com.blackducksoftware.integration.log.IntLogger;
 import com.blackducksoftware.integration.log.LogLevel;
 
@@ -34,10 +34,19 @@ import jetbrains.buildServer.agent.BuildProgressLogger;
 public class HubAgentBuildLogger extends IntLogger {
     private final BuildProgressLogger logger;
 
+    private final HubBuildLogSink sink;
+
+    private final HubStackTraceCache stackTraces = new HubStackTraceCache();
+
     private LogLevel loggerLevel = LogLevel.INFO;
 
     public HubAgentBuildLogger(final BuildProgressLogger logger) {
+        this(logger, new HubDirectLogSink(logger));
+    }
+
+    public HubAgentBuildLogger(final BuildProgressLogger logger, final HubBuildLogSink sink) {
         this.logger = logger;
+        this.sink = sink;
     }
 
     public BuildProgressLogger getLogger() {
@@ -55,35 +64,47 @@ public class HubAgentBuildLogger extends IntLogger {
     }
 
     public void targetStarted(final String txt) {
-        logger.targetStarted(txt);
+        sink.targetStarted(txt);
     }
 
     public void targetFinished(final String txt) {
-        logger.targetFinished(txt);
+        sink.targetFinished(txt);
+    }
+
+    /**
+     * Delivers the lines the sink may still be holding back
+     */
+    public void flush() {
+        sink.flush();
+    }
+
+    /**
+     * Flushes the sink and releases it, call once the build step stops logging
+     */
+    public void close() {
+        sink.close();
     }
 
     /**
      * Prints the message regardless of the log level
      */
     public void alwaysLog(final String txt) {
-        logger.progressMessage(txt);
+        sink.message(LogLevel.INFO, txt);
     }
 
     @Override
     public void info(final String txt) {
         if (loggerLevel.isLoggable(LogLevel.INFO)) {
-            logger.progressMessage(txt);
+            sink.message(LogLevel.INFO, txt);
         }
     }
 
     @Override
     public void error(final String txt, final Throwable e) {
         if (loggerLevel.isLoggable(LogLevel.ERROR)) {
-            logger.error(txt);
+            sink.message(LogLevel.ERROR, txt);
             if (e != null) {
-                final StringWriter sw = new StringWriter();
-                e.printStackTrace(new PrintWriter(sw));
-                logger.error(sw.toString());
+                sink.message(LogLevel.ERROR, stackTraces.getStackTrace(e));
             }
         }
     }
@@ -91,39 +112,37 @@ public class HubAgentBuildLogger extends IntLogger {
     @Override
     public void error(final String txt) {
         if (loggerLevel.isLoggable(LogLevel.ERROR)) {
-            logger.error(txt);
+            sink.message(LogLevel.ERROR, txt);
         }
     }
 
     @Override
     public void warn(final String txt) {
         if (loggerLevel.isLoggable(LogLevel.WARN)) {
-            logger.progressMessage(txt);
+            sink.message(LogLevel.WARN, txt);
         }
     }
 
     @Override
     public void trace(final String txt) {
         if (loggerLevel.isLoggable(LogLevel.TRACE)) {
-            logger.progressMessage(txt);
+            sink.message(LogLevel.TRACE, txt);
         }
     }
 
     @Override
     public void debug(final String txt) {
         if (loggerLevel.isLoggable(LogLevel.DEBUG)) {
-            logger.progressMessage(txt);
+            sink.message(LogLevel.DEBUG, txt);
         }
     }
 
     @Override
     public void debug(final String txt, final Throwable e) {
         if (loggerLevel.isLoggable(LogLevel.DEBUG)) {
-            logger.progressMessage(txt);
+            sink.message(LogLevel.DEBUG, txt);
             if (e != null) {
-                final StringWriter sw = new StringWriter();
-                e.printStackTrace(new PrintWriter(sw));
-                logger.progressMessage(sw.toString());
+                sink.message(LogLevel.DEBUG, stackTraces.getStackTrace(e));
             }
         }
     }
@@ -131,20 +150,16 @@ public class HubAgentBuildLogger extends IntLogger {
     @Override
     public void error(final Throwable e) {
         if (loggerLevel.isLoggable(LogLevel.ERROR)) {
-            final StringWriter sw = new StringWriter();
-            e.printStackTrace(new PrintWriter(sw));
-            logger.error(sw.toString());
+            sink.message(LogLevel.ERROR, stackTraces.getStackTrace(e));
         }
     }
 
     @Override
     public void trace(final String txt, final Throwable e) {
         if (loggerLevel.isLoggable(LogLevel.TRACE)) {
-            logger.progressMessage(txt);
+            sink.message(LogLevel.TRACE, txt);
             if (e != null) {
-                final StringWriter sw = new StringWriter();
-                e.printStackTrace(new PrintWriter(sw));
-                logger.progressMessage(sw.toString());
+                sink.message(LogLevel.TRACE, stackTraces.getStackTrace(e));
             }
         }
     }
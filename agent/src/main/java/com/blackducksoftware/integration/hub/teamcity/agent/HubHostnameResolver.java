@@ -0,0 +1,103 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.jetbrains.annotations.NotNull;
+
+import com.blackducksoftware.integration.hub.service.model.HostnameHelper;
+import com.blackducksoftware.integration.hub.teamcity.common.HubConstantValues;
+
+import jetbrains.buildServer.agent.AgentLifeCycleAdapter;
+import jetbrains.buildServer.agent.AgentLifeCycleListener;
+import jetbrains.buildServer.agent.BuildAgent;
+import jetbrains.buildServer.agent.BuildAgentConfiguration;
+import jetbrains.buildServer.log.Loggers;
+import jetbrains.buildServer.util.EventDispatcher;
+
+/**
+ * Resolves the host name of the agent in the background when the plugin starts and again every time the TTL runs out,
+ * so a build never waits on DNS. The resolved name is also published as the agent parameter
+ * {@link HubConstantValues#HUB_AGENT_HOSTNAME}.
+ */
+public class HubHostnameResolver extends AgentLifeCycleAdapter {
+    public static final long DEFAULT_TTL_MILLIS = 10 * 60 * 1000;
+
+    private final ScheduledExecutorService executor;
+
+    private volatile String hostname;
+
+    public HubHostnameResolver(@NotNull final EventDispatcher<AgentLifeCycleListener> dispatcher) {
+        executor = new ScheduledThreadPoolExecutor(1, new HubThreadFactory("Hub Hostname"));
+        dispatcher.addListener(this);
+    }
+
+    @Override
+    public void afterAgentConfigurationLoaded(@NotNull final BuildAgent agent) {
+        final BuildAgentConfiguration configuration = agent.getConfiguration();
+        final String ttl = configuration.getConfigurationParameters().get(HubConstantValues.HUB_HOSTNAME_TTL);
+        final long ttlMillis = Math.max(1000, NumberUtils.toLong(StringUtils.trim(ttl), DEFAULT_TTL_MILLIS));
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refresh(configuration);
+            }
+        }, 0, ttlMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void agentShutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the last resolved host name, or null if the first lookup has not finished yet
+     */
+    public String getHostname() {
+        return hostname;
+    }
+
+    void refresh(final BuildAgentConfiguration configuration) {
+        final String resolvedHostname;
+        try {
+            resolvedHostname = HostnameHelper.getMyHostname();
+        } catch (final RuntimeException e) {
+            Loggers.AGENT.warn("Could not resolve the host name of the agent: " + e.getMessage());
+            return;
+        }
+        // keep the last good name when a lookup fails
+        if (StringUtils.isNotBlank(resolvedHostname) && !resolvedHostname.equals(hostname)) {
+            hostname = resolvedHostname;
+            if (configuration != null) {
+                configuration.addConfigurationParameter(HubConstantValues.HUB_AGENT_HOSTNAME, resolvedHostname);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,227 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.SystemUtils;
+
+import com.blackducksoftware.integration.hub.teamcity.agent.HubThreadFactory;
+import com.blackducksoftware.integration.log.IntLogger;
+
+import jetbrains.buildServer.log.Loggers;
+
+/**
+ * Maintains an application class-data sharing archive for each installed scan CLI version, so the scan CLI JVM maps
+ * its classes from the archive instead of loading and verifying them on every start. The archive is recorded with
+ * -XX:ArchiveClassesAtExit, which needs a Java 13 or later runtime; when the CLI runtime can not create it, a marker
+ * file stops the agent from trying again for that version.
+ *
+ * The archive is recorded in the background under a temporary name and only renamed once the recording JVM exited
+ * cleanly, so builds never wait for it and never map a partly written archive; they run without one until it exists.
+ */
+public class HubCliClassDataArchive {
+    public static final String ARCHIVE_DIRECTORY_NAME = "cds";
+
+    private static final String ARCHIVE_EXTENSION = ".jsa";
+
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+
+    private static final String UNSUPPORTED_EXTENSION = ".unsupported";
+
+    private static final long ARCHIVE_TIMEOUT_SECONDS = 120;
+
+    private final File archiveDirectory;
+
+    private final Set<String> versionsInProgress = ConcurrentHashMap.newKeySet();
+
+    private final ThreadPoolExecutor executor;
+
+    public HubCliClassDataArchive(final File toolsDirectory) {
+        archiveDirectory = new File(toolsDirectory, ARCHIVE_DIRECTORY_NAME);
+        executor = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new HubThreadFactory("Hub CLI Class Data Archive"));
+    }
+
+    public File getArchive(final String cliVersion) {
+        return new File(archiveDirectory, "scan.cli-" + cliVersion + ARCHIVE_EXTENSION);
+    }
+
+    /**
+     * @return the JVM options that use the archive of this CLI version, or null if the archive does not exist yet or
+     *         the CLI runtime can not use one; a missing archive is then created in the background. SCAN_CLI_OPTS is
+     *         split on spaces, so an archive path containing whitespace can not be passed and no archive is used.
+     */
+    public String getSharedArchiveOptions(final File cliDirectory, final String cliVersion, final IntLogger logger) {
+        final File archive = getArchive(cliVersion);
+        if (StringUtils.containsWhitespace(archive.getAbsolutePath())) {
+            logger.debug("Not using a class-data sharing archive for the scan CLI, its path contains whitespace : " + archive.getAbsolutePath());
+            return null;
+        }
+        if (archive.isFile()) {
+            return "-XX:SharedArchiveFile=" + archive.getAbsolutePath() + " -Xshare:auto";
+        }
+        final File unsupportedMarker = new File(archiveDirectory, archive.getName() + UNSUPPORTED_EXTENSION);
+        if (!unsupportedMarker.exists() && versionsInProgress.add(cliVersion)) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            createArchive(cliDirectory, cliVersion, archive, unsupportedMarker);
+                        } finally {
+                            versionsInProgress.remove(cliVersion);
+                        }
+                    }
+                });
+                logger.info("Creating the class-data sharing archive for the scan CLI " + cliVersion + " in the background");
+            } catch (final RejectedExecutionException e) {
+                versionsInProgress.remove(cliVersion);
+            }
+        }
+        return null;
+    }
+
+    public void shutdown() {
+        // interrupting the recording destroys the CLI process and discards its temporary archive
+        executor.shutdownNow();
+    }
+
+    private void createArchive(final File cliDirectory, final String cliVersion, final File archive, final File unsupportedMarker) {
+        if (!archiveDirectory.exists() && !archiveDirectory.mkdirs()) {
+            Loggers.AGENT.warn("Could not create the scan CLI class-data sharing directory : " + archiveDirectory.getAbsolutePath());
+            return;
+        }
+
+        final File temporaryArchive = new File(archiveDirectory, archive.getName() + TEMPORARY_EXTENSION);
+        final File javaExecutable = getJavaExecutable(cliDirectory);
+        final File standaloneJar = getStandaloneJar(cliDirectory, cliVersion);
+        try {
+            temporaryArchive.delete();
+            final Integer exitCode = runCli(javaExecutable, standaloneJar, "-XX:ArchiveClassesAtExit=" + temporaryArchive.getAbsolutePath());
+            if (exitCode == null) {
+                // a JVM killed while writing leaves a partial archive behind, the next build tries again
+                Loggers.AGENT.warn("The scan CLI " + cliVersion + " did not exit within " + ARCHIVE_TIMEOUT_SECONDS + " seconds while creating its class-data sharing archive.");
+                temporaryArchive.delete();
+                return;
+            }
+            if (exitCode != 0 || !temporaryArchive.isFile()) {
+                Loggers.AGENT.info("The scan CLI runtime " + javaExecutable.getAbsolutePath() + " can not create a class-data sharing archive.");
+                temporaryArchive.delete();
+                unsupportedMarker.createNewFile();
+                return;
+            }
+            moveIntoPlace(temporaryArchive, archive);
+            deleteOtherArchives(archive);
+            Loggers.AGENT.info("Created the class-data sharing archive for the scan CLI " + cliVersion + " : " + archive.getAbsolutePath());
+        } catch (final IOException e) {
+            Loggers.AGENT.warn("Could not create the scan CLI class-data sharing archive : " + e.getMessage());
+            temporaryArchive.delete();
+        } catch (final InterruptedException e) {
+            temporaryArchive.delete();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void moveIntoPlace(final File temporaryArchive, final File archive) throws IOException {
+        try {
+            Files.move(temporaryArchive.toPath(), archive.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(temporaryArchive.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * An archive only matches the CLI version it was recorded with. Archives still mapped by a running scan can not be
+     * deleted on every platform, those are left for the next version change.
+     */
+    private void deleteOtherArchives(final File archive) {
+        final File[] files = archiveDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (final File file : files) {
+            final String name = file.getName();
+            if (!file.equals(archive) && (name.endsWith(ARCHIVE_EXTENSION) || name.endsWith(UNSUPPORTED_EXTENSION))) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Starts the CLI with its help option, which loads the classes used on start-up and exits.
+     *
+     * @return the exit code of the JVM, or null if it did not exit in time and was destroyed
+     */
+    private Integer runCli(final File javaExecutable, final File standaloneJar, final String jvmOption) throws IOException, InterruptedException {
+        final List<String> command = new ArrayList<>(Arrays.asList(javaExecutable.getAbsolutePath(), jvmOption, "-jar", standaloneJar.getAbsolutePath(), "--help"));
+        final ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.redirectErrorStream(true);
+        processBuilder.redirectOutput(new File(archiveDirectory, "archive.log"));
+        final Process process = processBuilder.start();
+        try {
+            if (!process.waitFor(ARCHIVE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+                return null;
+            }
+        } catch (final InterruptedException e) {
+            process.destroyForcibly();
+            throw e;
+        }
+        return process.exitValue();
+    }
+
+    public static File getStandaloneJar(final File cliDirectory, final String cliVersion) {
+        return new File(cliDirectory, "lib" + File.separator + "scan.cli-" + cliVersion + "-standalone.jar");
+    }
+
+    /**
+     * @return the java executable of the JRE bundled with the CLI, or of the agent JVM if the CLI has none
+     */
+    public static File getJavaExecutable(final File cliDirectory) {
+        final String javaName = SystemUtils.IS_OS_WINDOWS ? "java.exe" : "java";
+        final File[] candidates = new File[] { new File(cliDirectory, "jre" + File.separator + "bin" + File.separator + javaName),
+                new File(cliDirectory, "jre" + File.separator + "Contents" + File.separator + "Home" + File.separator + "bin" + File.separator + javaName) };
+        for (final File candidate : candidates) {
+            if (candidate.isFile()) {
+                return candidate;
+            }
+        }
+        return new File(System.getProperty("java.home"), "bin" + File.separator + javaName);
+    }
+
+}
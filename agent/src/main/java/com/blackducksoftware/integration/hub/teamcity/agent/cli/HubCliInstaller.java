@@ -0,0 +1,350 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.cli;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.NotNull;
+
+import com.blackducksoftware.integration.exception.IntegrationException;
+import com.blackducksoftware.integration.hub.api.generated.discovery.ApiDiscovery;
+import com.blackducksoftware.integration.hub.api.generated.view.CurrentVersionView;
+import com.blackducksoftware.integration.hub.cli.CLIDownloadUtility;
+import com.blackducksoftware.integration.hub.cli.CLILocation;
+import com.blackducksoftware.integration.hub.service.HubService;
+import com.blackducksoftware.integration.hub.service.HubServicesFactory;
+import com.blackducksoftware.integration.hub.teamcity.agent.connection.HubRestConnectionLease;
+import com.blackducksoftware.integration.hub.teamcity.agent.connection.HubSessionCall;
+import com.blackducksoftware.integration.hub.teamcity.common.HubConstantValues;
+import com.blackducksoftware.integration.log.IntLogger;
+import com.blackducksoftware.integration.util.CIEnvironmentVariables;
+
+import jetbrains.buildServer.agent.AgentLifeCycleAdapter;
+import jetbrains.buildServer.agent.AgentLifeCycleListener;
+import jetbrains.buildServer.agent.BuildAgent;
+import jetbrains.buildServer.agent.BuildAgentConfiguration;
+import jetbrains.buildServer.log.Loggers;
+import jetbrains.buildServer.util.EventDispatcher;
+
+/**
+ * Owns the scan CLI installation in the agent tools directory. The installation is checksummed when the agent starts
+ * and after every install; builds for the Hub it was installed from reuse it without downloading it again, and only the
+ * first build after the Hub URL or version changes installs it again. The version of each Hub is kept for
+ * {@link #HUB_VERSION_TTL_MILLISEC}, so most builds neither ask the Hub nor wait on the installation lock. The installed
+ * version is reported as the
+ * {@link HubConstantValues#HUB_CLI_VERSION} agent parameter. Each installed version also gets its own
+ * {@link HubCliClassDataArchive}.
+ */
+public class HubCliInstaller extends AgentLifeCycleAdapter {
+    public static final String CLI_TOOLS_DIRECTORY_NAME = "HubCLI";
+
+    public static final long HUB_VERSION_TTL_MILLISEC = 5 * 60 * 1000;
+
+    private static final String INSTALLATION_FILE_NAME = "hub-cli-installation.properties";
+
+    private static final String CLI_DIRECTORY_PREFIX = "scan.cli-";
+
+    private static final String HUB_URL_PROPERTY = "hubUrl";
+
+    private static final String HUB_VERSION_PROPERTY = "hubVersion";
+
+    private static final String CLI_VERSION_PROPERTY = "cliVersion";
+
+    private static final String CHECKSUM_PROPERTY = "checksum";
+
+    private BuildAgentConfiguration agentConfiguration;
+
+    private File toolsDirectory;
+
+    private volatile Properties verifiedInstallation;
+
+    private HubCliClassDataArchive classDataArchive;
+
+    private final Map<String, HubVersion> hubVersions = new ConcurrentHashMap<>();
+
+    private final CliSource cliSource;
+
+    private final Clock clock;
+
+    public HubCliInstaller(@NotNull final EventDispatcher<AgentLifeCycleListener> dispatcher) {
+        this(dispatcher, new HubCliSource(), Clock.systemUTC());
+    }
+
+    HubCliInstaller(final EventDispatcher<AgentLifeCycleListener> dispatcher, final CliSource cliSource, final Clock clock) {
+        this.cliSource = cliSource;
+        this.clock = clock;
+        dispatcher.addListener(this);
+    }
+
+    @Override
+    public synchronized void afterAgentConfigurationLoaded(@NotNull final BuildAgent agent) {
+        agentConfiguration = agent.getConfiguration();
+        toolsDirectory = new File(agentConfiguration.getAgentToolsDirectory(), CLI_TOOLS_DIRECTORY_NAME);
+        if (classDataArchive == null) {
+            classDataArchive = new HubCliClassDataArchive(toolsDirectory);
+        }
+        verifiedInstallation = verifyInstallation();
+        if (verifiedInstallation != null) {
+            Loggers.AGENT.info("Hub scan CLI " + verifiedInstallation.getProperty(CLI_VERSION_PROPERTY) + " verified in " + toolsDirectory.getAbsolutePath());
+            publishCliVersion(verifiedInstallation.getProperty(CLI_VERSION_PROPERTY));
+        }
+    }
+
+    @Override
+    public synchronized void agentShutdown() {
+        if (classDataArchive != null) {
+            classDataArchive.shutdown();
+        }
+    }
+
+    public synchronized File getToolsDirectory(final BuildAgentConfiguration buildAgentConfiguration) {
+        if (toolsDirectory == null) {
+            agentConfiguration = buildAgentConfiguration;
+            toolsDirectory = new File(buildAgentConfiguration.getAgentToolsDirectory(), CLI_TOOLS_DIRECTORY_NAME);
+            classDataArchive = new HubCliClassDataArchive(toolsDirectory);
+        }
+        return toolsDirectory;
+    }
+
+    /**
+     * Installs the CLI unless a verified installation from the same Hub and Hub version exists. Builds waiting on this
+     * method share a single download instead of each starting their own.
+     */
+    public void ensureInstalled(final HubRestConnectionLease connectionLease, final String hubUrl, final CIEnvironmentVariables ciEnvironmentVariables, final String localHostName, final IntLogger logger)
+            throws IntegrationException, InterruptedException {
+        final String hubVersion = getHubVersion(connectionLease, hubUrl);
+        if (isInstalled(hubUrl, hubVersion, logger)) {
+            return;
+        }
+        synchronized (this) {
+            // another build may have installed it while this one waited
+            if (isInstalled(hubUrl, hubVersion, logger)) {
+                return;
+            }
+            install(connectionLease, hubUrl, hubVersion, ciEnvironmentVariables, localHostName, logger);
+        }
+    }
+
+    private String getHubVersion(final HubRestConnectionLease connectionLease, final String hubUrl) throws IntegrationException, InterruptedException {
+        final HubVersion cachedVersion = hubVersions.get(hubUrl);
+        final long now = clock.millis();
+        if (cachedVersion != null && now - cachedVersion.readMillis < HUB_VERSION_TTL_MILLISEC) {
+            return cachedVersion.version;
+        }
+        final String version = cliSource.getHubVersion(connectionLease);
+        hubVersions.put(hubUrl, new HubVersion(version, now));
+        return version;
+    }
+
+    private boolean isInstalled(final String hubUrl, final String hubVersion, final IntLogger logger) {
+        final Properties installation = verifiedInstallation;
+        if (installation != null && hubUrl.equals(installation.getProperty(HUB_URL_PROPERTY)) && hubVersion.equals(installation.getProperty(HUB_VERSION_PROPERTY))) {
+            logger.debug("Using the verified Hub scan CLI " + installation.getProperty(CLI_VERSION_PROPERTY));
+            return true;
+        }
+        return false;
+    }
+
+    private void install(final HubRestConnectionLease connectionLease, final String hubUrl, final String hubVersion, final CIEnvironmentVariables ciEnvironmentVariables, final String localHostName, final IntLogger logger)
+            throws IntegrationException {
+        logger.info("Installing the Hub scan CLI for " + hubUrl + " (Hub version " + hubVersion + ")");
+        cliSource.install(connectionLease, toolsDirectory, ciEnvironmentVariables, hubUrl, hubVersion, localHostName, logger);
+
+        File cliDirectory = findCliDirectory(hubVersion);
+        if (cliDirectory == null) {
+            // the CLI is not always versioned like the Hub it comes from, it is then the one just installed
+            cliDirectory = findCliDirectory(null);
+        }
+        if (cliDirectory == null) {
+            throw new IntegrationException("The Hub scan CLI was not found in " + toolsDirectory.getAbsolutePath() + " after the installation.");
+        }
+        try {
+            final Properties installation = new Properties();
+            installation.setProperty(HUB_URL_PROPERTY, hubUrl);
+            installation.setProperty(HUB_VERSION_PROPERTY, hubVersion);
+            installation.setProperty(CLI_VERSION_PROPERTY, getCliVersion(cliDirectory));
+            installation.setProperty(CHECKSUM_PROPERTY, createChecksum(cliDirectory));
+            try (OutputStream outputStream = new FileOutputStream(new File(toolsDirectory, INSTALLATION_FILE_NAME))) {
+                installation.store(outputStream, "Hub scan CLI installation");
+            }
+            verifiedInstallation = installation;
+            publishCliVersion(installation.getProperty(CLI_VERSION_PROPERTY));
+        } catch (final IOException e) {
+            throw new IntegrationException("Could not record the Hub scan CLI installation: " + e.getMessage(), e);
+        }
+    }
+
+    public synchronized String getInstalledCliVersion() {
+        if (verifiedInstallation == null) {
+            return null;
+        }
+        return verifiedInstallation.getProperty(CLI_VERSION_PROPERTY);
+    }
+
+    /**
+     * @return the JVM options that start the verified CLI from its class-data sharing archive, or null if there is no
+     *         verified CLI or its runtime can not use an archive
+     */
+    public synchronized String getSharedArchiveOptions(final IntLogger logger) {
+        if (verifiedInstallation == null) {
+            return null;
+        }
+        final File cliDirectory = findCliDirectory(verifiedInstallation.getProperty(CLI_VERSION_PROPERTY));
+        if (cliDirectory == null) {
+            return null;
+        }
+        return classDataArchive.getSharedArchiveOptions(cliDirectory, verifiedInstallation.getProperty(CLI_VERSION_PROPERTY), logger);
+    }
+
+    private Properties verifyInstallation() {
+        final File installationFile = new File(toolsDirectory, INSTALLATION_FILE_NAME);
+        if (!installationFile.isFile()) {
+            return null;
+        }
+        final Properties installation = new Properties();
+        try (InputStream inputStream = new FileInputStream(installationFile)) {
+            installation.load(inputStream);
+            final File cliDirectory = findCliDirectory(installation.getProperty(CLI_VERSION_PROPERTY));
+            if (cliDirectory == null) {
+                Loggers.AGENT.warn("The Hub scan CLI " + installation.getProperty(CLI_VERSION_PROPERTY) + " was not found in " + toolsDirectory.getAbsolutePath() + ", it will be installed again.");
+                return null;
+            }
+            if (createChecksum(cliDirectory).equals(installation.getProperty(CHECKSUM_PROPERTY))) {
+                return installation;
+            }
+            Loggers.AGENT.warn("The Hub scan CLI in " + cliDirectory.getAbsolutePath() + " does not match its checksum, it will be installed again.");
+        } catch (final IOException e) {
+            Loggers.AGENT.warn("Could not verify the Hub scan CLI installation: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * @param cliVersion
+     *            the version of the CLI to find, or null for the most recently installed CLI
+     * @return the directory of the CLI, or null if it is not installed
+     */
+    private File findCliDirectory(final String cliVersion) {
+        final File installDirectory = new CLILocation(toolsDirectory).getCLIInstallDir();
+        final File[] cliDirectories = installDirectory.listFiles();
+        File newestCliDirectory = null;
+        if (cliDirectories != null) {
+            for (final File cliDirectory : cliDirectories) {
+                if (!cliDirectory.isDirectory() || !cliDirectory.getName().startsWith(CLI_DIRECTORY_PREFIX)) {
+                    continue;
+                }
+                if (cliVersion != null && cliVersion.equals(getCliVersion(cliDirectory))) {
+                    return cliDirectory;
+                }
+                if (newestCliDirectory == null || cliDirectory.lastModified() > newestCliDirectory.lastModified()) {
+                    newestCliDirectory = cliDirectory;
+                }
+            }
+        }
+        return cliVersion == null ? newestCliDirectory : null;
+    }
+
+    private String getCliVersion(final File cliDirectory) {
+        return StringUtils.removeStart(cliDirectory.getName(), CLI_DIRECTORY_PREFIX);
+    }
+
+    private String createChecksum(final File cliDirectory) throws IOException {
+        final MessageDigest messageDigest = DigestUtils.getSha1Digest();
+        final File[] libraries = new File(cliDirectory, "lib").listFiles();
+        if (libraries != null) {
+            Arrays.sort(libraries);
+            for (final File library : libraries) {
+                if (library.isFile()) {
+                    try (InputStream inputStream = new FileInputStream(library)) {
+                        DigestUtils.updateDigest(messageDigest, inputStream);
+                    }
+                }
+            }
+        }
+        return Hex.encodeHexString(messageDigest.digest());
+    }
+
+    private void publishCliVersion(final String cliVersion) {
+        if (agentConfiguration != null && StringUtils.isNotBlank(cliVersion)) {
+            agentConfiguration.addConfigurationParameter(HubConstantValues.HUB_CLI_VERSION, cliVersion);
+        }
+    }
+
+    /**
+     * Where the Hub version and the CLI come from.
+     */
+    interface CliSource {
+        String getHubVersion(HubRestConnectionLease connectionLease) throws IntegrationException, InterruptedException;
+
+        void install(HubRestConnectionLease connectionLease, File toolsDirectory, CIEnvironmentVariables ciEnvironmentVariables, String hubUrl, String hubVersion, String localHostName, IntLogger logger)
+                throws IntegrationException;
+    }
+
+    private static class HubCliSource implements CliSource {
+        @Override
+        public String getHubVersion(final HubRestConnectionLease connectionLease) throws IntegrationException, InterruptedException {
+            final HubService hubService = new HubServicesFactory(connectionLease.getRestConnection()).createHubService();
+            final CurrentVersionView currentVersion = connectionLease.call(new HubSessionCall<CurrentVersionView>() {
+                @Override
+                public CurrentVersionView call() throws IntegrationException {
+                    return hubService.getResponse(ApiDiscovery.CURRENT_VERSION_LINK_RESPONSE);
+                }
+            });
+            return currentVersion.version;
+        }
+
+        @Override
+        public void install(final HubRestConnectionLease connectionLease, final File toolsDirectory, final CIEnvironmentVariables ciEnvironmentVariables, final String hubUrl, final String hubVersion,
+                final String localHostName, final IntLogger logger) throws IntegrationException {
+            final CLIDownloadUtility cliDownloadUtility = new CLIDownloadUtility(logger, connectionLease.getRestConnection());
+            cliDownloadUtility.performInstallation(toolsDirectory, ciEnvironmentVariables, hubUrl, hubVersion, localHostName);
+        }
+    }
+
+    private static class HubVersion {
+        private final String version;
+
+        private final long readMillis;
+
+        private HubVersion(final String version, final long readMillis) {
+            this.version = version;
+            this.readMillis = readMillis;
+        }
+    }
+
+}
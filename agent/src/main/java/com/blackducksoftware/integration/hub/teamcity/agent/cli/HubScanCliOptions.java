@@ -0,0 +1,73 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.cli;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.blackducksoftware.integration.hub.teamcity.common.HubConstantValues;
+
+/**
+ * Builds the JVM options of the scan CLI process. hub-common starts a new CLI JVM for every scan and passes the
+ * space separated SCAN_CLI_OPTS variable to it, so start-up options are added there, after any options the build
+ * already defines.
+ */
+public class HubScanCliOptions {
+    public static final String SCAN_CLI_OPTS = "SCAN_CLI_OPTS";
+
+    /**
+     * Stops JIT compilation at C1 and uses the serial collector, which favors start-up time over peak throughput.
+     */
+    public static final String QUICK_START_OPTIONS = "-XX:TieredStopAtLevel=1 -XX:+UseSerialGC";
+
+    private final List<String> options = new ArrayList<>();
+
+    public HubScanCliOptions(final Map<String, String> variables) {
+        final String scanCliOpts = variables.get(SCAN_CLI_OPTS);
+        if (StringUtils.isNotBlank(scanCliOpts)) {
+            options.add(scanCliOpts.trim());
+        }
+        if (Boolean.parseBoolean(variables.get(HubConstantValues.HUB_SCAN_CLI_QUICK_START))) {
+            options.add(QUICK_START_OPTIONS);
+        }
+    }
+
+    public void addOption(final String option) {
+        options.add(option);
+    }
+
+    public String getOptions() {
+        return StringUtils.join(options, " ");
+    }
+
+    public void apply(final Map<String, String> variables) {
+        if (!options.isEmpty()) {
+            variables.put(SCAN_CLI_OPTS, getOptions());
+        }
+    }
+
+}
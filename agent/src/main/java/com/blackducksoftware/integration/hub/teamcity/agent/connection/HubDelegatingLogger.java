@@ -0,0 +1,149 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.connection;
+
+import com.blackducksoftware.integration.log.IntLogger;
+import com.blackducksoftware.integration.log.LogLevel;
+
+import jetbrains.buildServer.log.Loggers;
+
+/**
+ * The logger of a pooled connection. A RestConnection keeps the logger it was created with and hands it to every
+ * service created from it, so the pool creates connections with this logger and points it at the build that holds the
+ * connection. While no build holds it, warnings and errors go to the agent log and the rest is dropped.
+ */
+public class HubDelegatingLogger extends IntLogger {
+    private volatile IntLogger delegate;
+
+    public IntLogger getDelegate() {
+        return delegate;
+    }
+
+    public void setDelegate(final IntLogger delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public LogLevel getLogLevel() {
+        final IntLogger current = delegate;
+        return current == null ? LogLevel.WARN : current.getLogLevel();
+    }
+
+    @Override
+    public void setLogLevel(final LogLevel level) {
+        final IntLogger current = delegate;
+        if (current != null) {
+            current.setLogLevel(level);
+        }
+    }
+
+    @Override
+    public void alwaysLog(final String txt) {
+        final IntLogger current = delegate;
+        if (current != null) {
+            current.alwaysLog(txt);
+        }
+    }
+
+    @Override
+    public void info(final String txt) {
+        final IntLogger current = delegate;
+        if (current != null) {
+            current.info(txt);
+        }
+    }
+
+    @Override
+    public void error(final Throwable e) {
+        final IntLogger current = delegate;
+        if (current != null) {
+            current.error(e);
+        } else {
+            Loggers.AGENT.error(e);
+        }
+    }
+
+    @Override
+    public void error(final String txt, final Throwable e) {
+        final IntLogger current = delegate;
+        if (current != null) {
+            current.error(txt, e);
+        } else {
+            Loggers.AGENT.error(txt, e);
+        }
+    }
+
+    @Override
+    public void error(final String txt) {
+        final IntLogger current = delegate;
+        if (current != null) {
+            current.error(txt);
+        } else {
+            Loggers.AGENT.error(txt);
+        }
+    }
+
+    @Override
+    public void warn(final String txt) {
+        final IntLogger current = delegate;
+        if (current != null) {
+            current.warn(txt);
+        } else {
+            Loggers.AGENT.warn(txt);
+        }
+    }
+
+    @Override
+    public void trace(final String txt) {
+        final IntLogger current = delegate;
+        if (current != null) {
+            current.trace(txt);
+        }
+    }
+
+    @Override
+    public void trace(final String txt, final Throwable e) {
+        final IntLogger current = delegate;
+        if (current != null) {
+            current.trace(txt, e);
+        }
+    }
+
+    @Override
+    public void debug(final String txt) {
+        final IntLogger current = delegate;
+        if (current != null) {
+            current.debug(txt);
+        }
+    }
+
+    @Override
+    public void debug(final String txt, final Throwable e) {
+        final IntLogger current = delegate;
+        if (current != null) {
+            current.debug(txt, e);
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.connection;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.blackducksoftware.integration.exception.IntegrationException;
+import com.blackducksoftware.integration.hub.rest.RestConnection;
+import com.blackducksoftware.integration.hub.rest.exception.IntegrationRestException;
+
+/**
+ * A pooled connection held by one build. Closing the lease gives the connection back to the pool unless it was
+ * invalidated, which a build does when it failed in a way that may have left the session unusable.
+ */
+public class HubRestConnectionLease implements AutoCloseable {
+    private static final int UNAUTHORIZED = 401;
+
+    private final HubRestConnectionPool pool;
+
+    private final HubRestConnectionPool.PooledConnection pooledConnection;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private volatile boolean invalid;
+
+    HubRestConnectionLease(final HubRestConnectionPool pool, final HubRestConnectionPool.PooledConnection pooledConnection) {
+        this.pool = pool;
+        this.pooledConnection = pooledConnection;
+    }
+
+    public RestConnection getRestConnection() {
+        return pooledConnection.getRestConnection();
+    }
+
+    public void invalidate() {
+        invalid = true;
+    }
+
+    /**
+     * Runs Hub requests on the connection. When the Hub rejects the session, which it does once the session timed out
+     * while the connection was idle, the connection logs in again and the requests run once more. Only pass requests
+     * that can safely run twice, such as lookups and polls; a scan that fails must not be started again.
+     */
+    public <T> T call(final HubSessionCall<T> call) throws IntegrationException, InterruptedException {
+        try {
+            return call.call();
+        } catch (final IntegrationException e) {
+            if (!isSessionRejected(e)) {
+                throw e;
+            }
+            pooledConnection.reconnect();
+            return call.call();
+        }
+    }
+
+    static boolean isSessionRejected(final Throwable throwable) {
+        Throwable cause = throwable;
+        while (cause != null) {
+            if (cause instanceof IntegrationRestException && ((IntegrationRestException) cause).getHttpStatusCode() == UNAUTHORIZED) {
+                return true;
+            }
+            cause = cause.getCause() == cause ? null : cause.getCause();
+        }
+        return false;
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            pool.release(pooledConnection, !invalid);
+        }
+    }
+
+}
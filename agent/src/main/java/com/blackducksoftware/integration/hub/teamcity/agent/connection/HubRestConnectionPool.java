@@ -0,0 +1,254 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.connection;
+
+import java.time.Clock;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.jetbrains.annotations.NotNull;
+
+import com.blackducksoftware.integration.exception.IntegrationException;
+import com.blackducksoftware.integration.hub.configuration.HubServerConfig;
+import com.blackducksoftware.integration.hub.proxy.ProxyInfo;
+import com.blackducksoftware.integration.hub.rest.RestConnection;
+import com.blackducksoftware.integration.hub.teamcity.agent.HubThreadFactory;
+import com.blackducksoftware.integration.log.IntLogger;
+
+import jetbrains.buildServer.agent.AgentLifeCycleAdapter;
+import jetbrains.buildServer.agent.AgentLifeCycleListener;
+import jetbrains.buildServer.util.EventDispatcher;
+
+/**
+ * Keeps logged in Hub connections on the agent so consecutive builds against the same Hub skip the TLS handshake and
+ * the login. Connections are pooled by a fingerprint of everything in the {@link HubServerConfig} that changes the
+ * session: the URL, the credentials, the proxy and the trust settings. A build leases a connection for itself, so the
+ * log output of the connection goes to that build. Sessions older than the maximum session age are replaced by a new
+ * login before the Hub expires them, and idle connections are evicted. A session the Hub still rejects, for example
+ * because it timed out while idle, is logged in again by the lease.
+ */
+public class HubRestConnectionPool extends AgentLifeCycleAdapter {
+    public static final long MAX_SESSION_AGE_MILLIS = 30 * 60 * 1000;
+
+    public static final long MAX_IDLE_MILLIS = 10 * 60 * 1000;
+
+    public static final int MAX_IDLE_CONNECTIONS_PER_SERVER = 4;
+
+    private static final long EVICTION_INTERVAL_MILLIS = 60 * 1000;
+
+    private final Map<String, Deque<PooledConnection>> idleConnections = new HashMap<>();
+
+    private final ScheduledExecutorService evictor;
+
+    private final Connector connector;
+
+    private final Clock clock;
+
+    public HubRestConnectionPool(@NotNull final EventDispatcher<AgentLifeCycleListener> dispatcher) {
+        this(dispatcher, new Connector() {
+            @Override
+            public RestConnection createRestConnection(final HubServerConfig hubServerConfig, final IntLogger logger) throws IntegrationException {
+                return hubServerConfig.createCredentialsRestConnection(logger);
+            }
+        }, Clock.systemUTC());
+    }
+
+    HubRestConnectionPool(final EventDispatcher<AgentLifeCycleListener> dispatcher, final Connector connector, final Clock clock) {
+        this.connector = connector;
+        this.clock = clock;
+        final ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1, new HubThreadFactory("Hub Connection Evictor"));
+        scheduledExecutor.setRemoveOnCancelPolicy(true);
+        evictor = scheduledExecutor;
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictIdle();
+            }
+        }, EVICTION_INTERVAL_MILLIS, EVICTION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        dispatcher.addListener(this);
+    }
+
+    @Override
+    public void agentShutdown() {
+        evictor.shutdownNow();
+        synchronized (idleConnections) {
+            idleConnections.clear();
+        }
+    }
+
+    /**
+     * @return a connected, logged in connection for the build, close the lease once the build no longer needs it
+     */
+    public HubRestConnectionLease acquire(final HubServerConfig hubServerConfig, final IntLogger logger) throws IntegrationException {
+        final String fingerprint = fingerprint(hubServerConfig);
+        final long now = clock.millis();
+        PooledConnection pooledConnection = null;
+        synchronized (idleConnections) {
+            final Deque<PooledConnection> connections = idleConnections.get(fingerprint);
+            while (connections != null && !connections.isEmpty() && pooledConnection == null) {
+                final PooledConnection candidate = connections.pollFirst();
+                if (now - candidate.loggedInMillis < MAX_SESSION_AGE_MILLIS) {
+                    pooledConnection = candidate;
+                }
+            }
+        }
+        if (pooledConnection == null) {
+            logger.debug("Logging in to " + hubServerConfig.getHubUrl());
+            pooledConnection = connect(fingerprint, hubServerConfig, logger);
+        } else {
+            logger.debug("Reusing the Hub session with " + hubServerConfig.getHubUrl());
+        }
+        pooledConnection.logger.setDelegate(logger);
+        return new HubRestConnectionLease(this, pooledConnection);
+    }
+
+    public int getIdleCount() {
+        int idle = 0;
+        synchronized (idleConnections) {
+            for (final Deque<PooledConnection> connections : idleConnections.values()) {
+                idle += connections.size();
+            }
+        }
+        return idle;
+    }
+
+    void release(final PooledConnection pooledConnection, final boolean reusable) {
+        pooledConnection.logger.setDelegate(null);
+        if (!reusable) {
+            return;
+        }
+        pooledConnection.releasedMillis = clock.millis();
+        synchronized (idleConnections) {
+            Deque<PooledConnection> connections = idleConnections.get(pooledConnection.fingerprint);
+            if (connections == null) {
+                connections = new ArrayDeque<>();
+                idleConnections.put(pooledConnection.fingerprint, connections);
+            }
+            // the most recently used connection is handed out first, so the others can go idle and be evicted
+            connections.addFirst(pooledConnection);
+            while (connections.size() > MAX_IDLE_CONNECTIONS_PER_SERVER) {
+                connections.removeLast();
+            }
+        }
+    }
+
+    void evictIdle() {
+        final long now = clock.millis();
+        synchronized (idleConnections) {
+            final Iterator<Deque<PooledConnection>> servers = idleConnections.values().iterator();
+            while (servers.hasNext()) {
+                final Deque<PooledConnection> connections = servers.next();
+                final Iterator<PooledConnection> iterator = connections.iterator();
+                while (iterator.hasNext()) {
+                    final PooledConnection pooledConnection = iterator.next();
+                    if (now - pooledConnection.releasedMillis >= MAX_IDLE_MILLIS || now - pooledConnection.loggedInMillis >= MAX_SESSION_AGE_MILLIS) {
+                        iterator.remove();
+                    }
+                }
+                if (connections.isEmpty()) {
+                    servers.remove();
+                }
+            }
+        }
+    }
+
+    private PooledConnection connect(final String fingerprint, final HubServerConfig hubServerConfig, final IntLogger logger) throws IntegrationException {
+        final HubDelegatingLogger connectionLogger = new HubDelegatingLogger();
+        connectionLogger.setDelegate(logger);
+        final RestConnection restConnection = connector.createRestConnection(hubServerConfig, connectionLogger);
+        restConnection.connect();
+        return new PooledConnection(fingerprint, restConnection, connectionLogger, clock);
+    }
+
+    /**
+     * @return a hash of the settings that make a session, which also serves as the key of a Hub and its credentials
+     *         wherever the credentials themselves must not be kept
+     */
+    public static String fingerprint(final HubServerConfig hubServerConfig) {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(hubServerConfig.getHubUrl()).append('\n');
+        builder.append(hubServerConfig.getTimeout()).append('\n');
+        builder.append(hubServerConfig.isAlwaysTrustServerCertificate()).append('\n');
+        if (hubServerConfig.getGlobalCredentials() != null) {
+            builder.append(hubServerConfig.getGlobalCredentials().getUsername()).append('\n');
+            builder.append(hubServerConfig.getGlobalCredentials().getEncryptedPassword()).append('\n');
+        }
+        final ProxyInfo proxyInfo = hubServerConfig.getProxyInfo();
+        if (proxyInfo != null) {
+            builder.append(proxyInfo.getHost()).append('\n');
+            builder.append(proxyInfo.getPort()).append('\n');
+            builder.append(proxyInfo.getIgnoredProxyHosts()).append('\n');
+            builder.append(proxyInfo.getUsername()).append('\n');
+            builder.append(proxyInfo.getEncryptedPassword()).append('\n');
+        }
+        return DigestUtils.sha256Hex(builder.toString());
+    }
+
+    static class PooledConnection {
+        private final String fingerprint;
+
+        private final RestConnection restConnection;
+
+        private final HubDelegatingLogger logger;
+
+        private final Clock clock;
+
+        private volatile long loggedInMillis;
+
+        private volatile long releasedMillis;
+
+        private PooledConnection(final String fingerprint, final RestConnection restConnection, final HubDelegatingLogger logger, final Clock clock) {
+            this.fingerprint = fingerprint;
+            this.restConnection = restConnection;
+            this.logger = logger;
+            this.clock = clock;
+            loggedInMillis = clock.millis();
+        }
+
+        RestConnection getRestConnection() {
+            return restConnection;
+        }
+
+        synchronized void reconnect() throws IntegrationException {
+            restConnection.connect();
+            loggedInMillis = clock.millis();
+        }
+    }
+
+    /**
+     * Creates the connection of a new session, the pool logs it in.
+     */
+    interface Connector {
+        RestConnection createRestConnection(HubServerConfig hubServerConfig, IntLogger logger) throws IntegrationException;
+
+    }
+
+}
@@ -0,0 +1,157 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.connection;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import com.blackducksoftware.integration.hub.configuration.HubServerConfig;
+import com.blackducksoftware.integration.hub.configuration.HubServerConfigBuilder;
+import com.blackducksoftware.integration.hub.teamcity.common.HubConstantValues;
+import com.blackducksoftware.integration.log.IntLogger;
+import com.blackducksoftware.integration.util.CIEnvironmentVariables;
+
+/**
+ * Builds the {@link HubServerConfig} of a build from its parameters and keeps the validated result, so builds with the
+ * same Hub settings skip the builder, the password handling and the validation. Entries are keyed by a hash of every
+ * parameter the config is built from plus the version of the server side configuration, so a change on either side
+ * builds a new config.
+ */
+public class HubServerConfigCache {
+    public static final int MAX_CONFIGS = 16;
+
+    private static final String[] CONFIG_PARAMETERS = {
+            HubConstantValues.HUB_CONFIG_VERSION,
+            HubConstantValues.HUB_URL,
+            HubConstantValues.HUB_CONNECTION_TIMEOUT,
+            HubConstantValues.HUB_USERNAME,
+            HubConstantValues.HUB_PASSWORD,
+            HubConstantValues.HUB_PASSWORD_LENGTH,
+            HubConstantValues.HUB_TRUST_SERVER_CERT,
+            HubConstantValues.HUB_PROXY_HOST,
+            HubConstantValues.HUB_PROXY_PORT,
+            HubConstantValues.HUB_NO_PROXY_HOSTS,
+            HubConstantValues.HUB_PROXY_USER,
+            HubConstantValues.HUB_PROXY_PASS,
+            HubConstantValues.HUB_PROXY_PASS_LENGTH
+    };
+
+    private final Map<String, HubServerConfig> configs = new LinkedHashMap<String, HubServerConfig>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, HubServerConfig> eldest) {
+            return size() > MAX_CONFIGS;
+        }
+    };
+
+    /**
+     * @return the config for the parameters, or null if they do not make a valid config
+     */
+    public HubServerConfig getHubServerConfig(final CIEnvironmentVariables commonVariables, final IntLogger logger) {
+        final String key = createKey(commonVariables);
+        synchronized (configs) {
+            final HubServerConfig hubServerConfig = configs.get(key);
+            if (hubServerConfig != null) {
+                logger.debug("Using the cached Hub server configuration");
+                return hubServerConfig;
+            }
+        }
+        final HubServerConfig hubServerConfig = buildHubServerConfig(commonVariables, logger);
+        if (hubServerConfig != null) {
+            synchronized (configs) {
+                configs.put(key, hubServerConfig);
+            }
+        }
+        return hubServerConfig;
+    }
+
+    public int size() {
+        synchronized (configs) {
+            return configs.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (configs) {
+            configs.clear();
+        }
+    }
+
+    static String createKey(final CIEnvironmentVariables commonVariables) {
+        final StringBuilder builder = new StringBuilder();
+        for (final String parameter : CONFIG_PARAMETERS) {
+            final String value = commonVariables.getValue(parameter);
+            // the length keeps a value from running into the next one
+            builder.append(value == null ? -1 : value.length()).append(':').append(value).append('\n');
+        }
+        return DigestUtils.sha256Hex(builder.toString());
+    }
+
+    private HubServerConfig buildHubServerConfig(final CIEnvironmentVariables commonVariables, final IntLogger logger) {
+        final HubServerConfigBuilder configBuilder = new HubServerConfigBuilder();
+
+        // read the credentials and proxy info using the existing objects.
+        final String serverUrl = commonVariables.getValue(HubConstantValues.HUB_URL);
+        final String timeout = commonVariables.getValue(HubConstantValues.HUB_CONNECTION_TIMEOUT);
+        final String username = commonVariables.getValue(HubConstantValues.HUB_USERNAME);
+        final String password = commonVariables.getValue(HubConstantValues.HUB_PASSWORD);
+        final String passwordLength = commonVariables.getValue(HubConstantValues.HUB_PASSWORD_LENGTH);
+
+        final String alwaysTrustServerCertificate = commonVariables.getValue(HubConstantValues.HUB_TRUST_SERVER_CERT);
+
+        final String proxyHost = commonVariables.getValue(HubConstantValues.HUB_PROXY_HOST);
+        final String proxyPort = commonVariables.getValue(HubConstantValues.HUB_PROXY_PORT);
+        final String ignoredProxyHosts = commonVariables.getValue(HubConstantValues.HUB_NO_PROXY_HOSTS);
+        final String proxyUsername = commonVariables.getValue(HubConstantValues.HUB_PROXY_USER);
+        final String proxyPassword = commonVariables.getValue(HubConstantValues.HUB_PROXY_PASS);
+        final String proxyPasswordLength = commonVariables.getValue(HubConstantValues.HUB_PROXY_PASS_LENGTH);
+
+        configBuilder.setHubUrl(serverUrl);
+        configBuilder.setUsername(username);
+        configBuilder.setPassword(password);
+        configBuilder.setPasswordLength(NumberUtils.toInt(passwordLength));
+        configBuilder.setTimeout(timeout);
+
+        configBuilder.setAlwaysTrustServerCertificate(Boolean.valueOf(alwaysTrustServerCertificate));
+
+        configBuilder.setProxyHost(proxyHost);
+        configBuilder.setProxyPort(proxyPort);
+        configBuilder.setIgnoredProxyHosts(ignoredProxyHosts);
+        configBuilder.setProxyUsername(proxyUsername);
+        configBuilder.setProxyPassword(proxyPassword);
+        configBuilder.setProxyPasswordLength(NumberUtils.toInt(proxyPasswordLength));
+
+        try {
+            return configBuilder.build();
+        } catch (final IllegalStateException e) {
+            logger.error(e.getMessage(), e);
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,310 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.log;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.blackducksoftware.integration.hub.teamcity.agent.HubThreadFactory;
+import com.blackducksoftware.integration.log.LogLevel;
+
+import jetbrains.buildServer.log.Loggers;
+
+/**
+ * Hands the lines to another sink on a single drain thread so the build step never waits for the build log. The queue
+ * is lock free and bounded, what happens when it is full is decided by the {@link HubLogQueueFullPolicy}. Lines are
+ * delivered in the order they were logged, dropped lines are summarised in their place before the next queued line.
+ * {@link #flush()} and {@link #targetFinished(String)} return once everything logged before them was delivered.
+ * <p>
+ * Each sink has its own drain thread rather than sharing one across the agent: a build log that is slow to accept
+ * lines, with the BLOCK policy, would otherwise hold up the lines of every other build on the agent. The thread only
+ * lives as long as the build step and parks while the queue is empty.
+ * <p>
+ * {@link #close()} stops the drain thread before it delivers what is still queued itself, and only then closes the
+ * other sink, so no line logged before or while closing is lost.
+ */
+public class HubAsyncLogSink implements HubBuildLogSink {
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    public static final int SAMPLE_RATE = 10;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private static final long FLUSH_TIMEOUT_SECONDS = 60;
+
+    private static final HubThreadFactory DRAIN_THREAD_FACTORY = new HubThreadFactory("Hub Log Drain");
+
+    private final HubBuildLogSink delegate;
+
+    private final int capacity;
+
+    private final HubLogQueueFullPolicy queueFullPolicy;
+
+    private final ConcurrentLinkedQueue<LogEntry> queue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger queueSize = new AtomicInteger();
+
+    private final AtomicLong droppedLines = new AtomicLong();
+
+    private final AtomicLong unreportedDroppedLines = new AtomicLong();
+
+    private final AtomicLong sampleCounter = new AtomicLong();
+
+    private final Thread drainThread;
+
+    private volatile boolean drainIdle;
+
+    private volatile boolean closed;
+
+    public HubAsyncLogSink(final HubBuildLogSink delegate) {
+        this(delegate, DEFAULT_CAPACITY, HubLogQueueFullPolicy.BLOCK);
+    }
+
+    public HubAsyncLogSink(final HubBuildLogSink delegate, final int capacity, final HubLogQueueFullPolicy queueFullPolicy) {
+        this.delegate = delegate;
+        this.capacity = Math.max(1, capacity);
+        this.queueFullPolicy = queueFullPolicy;
+        drainThread = DRAIN_THREAD_FACTORY.newThread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        });
+        drainThread.start();
+    }
+
+    @Override
+    public void message(final LogLevel level, final String txt) {
+        enqueue(new LogEntry(EntryType.MESSAGE, level, txt, null), isDroppable(level));
+    }
+
+    @Override
+    public void targetStarted(final String txt) {
+        enqueue(new LogEntry(EntryType.TARGET_STARTED, null, txt, null), false);
+    }
+
+    @Override
+    public void targetFinished(final String txt) {
+        enqueue(new LogEntry(EntryType.TARGET_FINISHED, null, txt, null), false);
+        flush();
+    }
+
+    @Override
+    public void flush() {
+        if (closed) {
+            delegate.flush();
+            return;
+        }
+        final CountDownLatch delivered = new CountDownLatch(1);
+        enqueue(new LogEntry(EntryType.FLUSH, null, null, delivered), false);
+        try {
+            if (!delivered.await(FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                Loggers.AGENT.warn("Timed out waiting for the Hub build log to be delivered");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(drainThread);
+        try {
+            drainThread.join(TimeUnit.SECONDS.toMillis(FLUSH_TIMEOUT_SECONDS));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (drainThread.isAlive()) {
+            // the other sink is stuck, the drain thread delivers the rest once it is not
+            Loggers.AGENT.warn("Timed out waiting for the Hub build log to be delivered");
+            return;
+        }
+        drainRemaining();
+        delegate.close();
+    }
+
+    public int getQueueSize() {
+        return queueSize.get();
+    }
+
+    public long getDroppedLines() {
+        return droppedLines.get();
+    }
+
+    private boolean isDroppable(final LogLevel level) {
+        if (HubLogQueueFullPolicy.DROP_LOWEST_LEVEL == queueFullPolicy) {
+            return LogLevel.DEBUG == level || LogLevel.TRACE == level;
+        } else if (HubLogQueueFullPolicy.SAMPLE == queueFullPolicy) {
+            return LogLevel.INFO == level || LogLevel.DEBUG == level || LogLevel.TRACE == level;
+        }
+        return false;
+    }
+
+    private void enqueue(final LogEntry entry, final boolean droppable) {
+        if (isDrainStopped()) {
+            // nothing drains the queue anymore, so keep the line rather than lose it
+            deliverAfterClose(entry);
+            return;
+        }
+        if (!reserveSlot()) {
+            if (droppable && !isSampled()) {
+                droppedLines.incrementAndGet();
+                unreportedDroppedLines.incrementAndGet();
+                return;
+            }
+            while (!reserveSlot()) {
+                if (isDrainStopped()) {
+                    drainRemaining();
+                } else {
+                    LockSupport.unpark(drainThread);
+                    LockSupport.parkNanos(this, FULL_PARK_NANOS);
+                }
+            }
+        }
+        entry.droppedBefore = unreportedDroppedLines.getAndSet(0);
+        queue.offer(entry);
+        if (isDrainStopped()) {
+            // the sink was closed after the check above, nothing else delivers the line
+            drainRemaining();
+        } else if (drainIdle) {
+            LockSupport.unpark(drainThread);
+        }
+    }
+
+    private boolean isDrainStopped() {
+        return closed && !drainThread.isAlive();
+    }
+
+    private synchronized void deliverAfterClose(final LogEntry entry) {
+        drainRemaining();
+        deliver(entry);
+    }
+
+    /**
+     * Delivers what is left in the queue once the drain thread has stopped.
+     */
+    private synchronized void drainRemaining() {
+        LogEntry entry;
+        while ((entry = queue.poll()) != null) {
+            queueSize.decrementAndGet();
+            deliver(entry);
+        }
+    }
+
+    private boolean isSampled() {
+        return HubLogQueueFullPolicy.SAMPLE == queueFullPolicy && sampleCounter.getAndIncrement() % SAMPLE_RATE == 0;
+    }
+
+    private boolean reserveSlot() {
+        while (true) {
+            final int size = queueSize.get();
+            if (size >= capacity) {
+                return false;
+            }
+            if (queueSize.compareAndSet(size, size + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            final LogEntry entry = queue.poll();
+            if (entry != null) {
+                queueSize.decrementAndGet();
+                deliver(entry);
+            } else if (closed) {
+                return;
+            } else {
+                drainIdle = true;
+                if (queue.isEmpty() && !closed) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                drainIdle = false;
+            }
+        }
+    }
+
+    private void deliver(final LogEntry entry) {
+        try {
+            if (entry.droppedBefore > 0) {
+                delegate.message(LogLevel.WARN, entry.droppedBefore + " log lines were dropped because the Hub log queue was full.");
+            }
+            switch (entry.type) {
+            case MESSAGE:
+                delegate.message(entry.level, entry.txt);
+                break;
+            case TARGET_STARTED:
+                delegate.targetStarted(entry.txt);
+                break;
+            case TARGET_FINISHED:
+                delegate.targetFinished(entry.txt);
+                break;
+            case FLUSH:
+                delegate.flush();
+                break;
+            }
+        } catch (final RuntimeException e) {
+            Loggers.AGENT.warn("Could not deliver a Hub build log message: " + e.getMessage());
+        } finally {
+            if (entry.delivered != null) {
+                entry.delivered.countDown();
+            }
+        }
+    }
+
+    private enum EntryType {
+        MESSAGE,
+        TARGET_STARTED,
+        TARGET_FINISHED,
+        FLUSH;
+    }
+
+    private static class LogEntry {
+        private final EntryType type;
+
+        private final LogLevel level;
+
+        private final String txt;
+
+        private final CountDownLatch delivered;
+
+        private long droppedBefore;
+
+        private LogEntry(final EntryType type, final LogLevel level, final String txt, final CountDownLatch delivered) {
+            this.type = type;
+            this.level = level;
+            this.txt = txt;
+            this.delivered = delivered;
+        }
+    }
+
+}
@@ -0,0 +1,193 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.log;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.blackducksoftware.integration.hub.teamcity.agent.HubThreadFactory;
+import com.blackducksoftware.integration.log.LogLevel;
+
+import jetbrains.buildServer.agent.BuildProgressLogger;
+
+/**
+ * Groups progress lines into blocks so a verbose scan sends a few build log messages to the server instead of one per
+ * line. A block is sent once it holds the maximum number of lines or the oldest line has waited for the maximum delay.
+ * DEBUG and TRACE lines over the per second rate limit are dropped and summarised in the next block. Errors are
+ * never batched or dropped: they send the pending block first and then go straight to the build log.
+ */
+public class HubBatchingLogSink implements HubBuildLogSink {
+    public static final int DEFAULT_MAX_BATCH_LINES = 100;
+
+    public static final long DEFAULT_MAX_BATCH_DELAY_MILLIS = 1000;
+
+    public static final int DEFAULT_MAX_LINES_PER_SECOND = 1000;
+
+    private static final ScheduledExecutorService FLUSHER = createFlusher();
+
+    private final BuildProgressLogger logger;
+
+    private final int maxBatchLines;
+
+    private final long maxBatchDelayMillis;
+
+    private final int maxLinesPerSecond;
+
+    private final StringBuilder batch = new StringBuilder();
+
+    private int batchLines;
+
+    private ScheduledFuture<?> scheduledFlush;
+
+    private long rateWindowStart;
+
+    private int rateWindowLines;
+
+    private long suppressedLines;
+
+    public HubBatchingLogSink(final BuildProgressLogger logger) {
+        this(logger, DEFAULT_MAX_BATCH_LINES, DEFAULT_MAX_BATCH_DELAY_MILLIS, DEFAULT_MAX_LINES_PER_SECOND);
+    }
+
+    /**
+     * @param maxLinesPerSecond
+     *            zero or less turns the rate limit off
+     */
+    public HubBatchingLogSink(final BuildProgressLogger logger, final int maxBatchLines, final long maxBatchDelayMillis, final int maxLinesPerSecond) {
+        this.logger = logger;
+        this.maxBatchLines = Math.max(1, maxBatchLines);
+        this.maxBatchDelayMillis = Math.max(0, maxBatchDelayMillis);
+        this.maxLinesPerSecond = maxLinesPerSecond;
+    }
+
+    private static ScheduledExecutorService createFlusher() {
+        final ScheduledThreadPoolExecutor flusher = new ScheduledThreadPoolExecutor(1, new HubThreadFactory("Hub Log Flusher"));
+        flusher.setRemoveOnCancelPolicy(true);
+        return flusher;
+    }
+
+    @Override
+    public synchronized void message(final LogLevel level, final String txt) {
+        if (LogLevel.ERROR == level) {
+            flush();
+            logger.error(txt);
+            return;
+        }
+        if ((LogLevel.DEBUG == level || LogLevel.TRACE == level) && isOverRateLimit()) {
+            suppressedLines++;
+            return;
+        }
+        append(txt);
+        if (batchLines >= maxBatchLines) {
+            sendBatch();
+        } else if (scheduledFlush == null) {
+            scheduleFlush();
+        }
+    }
+
+    @Override
+    public synchronized void targetStarted(final String txt) {
+        flush();
+        logger.targetStarted(txt);
+    }
+
+    @Override
+    public synchronized void targetFinished(final String txt) {
+        flush();
+        logger.targetFinished(txt);
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (suppressedLines > 0) {
+            append(suppressedLines + " log lines were dropped because the build exceeded " + maxLinesPerSecond + " log lines per second.");
+            suppressedLines = 0;
+        }
+        sendBatch();
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+    public synchronized long getSuppressedLines() {
+        return suppressedLines;
+    }
+
+    private boolean isOverRateLimit() {
+        if (maxLinesPerSecond <= 0) {
+            return false;
+        }
+        final long now = System.currentTimeMillis();
+        if (now - rateWindowStart >= 1000) {
+            rateWindowStart = now;
+            rateWindowLines = 0;
+        }
+        rateWindowLines++;
+        return rateWindowLines > maxLinesPerSecond;
+    }
+
+    private void append(final String txt) {
+        if (batchLines > 0) {
+            batch.append('\n');
+        }
+        batch.append(txt);
+        batchLines++;
+    }
+
+    private void sendBatch() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (batchLines == 0) {
+            return;
+        }
+        final String block = batch.toString();
+        batch.setLength(0);
+        batchLines = 0;
+        logger.progressMessage(block);
+    }
+
+    private void scheduleFlush() {
+        scheduledFlush = FLUSHER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flushScheduled();
+            }
+        }, maxBatchDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void flushScheduled() {
+        // the batch may already have been sent and a new one started, the new one keeps its own schedule
+        if (scheduledFlush != null && scheduledFlush.getDelay(TimeUnit.MILLISECONDS) <= 0) {
+            scheduledFlush = null;
+            flush();
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.log;
+
+import com.blackducksoftware.integration.log.LogLevel;
+
+/**
+ * Where {@link com.blackducksoftware.integration.hub.teamcity.agent.HubAgentBuildLogger} delivers the lines that
+ * passed its log level check.
+ */
+public interface HubBuildLogSink {
+    /**
+     * ERROR lines become build log errors, every other level becomes a progress message.
+     */
+    void message(LogLevel level, String txt);
+
+    void targetStarted(String txt);
+
+    void targetFinished(String txt);
+
+    /**
+     * Delivers everything that is still held back by the sink.
+     */
+    void flush();
+
+    /**
+     * Flushes and releases whatever the sink holds, nothing is logged through it afterwards.
+     */
+    void close();
+
+}
@@ -0,0 +1,69 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.log;
+
+import com.blackducksoftware.integration.log.LogLevel;
+
+import jetbrains.buildServer.agent.BuildProgressLogger;
+
+/**
+ * Sends every line to the build log as soon as it is logged.
+ */
+public class HubDirectLogSink implements HubBuildLogSink {
+    private final BuildProgressLogger logger;
+
+    public HubDirectLogSink(final BuildProgressLogger logger) {
+        this.logger = logger;
+    }
+
+    @Override
+    public void message(final LogLevel level, final String txt) {
+        if (LogLevel.ERROR == level) {
+            logger.error(txt);
+        } else {
+            logger.progressMessage(txt);
+        }
+    }
+
+    @Override
+    public void targetStarted(final String txt) {
+        logger.targetStarted(txt);
+    }
+
+    @Override
+    public void targetFinished(final String txt) {
+        logger.targetFinished(txt);
+    }
+
+    @Override
+    public void flush() {
+        // nothing is held back
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
+}
@@ -0,0 +1,44 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.log;
+
+/**
+ * What {@link HubAsyncLogSink} does with a line when its queue is full. Errors, warnings and target boundaries always
+ * wait for room whatever the policy.
+ */
+public enum HubLogQueueFullPolicy {
+    /**
+     * The logging thread waits until the drain thread makes room
+     */
+    BLOCK,
+    /**
+     * DEBUG and TRACE lines are dropped, everything else waits
+     */
+    DROP_LOWEST_LEVEL,
+    /**
+     * Only one in every {@link HubAsyncLogSink#SAMPLE_RATE} INFO, DEBUG and TRACE lines is kept, the kept lines wait
+     */
+    SAMPLE;
+
+}
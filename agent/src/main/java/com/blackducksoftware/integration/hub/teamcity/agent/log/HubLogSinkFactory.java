@@ -0,0 +1,62 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.log;
+
+import org.apache.commons.lang3.EnumUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import com.blackducksoftware.integration.hub.teamcity.common.HubConstantValues;
+import com.blackducksoftware.integration.util.CIEnvironmentVariables;
+
+import jetbrains.buildServer.agent.BuildProgressLogger;
+
+/**
+ * Creates the sinks configured for a build step, for the build log of the step and for each flow it logs to.
+ */
+public class HubLogSinkFactory {
+    private final CIEnvironmentVariables commonVariables;
+
+    public HubLogSinkFactory(final CIEnvironmentVariables commonVariables) {
+        this.commonVariables = commonVariables;
+    }
+
+    public HubBuildLogSink create(final BuildProgressLogger buildLogger) {
+        HubBuildLogSink sink = new HubDirectLogSink(buildLogger);
+        if (Boolean.parseBoolean(commonVariables.getValue(HubConstantValues.HUB_LOG_BATCHING))) {
+            final int maxLinesPerSecond = NumberUtils.toInt(commonVariables.getValue(HubConstantValues.HUB_LOG_MAX_LINES_PER_SECOND), HubBatchingLogSink.DEFAULT_MAX_LINES_PER_SECOND);
+            sink = new HubBatchingLogSink(buildLogger, HubBatchingLogSink.DEFAULT_MAX_BATCH_LINES, HubBatchingLogSink.DEFAULT_MAX_BATCH_DELAY_MILLIS, maxLinesPerSecond);
+        }
+        if (Boolean.parseBoolean(commonVariables.getValue(HubConstantValues.HUB_LOG_ASYNC))) {
+            final int capacity = NumberUtils.toInt(commonVariables.getValue(HubConstantValues.HUB_LOG_QUEUE_CAPACITY), HubAsyncLogSink.DEFAULT_CAPACITY);
+            HubLogQueueFullPolicy queueFullPolicy = EnumUtils.getEnum(HubLogQueueFullPolicy.class, StringUtils.upperCase(commonVariables.getValue(HubConstantValues.HUB_LOG_QUEUE_FULL_POLICY)));
+            if (queueFullPolicy == null) {
+                queueFullPolicy = HubLogQueueFullPolicy.BLOCK;
+            }
+            sink = new HubAsyncLogSink(sink, capacity, queueFullPolicy);
+        }
+        return sink;
+    }
+
+}
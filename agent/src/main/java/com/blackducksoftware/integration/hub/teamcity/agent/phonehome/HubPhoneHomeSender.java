@@ -0,0 +1,298 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.phonehome;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.jetbrains.annotations.NotNull;
+
+import com.blackducksoftware.integration.hub.configuration.HubServerConfig;
+import com.blackducksoftware.integration.hub.teamcity.agent.HubThreadFactory;
+import com.blackducksoftware.integration.hub.teamcity.agent.connection.HubRestConnectionPool;
+import com.blackducksoftware.integration.hub.teamcity.common.HubConstantValues;
+import com.blackducksoftware.integration.log.IntLogger;
+import com.blackducksoftware.integration.phonehome.PhoneHomeRequestBody;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import jetbrains.buildServer.agent.AgentLifeCycleAdapter;
+import jetbrains.buildServer.agent.AgentLifeCycleListener;
+import jetbrains.buildServer.agent.BuildAgent;
+import jetbrains.buildServer.log.Loggers;
+import jetbrains.buildServer.util.EventDispatcher;
+
+/**
+ * Takes phone home requests off the build thread. A build only writes its request to a spool on the agent, a
+ * background thread sends the spooled requests one at a time and gives each a strict timeout. Requests that could not
+ * be sent stay in the spool and are tried again later, so neither a scan nor the agent ever waits on telemetry. Every
+ * request is spooled with the URL and the credentials key of the Hub its build phoned home from and is sent to that
+ * Hub only. The credentials themselves are not written to the spool, a request from before an agent restart waits
+ * until a build of its Hub phones home again, or until it expires.
+ */
+public class HubPhoneHomeSender extends AgentLifeCycleAdapter {
+    public static final String SPOOL_DIRECTORY_NAME = "hub-phone-home";
+
+    public static final int DEFAULT_TIMEOUT_MILLIS = 5 * 1000;
+
+    public static final long RETRY_DELAY_MILLIS = 5 * 60 * 1000;
+
+    // a send that ignores its interrupt keeps its thread, this bounds how many can pile up
+    private static final int MAX_SEND_THREADS = 2;
+
+    private final HubPhoneHomeTransport transport;
+
+    private final ScheduledExecutorService drainExecutor;
+
+    private final ThreadPoolExecutor sendExecutor;
+
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    private final AtomicBoolean retriesScheduled = new AtomicBoolean();
+
+    /**
+     * The Hubs the builds of this agent phoned home from, by credentials key.
+     */
+    private final Map<String, HubServerConfig> hubServerConfigs = new ConcurrentHashMap<>();
+
+    private final Gson gson = new Gson();
+
+    private volatile HubPhoneHomeSpool spool;
+
+    private volatile int timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    public HubPhoneHomeSender(@NotNull final EventDispatcher<AgentLifeCycleListener> dispatcher, @NotNull final HubRestConnectionPool connectionPool) {
+        this(dispatcher, new HubPhoneHomeServiceTransport(connectionPool, new Gson()));
+    }
+
+    HubPhoneHomeSender(final EventDispatcher<AgentLifeCycleListener> dispatcher, final HubPhoneHomeTransport transport) {
+        this.transport = transport;
+        final ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1, new HubThreadFactory("Hub Phone Home Spool"));
+        scheduledExecutor.setRemoveOnCancelPolicy(true);
+        drainExecutor = scheduledExecutor;
+        sendExecutor = new ThreadPoolExecutor(0, MAX_SEND_THREADS, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new HubThreadFactory("Hub Phone Home"));
+        dispatcher.addListener(this);
+    }
+
+    @Override
+    public void afterAgentConfigurationLoaded(@NotNull final BuildAgent agent) {
+        final String timeout = agent.getConfiguration().getConfigurationParameters().get(HubConstantValues.HUB_PHONE_HOME_TIMEOUT);
+        final int configuredTimeout = NumberUtils.toInt(StringUtils.trim(timeout), DEFAULT_TIMEOUT_MILLIS);
+        initialize(agent.getConfiguration().getCacheDirectory(SPOOL_DIRECTORY_NAME), configuredTimeout);
+        scheduleRetries();
+    }
+
+    /**
+     * Registers the periodic drain, the configuration may be loaded more than once but the drain runs only once.
+     * @return false if it was already registered
+     */
+    boolean scheduleRetries() {
+        if (!retriesScheduled.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            drainExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            }, RETRY_DELAY_MILLIS, RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            retriesScheduled.set(false);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void agentShutdown() {
+        drainExecutor.shutdownNow();
+        sendExecutor.shutdownNow();
+    }
+
+    void initialize(final File spoolDirectory, final int timeoutMillis) {
+        this.spool = new HubPhoneHomeSpool(spoolDirectory);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Spools the request and returns at once, it is sent in the background to the Hub of the build.
+     */
+    public void phoneHome(final PhoneHomeRequestBody requestBody, final HubServerConfig hubServerConfig, final IntLogger logger) {
+        submit(gson.toJson(requestBody), hubServerConfig, logger);
+    }
+
+    void submit(final String requestBody, final HubServerConfig hubServerConfig, final IntLogger logger) {
+        final HubPhoneHomeSpool currentSpool = spool;
+        if (currentSpool == null) {
+            logger.debug("The phone home spool is not ready, skipping phone home");
+            return;
+        }
+        final String credentialsKey = HubRestConnectionPool.fingerprint(hubServerConfig);
+        hubServerConfigs.put(credentialsKey, hubServerConfig);
+        try {
+            currentSpool.offer(gson.toJson(new SpooledRequest(String.valueOf(hubServerConfig.getHubUrl()), credentialsKey, requestBody)));
+        } catch (final IOException e) {
+            logger.debug("Could not spool the phone home request: " + e.getMessage());
+            return;
+        }
+        if (drainScheduled.compareAndSet(false, true)) {
+            try {
+                drainExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        drainScheduled.set(false);
+                        drain();
+                    }
+                });
+            } catch (final RejectedExecutionException e) {
+                drainScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Waits for the drains started so far to finish, they all run on the one spool thread.
+     */
+    void awaitDrained(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        drainExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get(timeout, unit);
+    }
+
+    public int getPendingCount() {
+        final HubPhoneHomeSpool currentSpool = spool;
+        return currentSpool == null ? 0 : currentSpool.getPending().size();
+    }
+
+    private void drain() {
+        final HubPhoneHomeSpool currentSpool = spool;
+        if (currentSpool == null) {
+            return;
+        }
+        final Set<String> unavailableServers = new HashSet<>();
+        for (final File requestFile : currentSpool.getPending()) {
+            final SpooledRequest spooledRequest = readSpooledRequest(currentSpool, requestFile);
+            if (spooledRequest == null) {
+                currentSpool.remove(requestFile);
+                continue;
+            }
+            final HubServerConfig hubServerConfig = hubServerConfigs.get(spooledRequest.credentialsKey);
+            if (hubServerConfig == null || unavailableServers.contains(spooledRequest.credentialsKey)) {
+                continue;
+            }
+            if (send(hubServerConfig, spooledRequest.requestBody)) {
+                currentSpool.remove(requestFile);
+            } else {
+                // the Hub is slow or unreachable, its other requests wait for the next retry
+                Loggers.AGENT.debug("Phone home to " + spooledRequest.hubUrl + " will be tried again later");
+                unavailableServers.add(spooledRequest.credentialsKey);
+            }
+        }
+    }
+
+    /**
+     * @return the request, or null if the file can not be read or was not spooled with its Hub
+     */
+    private SpooledRequest readSpooledRequest(final HubPhoneHomeSpool currentSpool, final File requestFile) {
+        final String content = currentSpool.read(requestFile);
+        if (content == null) {
+            return null;
+        }
+        try {
+            final SpooledRequest spooledRequest = gson.fromJson(content, SpooledRequest.class);
+            if (spooledRequest == null || spooledRequest.credentialsKey == null || spooledRequest.requestBody == null) {
+                return null;
+            }
+            return spooledRequest;
+        } catch (final JsonParseException e) {
+            return null;
+        }
+    }
+
+    private boolean send(final HubServerConfig hubServerConfig, final String requestBody) {
+        final Future<Void> sent;
+        try {
+            sent = sendExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    transport.send(hubServerConfig, requestBody);
+                    return null;
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            return false;
+        }
+        try {
+            sent.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (final TimeoutException e) {
+            sent.cancel(true);
+            Loggers.AGENT.debug("Phone home timed out after " + timeoutMillis + " ms");
+        } catch (final ExecutionException e) {
+            Loggers.AGENT.debug("Phone home failed: " + e.getCause());
+        } catch (final InterruptedException e) {
+            sent.cancel(true);
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * A spooled request with the Hub it is sent to.
+     */
+    private static class SpooledRequest {
+        private final String hubUrl;
+
+        private final String credentialsKey;
+
+        private final String requestBody;
+
+        private SpooledRequest(final String hubUrl, final String credentialsKey, final String requestBody) {
+            this.hubUrl = hubUrl;
+            this.credentialsKey = credentialsKey;
+            this.requestBody = requestBody;
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.phonehome;
+
+import com.blackducksoftware.integration.exception.IntegrationException;
+import com.blackducksoftware.integration.hub.configuration.HubServerConfig;
+import com.blackducksoftware.integration.hub.service.HubServicesFactory;
+import com.blackducksoftware.integration.hub.service.PhoneHomeService;
+import com.blackducksoftware.integration.hub.teamcity.agent.connection.HubDelegatingLogger;
+import com.blackducksoftware.integration.hub.teamcity.agent.connection.HubRestConnectionLease;
+import com.blackducksoftware.integration.hub.teamcity.agent.connection.HubRestConnectionPool;
+import com.blackducksoftware.integration.hub.teamcity.agent.connection.HubSessionCall;
+import com.blackducksoftware.integration.phonehome.PhoneHomeRequestBody;
+import com.google.gson.Gson;
+
+/**
+ * Sends the requests the way a build would have, through a {@link PhoneHomeService} of the Hub the build phoned home
+ * from. The send outlives that build, so it leases a connection for every send instead of holding on to the connection
+ * of the build.
+ */
+public class HubPhoneHomeServiceTransport implements HubPhoneHomeTransport {
+    private final HubRestConnectionPool connectionPool;
+
+    private final Gson gson;
+
+    public HubPhoneHomeServiceTransport(final HubRestConnectionPool connectionPool, final Gson gson) {
+        this.connectionPool = connectionPool;
+        this.gson = gson;
+    }
+
+    @Override
+    public void send(final HubServerConfig hubServerConfig, final String requestBody) throws Exception {
+        final PhoneHomeRequestBody phoneHomeRequestBody = gson.fromJson(requestBody, PhoneHomeRequestBody.class);
+        final HubRestConnectionLease connectionLease = connectionPool.acquire(hubServerConfig, new HubDelegatingLogger());
+        try {
+            final PhoneHomeService phoneHomeService = new HubServicesFactory(connectionLease.getRestConnection()).createPhoneHomeService();
+            connectionLease.call(new HubSessionCall<Void>() {
+                @Override
+                public Void call() throws IntegrationException {
+                    phoneHomeService.phoneHome(phoneHomeRequestBody);
+                    return null;
+                }
+            });
+        } catch (final Exception e) {
+            connectionLease.invalidate();
+            throw e;
+        } finally {
+            connectionLease.close();
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.phonehome;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A directory of phone home request bodies waiting to be sent, one file per request, oldest first. The spool never
+ * holds more than its maximum number of requests and forgets requests older than its maximum age, telemetry is not
+ * worth the disk space of an agent that is offline for a long time.
+ */
+public class HubPhoneHomeSpool {
+    public static final int DEFAULT_MAX_REQUESTS = 100;
+
+    public static final long DEFAULT_MAX_AGE_MILLIS = 24 * 60 * 60 * 1000;
+
+    private static final String REQUEST_EXTENSION = ".json";
+
+    private final File spoolDirectory;
+
+    private final int maxRequests;
+
+    private final long maxAgeMillis;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    public HubPhoneHomeSpool(final File spoolDirectory) {
+        this(spoolDirectory, DEFAULT_MAX_REQUESTS, DEFAULT_MAX_AGE_MILLIS);
+    }
+
+    public HubPhoneHomeSpool(final File spoolDirectory, final int maxRequests, final long maxAgeMillis) {
+        this.spoolDirectory = spoolDirectory;
+        this.maxRequests = Math.max(1, maxRequests);
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public File getSpoolDirectory() {
+        return spoolDirectory;
+    }
+
+    public void offer(final String requestBody) throws IOException {
+        if (!spoolDirectory.exists() && !spoolDirectory.mkdirs()) {
+            throw new IOException("Could not create the phone home spool directory : " + spoolDirectory.getCanonicalPath());
+        }
+        // the time keeps the names in order across agent restarts, the sequence within the same millisecond
+        final String name = String.format("%013d-%06d", System.currentTimeMillis(), sequence.getAndIncrement() % 1000000);
+        final File requestFile = new File(spoolDirectory, name + REQUEST_EXTENSION);
+        final File tempFile = File.createTempFile(name, ".tmp", spoolDirectory);
+        try {
+            Files.write(tempFile.toPath(), requestBody.getBytes(StandardCharsets.UTF_8));
+            Files.move(tempFile.toPath(), requestFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+
+        final List<File> pending = getPending();
+        for (int i = 0; i < pending.size() - maxRequests; i++) {
+            remove(pending.get(i));
+        }
+    }
+
+    /**
+     * @return the requests waiting to be sent, oldest first, after removing the expired ones
+     */
+    public List<File> getPending() {
+        final File[] files = spoolDirectory.listFiles();
+        final List<File> pending = new ArrayList<>();
+        if (files == null) {
+            return pending;
+        }
+        Arrays.sort(files);
+        final long expired = System.currentTimeMillis() - maxAgeMillis;
+        for (final File file : files) {
+            if (!file.getName().endsWith(REQUEST_EXTENSION)) {
+                continue;
+            }
+            if (file.lastModified() < expired) {
+                remove(file);
+            } else {
+                pending.add(file);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * @return the request body, or null when the file can no longer be read
+     */
+    public String read(final File requestFile) {
+        try {
+            return new String(Files.readAllBytes(requestFile.toPath()), StandardCharsets.UTF_8);
+        } catch (final IOException e) {
+            return null;
+        }
+    }
+
+    public void remove(final File requestFile) {
+        try {
+            Files.deleteIfExists(requestFile.toPath());
+        } catch (final IOException e) {
+            // it is tried again on the next drain
+        }
+    }
+
+}
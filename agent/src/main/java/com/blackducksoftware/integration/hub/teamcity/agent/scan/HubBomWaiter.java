@@ -0,0 +1,375 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.scan;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.blackducksoftware.integration.exception.IntegrationException;
+import com.blackducksoftware.integration.hub.api.generated.view.CodeLocationView;
+import com.blackducksoftware.integration.hub.api.generated.view.ProjectVersionView;
+import com.blackducksoftware.integration.hub.api.generated.view.ScanSummaryView;
+import com.blackducksoftware.integration.hub.configuration.HubServerConfig;
+import com.blackducksoftware.integration.hub.exception.HubIntegrationException;
+import com.blackducksoftware.integration.hub.service.HubService;
+import com.blackducksoftware.integration.hub.service.HubServicesFactory;
+import com.blackducksoftware.integration.hub.teamcity.agent.HubThreadFactory;
+import com.blackducksoftware.integration.hub.teamcity.agent.connection.HubDelegatingLogger;
+import com.blackducksoftware.integration.hub.teamcity.agent.connection.HubRestConnectionLease;
+import com.blackducksoftware.integration.hub.teamcity.agent.connection.HubRestConnectionPool;
+import com.blackducksoftware.integration.hub.teamcity.agent.connection.HubSessionCall;
+import com.blackducksoftware.integration.log.IntLogger;
+
+import jetbrains.buildServer.agent.AgentLifeCycleAdapter;
+import jetbrains.buildServer.agent.AgentLifeCycleListener;
+import jetbrains.buildServer.util.EventDispatcher;
+
+/**
+ * Waits for the BOM of a Project Version to include all of its scans. One polling loop runs per Project Version on a
+ * single agent-wide thread, no matter how many builds wait on it, and the delay between polls grows exponentially
+ * with jitter so an overloaded Hub sees fewer requests the longer it takes. Every poll leases its own connection from
+ * the pool, so no build's connection is used after that build stopped waiting.
+ */
+public class HubBomWaiter extends AgentLifeCycleAdapter {
+    public static final long INITIAL_DELAY_MILLISEC = 2 * 1000;
+
+    public static final long MAX_DELAY_MILLISEC = 60 * 1000;
+
+    /**
+     * Scans are started by the clock of the agent and created by the clock of the Hub.
+     */
+    public static final long CLOCK_SKEW_MILLISEC = 60 * 1000;
+
+    private static final double BACKOFF_MULTIPLIER = 2.0;
+
+    private static final double JITTER = 0.2;
+
+    private final PollScheduler scheduler;
+
+    private final PendingScanCounter pendingScanCounter;
+
+    private final Random random;
+
+    private final Map<String, PendingBom> pendingBoms = new ConcurrentHashMap<>();
+
+    public HubBomWaiter(@NotNull final EventDispatcher<AgentLifeCycleListener> dispatcher, @NotNull final HubRestConnectionPool connectionPool) {
+        this(dispatcher, new ExecutorPollScheduler(), new PooledPendingScanCounter(connectionPool), new Random());
+    }
+
+    HubBomWaiter(final EventDispatcher<AgentLifeCycleListener> dispatcher, final PollScheduler scheduler, final PendingScanCounter pendingScanCounter, final Random random) {
+        this.scheduler = scheduler;
+        this.pendingScanCounter = pendingScanCounter;
+        this.random = random;
+        dispatcher.addListener(this);
+    }
+
+    @Override
+    public void agentShutdown() {
+        scheduler.shutdown();
+        for (final PendingBom pendingBom : pendingBoms.values()) {
+            pendingBom.future.completeExceptionally(new HubIntegrationException("The agent is shutting down."));
+        }
+        pendingBoms.clear();
+    }
+
+    /**
+     * Registers a build as waiting on the BOM of a Project Version. Only the scans created since the earliest scan
+     * start of the waiting builds are waited on, older scans that never finished do not hold the builds up.
+     * @return the wait shared with every other build waiting on the same Project Version, hand it to
+     *         {@link #release(PendingBom, IntLogger)} once the build no longer waits
+     */
+    public PendingBom waitForBom(final HubServerConfig hubServerConfig, final ProjectVersionView version, final long scanStartedMillis, final IntLogger logger) {
+        return waitForBom(hubServerConfig, version, version._meta.href, scanStartedMillis, logger);
+    }
+
+    PendingBom waitForBom(final HubServerConfig hubServerConfig, final ProjectVersionView version, final String versionUrl, final long scanStartedMillis, final IntLogger logger) {
+        final Waiter waiter = new Waiter(logger, scanStartedMillis);
+        final PendingBom[] created = new PendingBom[1];
+        final PendingBom pendingBom = pendingBoms.compute(versionUrl, new BiFunction<String, PendingBom, PendingBom>() {
+            @Override
+            public PendingBom apply(final String key, final PendingBom current) {
+                PendingBom joined = current;
+                if (joined == null) {
+                    joined = new PendingBom(versionUrl, hubServerConfig, version);
+                    created[0] = joined;
+                }
+                joined.waiters.add(waiter);
+                joined.joins++;
+                return joined;
+            }
+        });
+        logger.info("Waiting for the BOM of " + versionUrl + " to be updated");
+        if (created[0] != null) {
+            schedulePoll(pendingBom, 0);
+        }
+        return pendingBom;
+    }
+
+    /**
+     * Stops streaming progress to a build that no longer waits, and stops polling once nobody does.
+     */
+    public void release(final PendingBom pendingBom, final IntLogger logger) {
+        pendingBoms.computeIfPresent(pendingBom.versionUrl, new BiFunction<String, PendingBom, PendingBom>() {
+            @Override
+            public PendingBom apply(final String key, final PendingBom current) {
+                pendingBom.removeWaiter(logger);
+                if (current == pendingBom && current.waiters.isEmpty()) {
+                    current.future.cancel(false);
+                    return null;
+                }
+                return current;
+            }
+        });
+        // a wait that already finished is no longer registered, but still holds the logger
+        pendingBom.removeWaiter(logger);
+    }
+
+    public int getPendingCount() {
+        return pendingBoms.size();
+    }
+
+    private void poll(final PendingBom pendingBom) {
+        if (pendingBom.future.isDone()) {
+            return;
+        }
+        final int joinsBeforePoll = pendingBom.joins;
+        try {
+            final long createdAfterMillis = pendingBom.getEarliestScanStartedMillis() - CLOCK_SKEW_MILLISEC;
+            final int pendingScans = pendingScanCounter.countPendingScans(pendingBom.hubServerConfig, pendingBom.version, createdAfterMillis);
+            if (pendingScans == 0 && complete(pendingBom, joinsBeforePoll)) {
+                return;
+            }
+            if (pendingScans == 0) {
+                // a build joined while the Hub was asked, its scan may not have been counted
+                schedulePoll(pendingBom, 0);
+                return;
+            }
+            pendingBom.log("BOM update pending for " + pendingScans + " scan(s), checking again in " + pendingBom.delay / 1000 + " seconds");
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (final IntegrationException | RuntimeException e) {
+            pendingBom.log("Could not check the BOM status, checking again in " + pendingBom.delay / 1000 + " seconds: " + e.getMessage());
+        }
+        schedulePoll(pendingBom, pendingBom.nextDelay(random));
+    }
+
+    private boolean complete(final PendingBom pendingBom, final int joinsBeforePoll) {
+        final boolean[] completed = new boolean[1];
+        pendingBoms.computeIfPresent(pendingBom.versionUrl, new BiFunction<String, PendingBom, PendingBom>() {
+            @Override
+            public PendingBom apply(final String key, final PendingBom current) {
+                if (current == pendingBom && current.joins == joinsBeforePoll) {
+                    completed[0] = true;
+                    return null;
+                }
+                return current;
+            }
+        });
+        if (completed[0]) {
+            pendingBom.future.complete(null);
+        }
+        return completed[0] || pendingBom.future.isDone();
+    }
+
+    private void schedulePoll(final PendingBom pendingBom, final long delay) {
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                poll(pendingBom);
+            }
+        }, delay);
+    }
+
+    /**
+     * Runs the polls after their delay. Tests run them on their own thread and only record the delays.
+     */
+    interface PollScheduler {
+        void schedule(Runnable poll, long delayMillis);
+
+        void shutdown();
+    }
+
+    /**
+     * Asks the Hub how many scans of a Project Version its BOM does not include yet.
+     */
+    interface PendingScanCounter {
+        int countPendingScans(HubServerConfig hubServerConfig, ProjectVersionView version, long createdAfterMillis) throws IntegrationException, InterruptedException;
+    }
+
+    private static class ExecutorPollScheduler implements PollScheduler {
+        private final ScheduledExecutorService scheduler;
+
+        private ExecutorPollScheduler() {
+            final ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1, new HubThreadFactory("Hub BOM Waiter"));
+            scheduledExecutor.setRemoveOnCancelPolicy(true);
+            scheduler = scheduledExecutor;
+        }
+
+        @Override
+        public void schedule(final Runnable poll, final long delayMillis) {
+            scheduler.schedule(poll, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void shutdown() {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private static class PooledPendingScanCounter implements PendingScanCounter {
+        private final HubRestConnectionPool connectionPool;
+
+        private PooledPendingScanCounter(final HubRestConnectionPool connectionPool) {
+            this.connectionPool = connectionPool;
+        }
+
+        @Override
+        public int countPendingScans(final HubServerConfig hubServerConfig, final ProjectVersionView version, final long createdAfterMillis) throws IntegrationException, InterruptedException {
+            // the waiting builds may already have returned their connections, so the poll leases one of its own
+            final HubRestConnectionLease lease = connectionPool.acquire(hubServerConfig, new HubDelegatingLogger());
+            try {
+                final HubService hubService = new HubServicesFactory(lease.getRestConnection()).createHubService();
+                return lease.call(new HubSessionCall<Integer>() {
+                    @Override
+                    public Integer call() throws IntegrationException {
+                        int pendingScans = 0;
+                        final List<CodeLocationView> codeLocations = hubService.getAllResponses(version, ProjectVersionView.CODELOCATIONS_LINK_RESPONSE);
+                        for (final CodeLocationView codeLocation : codeLocations) {
+                            final List<ScanSummaryView> scanSummaries = hubService.getAllResponses(codeLocation, CodeLocationView.SCANS_LINK_RESPONSE);
+                            for (final ScanSummaryView scanSummary : scanSummaries) {
+                                if (isCreatedAfter(scanSummary, createdAfterMillis) && !isFinished(String.valueOf(scanSummary.status))) {
+                                    pendingScans++;
+                                }
+                            }
+                        }
+                        return pendingScans;
+                    }
+                });
+            } catch (final IntegrationException | InterruptedException | RuntimeException e) {
+                lease.invalidate();
+                throw e;
+            } finally {
+                lease.close();
+            }
+        }
+
+        private boolean isCreatedAfter(final ScanSummaryView scanSummary, final long createdAfterMillis) {
+            final Date createdAt = scanSummary.createdAt;
+            return createdAt == null || createdAt.getTime() >= createdAfterMillis;
+        }
+
+        private boolean isFinished(final String scanStatus) {
+            return "COMPLETE".equals(scanStatus) || "CANCELLED".equals(scanStatus) || scanStatus.startsWith("ERROR");
+        }
+    }
+
+    /**
+     * The wait of every build on the BOM of one Project Version.
+     */
+    public static class PendingBom {
+        private final String versionUrl;
+
+        private final HubServerConfig hubServerConfig;
+
+        private final ProjectVersionView version;
+
+        private final List<Waiter> waiters = new CopyOnWriteArrayList<>();
+
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        /**
+         * Only changed while the map entry of the Project Version is locked.
+         */
+        private volatile int joins;
+
+        private long delay = INITIAL_DELAY_MILLISEC;
+
+        private PendingBom(final String versionUrl, final HubServerConfig hubServerConfig, final ProjectVersionView version) {
+            this.versionUrl = versionUrl;
+            this.hubServerConfig = hubServerConfig;
+            this.version = version;
+        }
+
+        /**
+         * @return a future completed when no scan of the waiting builds is pending
+         */
+        public CompletableFuture<Void> getFuture() {
+            return future;
+        }
+
+        private void removeWaiter(final IntLogger logger) {
+            for (final Waiter waiter : waiters) {
+                if (waiter.logger == logger) {
+                    waiters.remove(waiter);
+                    return;
+                }
+            }
+        }
+
+        private long getEarliestScanStartedMillis() {
+            long earliest = Long.MAX_VALUE;
+            for (final Waiter waiter : waiters) {
+                earliest = Math.min(earliest, waiter.scanStartedMillis);
+            }
+            return earliest == Long.MAX_VALUE ? 0 : earliest;
+        }
+
+        private void log(final String message) {
+            for (final Waiter waiter : waiters) {
+                waiter.logger.info(message);
+            }
+        }
+
+        private long nextDelay(final Random random) {
+            final double jitter = 1.0 + JITTER * (2 * random.nextDouble() - 1);
+            final long currentDelay = (long) (delay * jitter);
+            delay = Math.min(MAX_DELAY_MILLISEC, (long) (delay * BACKOFF_MULTIPLIER));
+            return currentDelay;
+        }
+    }
+
+    private static class Waiter {
+        private final IntLogger logger;
+
+        private final long scanStartedMillis;
+
+        private Waiter(final IntLogger logger, final long scanStartedMillis) {
+            this.logger = logger;
+            this.scanStartedMillis = scanStartedMillis;
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.blackducksoftware.integration.hub.configuration.HubScanConfig;
+import com.blackducksoftware.integration.hub.configuration.HubScanConfigBuilder;
+import com.blackducksoftware.integration.hub.teamcity.common.HubConstantValues;
+import com.blackducksoftware.integration.log.IntLogger;
+import com.blackducksoftware.integration.util.CIEnvironmentVariables;
+
+import jetbrains.buildServer.agent.BuildRunnerContext;
+
+/**
+ * The parameters of a Hub build step, collected once from the environment, system, configuration and runner
+ * parameters in that order so the later ones win, and the scan configurations built from them.
+ */
+public class HubBuildParameters {
+    private final Map<String, String> variables;
+
+    private final CIEnvironmentVariables commonVariables;
+
+    public HubBuildParameters(final BuildRunnerContext context) {
+        this(collectVariables(context));
+    }
+
+    public HubBuildParameters(final Map<String, String> variables) {
+        this.variables = variables;
+        commonVariables = new CIEnvironmentVariables();
+        commonVariables.putAll(variables);
+    }
+
+    public static Map<String, String> collectVariables(final BuildRunnerContext context) {
+        final Map<String, String> variables = new HashMap<>();
+        variables.putAll(context.getBuildParameters().getEnvironmentVariables());
+        variables.putAll(context.getBuildParameters().getSystemProperties());
+        variables.putAll(context.getConfigParameters());
+        variables.putAll(context.getRunnerParameters());
+        return variables;
+    }
+
+    public Map<String, String> getVariables() {
+        return variables;
+    }
+
+    public CIEnvironmentVariables getCommonVariables() {
+        return commonVariables;
+    }
+
+    /**
+     * @return the scan configuration of the targets, or null if the parameters do not make a valid one
+     */
+    public HubScanConfig getScanConfig(final File workingDirectory, final File toolsDir, final IntLogger logger, final List<String> scanTargets) {
+        final HubScanConfigBuilder hubScanConfigBuilder = createScanConfigBuilder(workingDirectory, toolsDir);
+        hubScanConfigBuilder.setScanMemory(commonVariables.getValue(HubConstantValues.HUB_SCAN_MEMORY));
+        hubScanConfigBuilder.addAllScanTargetPaths(scanTargets);
+        try {
+            return hubScanConfigBuilder.build();
+        } catch (final IllegalStateException e) {
+            logger.error(e.getMessage(), e);
+        }
+        return null;
+    }
+
+    public boolean isParallelScan(final List<String> scanTargets) {
+        return Boolean.parseBoolean(commonVariables.getValue(HubConstantValues.HUB_PARALLEL_SCAN)) && scanTargets.size() > 1;
+    }
+
+    /**
+     * One scan configuration per target. Unmapping or deleting the previous Code Locations is disabled because each
+     * target would remove the Code Locations of the targets scanned beside it. A configured Code Location name gets the
+     * target as a suffix, so the targets do not overwrite each other's Code Location.
+     */
+    public List<HubScanConfig> getParallelScanConfigs(final File workingDirectory, final File toolsDir, final IntLogger logger, final List<String> scanTargets) {
+        String scanMemory = commonVariables.getValue(HubConstantValues.HUB_PARALLEL_SCAN_MEMORY);
+        if (StringUtils.isBlank(scanMemory)) {
+            scanMemory = commonVariables.getValue(HubConstantValues.HUB_SCAN_MEMORY);
+        }
+        if (Boolean.valueOf(commonVariables.getValue(HubConstantValues.HUB_UNMAP_PREVIOUS_CODE_LOCATIONS)) || Boolean.valueOf(commonVariables.getValue(HubConstantValues.HUB_DELETE_PREVIOUS_CODE_LOCATIONS))) {
+            logger.warn("Previous Code Locations will not be unmapped or deleted when the targets are scanned in parallel.");
+        }
+
+        final String codeLocationName = commonVariables.getValue(HubConstantValues.HUB_CODE_LOCATION_NAME);
+        final List<HubScanConfig> hubScanConfigs = new ArrayList<>();
+        for (final String scanTarget : scanTargets) {
+            final HubScanConfigBuilder hubScanConfigBuilder = createScanConfigBuilder(workingDirectory, toolsDir);
+            hubScanConfigBuilder.setScanMemory(scanMemory);
+            hubScanConfigBuilder.setUnmapPreviousCodeLocations(false);
+            hubScanConfigBuilder.setDeletePreviousCodeLocations(false);
+            hubScanConfigBuilder.addScanTargetPath(scanTarget);
+            if (StringUtils.isNotBlank(codeLocationName)) {
+                hubScanConfigBuilder.setCodeLocationAlias(getTargetCodeLocationName(codeLocationName, workingDirectory, scanTarget));
+            }
+            try {
+                hubScanConfigs.add(hubScanConfigBuilder.build());
+            } catch (final IllegalStateException e) {
+                logger.error(e.getMessage(), e);
+                return null;
+            }
+        }
+        return hubScanConfigs;
+    }
+
+    public String[] getExcludePatterns() {
+        String[] excludePatternArray = new String[0];
+        final String excludePatternParameter = commonVariables.getValue(HubConstantValues.HUB_EXCLUDE_PATTERNS);
+        if (StringUtils.isNotBlank(excludePatternParameter)) {
+            excludePatternArray = excludePatternParameter.split("\\r?\\n");
+        }
+        return excludePatternArray;
+    }
+
+    /**
+     * @return the canonical paths of the configured scan targets, relative ones resolved against the working
+     *         directory, or the working directory itself if none are configured
+     */
+    public List<String> getScanTargets(final File workingDirectory) throws IOException {
+        final List<String> scanTargets = new ArrayList<>();
+        final String scanTargetParameter = commonVariables.getValue(HubConstantValues.HUB_SCAN_TARGETS);
+        if (StringUtils.isNotBlank(scanTargetParameter)) {
+            final String[] scanTargetPathsArray = scanTargetParameter.split("\\r?\\n");
+            for (final String target : scanTargetPathsArray) {
+                if (StringUtils.isNotBlank(target)) {
+                    final File tmpTarget = new File(target);
+                    if (tmpTarget.isAbsolute()) {
+                        scanTargets.add(tmpTarget.getCanonicalPath());
+                    } else {
+                        scanTargets.add(new File(workingDirectory, target).getCanonicalPath());
+                    }
+                }
+            }
+        } else {
+            scanTargets.add(workingDirectory.getAbsolutePath());
+        }
+        return scanTargets;
+    }
+
+    /**
+     * @return the Code Location name followed by the target relative to the working directory, or by its absolute path
+     *         if it is outside the working directory
+     */
+    static String getTargetCodeLocationName(final String codeLocationName, final File workingDirectory, final String scanTarget) {
+        final Path workingPath = workingDirectory.getAbsoluteFile().toPath().normalize();
+        final Path targetPath = new File(scanTarget).getAbsoluteFile().toPath().normalize();
+        String suffix = targetPath.toString();
+        if (targetPath.startsWith(workingPath)) {
+            suffix = workingPath.equals(targetPath) ? "." : workingPath.relativize(targetPath).toString();
+        }
+        return codeLocationName + " " + suffix.replace(File.separatorChar, '/');
+    }
+
+    private HubScanConfigBuilder createScanConfigBuilder(final File workingDirectory, final File toolsDir) {
+        final String dryRun = commonVariables.getValue(HubConstantValues.HUB_DRY_RUN);
+        final String cleanupLogs = commonVariables.getValue(HubConstantValues.HUB_CLEANUP_LOGS_ON_SUCCESS);
+
+        final String codeLocationName = commonVariables.getValue(HubConstantValues.HUB_CODE_LOCATION_NAME);
+        final String unmapPreviousCodeLocations = commonVariables.getValue(HubConstantValues.HUB_UNMAP_PREVIOUS_CODE_LOCATIONS);
+        final String deletePreviousCodeLocations = commonVariables.getValue(HubConstantValues.HUB_DELETE_PREVIOUS_CODE_LOCATIONS);
+
+        final String hubWorkspaceCheck = commonVariables.getValue(HubConstantValues.HUB_WORKSPACE_CHECK);
+
+        final String[] excludePatternArray = getExcludePatterns();
+
+        final HubScanConfigBuilder hubScanConfigBuilder = new HubScanConfigBuilder();
+        hubScanConfigBuilder.setWorkingDirectory(workingDirectory);
+        hubScanConfigBuilder.setDryRun(Boolean.valueOf(dryRun));
+        hubScanConfigBuilder.setCodeLocationAlias(codeLocationName);
+        hubScanConfigBuilder.setToolsDir(toolsDir);
+        hubScanConfigBuilder.setCleanupLogsOnSuccess(Boolean.valueOf(cleanupLogs));
+        hubScanConfigBuilder.setUnmapPreviousCodeLocations(Boolean.valueOf(unmapPreviousCodeLocations));
+        hubScanConfigBuilder.setDeletePreviousCodeLocations(Boolean.valueOf(deletePreviousCodeLocations));
+        hubScanConfigBuilder.setExcludePatterns(excludePatternArray);
+        if (Boolean.valueOf(hubWorkspaceCheck)) {
+            hubScanConfigBuilder.enableScanTargetPathsWithinWorkingDirectoryCheck();
+        }
+        return hubScanConfigBuilder;
+    }
+
+}
@@ -26,11 +26,18 @@ package com.blackducksoftware.integration.hub.teamcity.agent.scan;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
@@ -45,21 +52,28 @@ import com.blackducksoftware.integration.hub.api.generated.view.ProjectView;
 import com.blackducksoftware.integration.hub.api.generated.view.VersionBomPolicyStatusView;
 import com.blackducksoftware.integration.hub.api.view.MetaHandler;
 import com.blackducksoftware.integration.hub.configuration.HubScanConfig;
-import com.blackducksoftware.integration.hub.configuration.HubScanConfigBuilder;
 import com.blackducksoftware.integration.hub.configuration.HubServerConfig;
-import com.blackducksoftware.integration.hub.configuration.HubServerConfigBuilder;
 import com.blackducksoftware.integration.hub.exception.HubIntegrationException;
 import com.blackducksoftware.integration.hub.rest.RestConnection;
 import com.blackducksoftware.integration.hub.service.HubService;
 import com.blackducksoftware.integration.hub.service.HubServicesFactory;
 import com.blackducksoftware.integration.hub.service.PhoneHomeService;
+import com.blackducksoftware.integration.hub.service.ProjectService;
 import com.blackducksoftware.integration.hub.service.ReportService;
 import com.blackducksoftware.integration.hub.service.SignatureScannerService;
-import com.blackducksoftware.integration.hub.service.model.HostnameHelper;
 import com.blackducksoftware.integration.hub.service.model.PolicyStatusDescription;
 import com.blackducksoftware.integration.hub.service.model.ProjectRequestBuilder;
 import com.blackducksoftware.integration.hub.service.model.ProjectVersionWrapper;
 import com.blackducksoftware.integration.hub.teamcity.agent.HubAgentBuildLogger;
+import com.blackducksoftware.integration.hub.teamcity.agent.HubHostnameResolver;
+import com.blackducksoftware.integration.hub.teamcity.agent.cli.HubCliInstaller;
+import com.blackducksoftware.integration.hub.teamcity.agent.cli.HubScanCliOptions;
+import com.blackducksoftware.integration.hub.teamcity.agent.connection.HubRestConnectionLease;
+import com.blackducksoftware.integration.hub.teamcity.agent.connection.HubRestConnectionPool;
+import com.blackducksoftware.integration.hub.teamcity.agent.connection.HubServerConfigCache;
+import com.blackducksoftware.integration.hub.teamcity.agent.connection.HubSessionCall;
+import com.blackducksoftware.integration.hub.teamcity.agent.log.HubLogSinkFactory;
+import com.blackducksoftware.integration.hub.teamcity.agent.phonehome.HubPhoneHomeSender;
 import com.blackducksoftware.integration.hub.teamcity.common.HubBundle;
 import com.blackducksoftware.integration.hub.teamcity.common.HubConstantValues;
 import com.blackducksoftware.integration.log.IntLogger;
@@ -71,12 +85,19 @@ import jetbrains.buildServer.agent.AgentRunningBuild;
 import jetbrains.buildServer.agent.BuildFinishedStatus;
 import jetbrains.buildServer.agent.BuildProgressLogger;
 import jetbrains.buildServer.agent.BuildRunnerContext;
+import jetbrains.buildServer.agent.FlowLogger;
 import jetbrains.buildServer.agent.artifacts.ArtifactsWatcher;
+import jetbrains.buildServer.messages.serviceMessages.ServiceMessage;
+import jetbrains.buildServer.vcs.VcsChangeInfo;
 import jetbrains.buildServer.version.ServerVersionHolder;
 
 public class HubBuildProcess extends HubCallableBuildProcess {
     private static final int DEFAULT_MAX_WAIT_TIME_MILLISEC = 5 * 60 * 1000;
 
+    private static final int DEFAULT_PARALLEL_SCAN_MAX_CONCURRENCY = 2;
+
+    private static final String SCAN_MANIFEST_CACHE = "hub-scan-manifests";
+
     @NotNull
     private final AgentRunningBuild build;
 
@@ -88,14 +109,46 @@ public class HubBuildProcess extends HubCallableBuildProcess {
 
     private HubAgentBuildLogger logger;
 
+    @NotNull
+    private final HubCliInstaller cliInstaller;
+
+    @NotNull
+    private final HubBomWaiter bomWaiter;
+
+    @NotNull
+    private final HubPhoneHomeSender phoneHomeSender;
+
+    @NotNull
+    private final HubRestConnectionPool connectionPool;
+
+    @NotNull
+    private final HubServerConfigCache serverConfigCache;
+
+    @NotNull
+    private final HubHostnameResolver hostnameResolver;
+
+    private HubRestConnectionLease connectionLease;
+
+    private HubBuildTimings timings;
+
     private BuildFinishedStatus result;
 
     private Boolean verbose;
 
-    public HubBuildProcess(@NotNull final AgentRunningBuild build, @NotNull final BuildRunnerContext context, @NotNull final ArtifactsWatcher artifactsWatcher) {
+    public HubBuildProcess(@NotNull final AgentRunningBuild build, @NotNull final BuildRunnerContext context, @NotNull final ArtifactsWatcher artifactsWatcher, @NotNull final HubBuildProcessExecutor executor,
+            @NotNull final HubCliInstaller cliInstaller, @NotNull final HubBomWaiter bomWaiter, @NotNull final HubPhoneHomeSender phoneHomeSender,
+            @NotNull final HubRestConnectionPool connectionPool, @NotNull final HubServerConfigCache serverConfigCache,
+            @NotNull final HubHostnameResolver hostnameResolver) {
+        super(executor);
         this.build = build;
         this.context = context;
         this.artifactsWatcher = artifactsWatcher;
+        this.cliInstaller = cliInstaller;
+        this.bomWaiter = bomWaiter;
+        this.phoneHomeSender = phoneHomeSender;
+        this.connectionPool = connectionPool;
+        this.serverConfigCache = serverConfigCache;
+        this.hostnameResolver = hostnameResolver;
     }
 
     public boolean isVerbose() {
@@ -116,14 +169,30 @@ public class HubBuildProcess extends HubCallableBuildProcess {
     @Override
     public BuildFinishedStatus call() throws IOException, NoSuchMethodException, IllegalAccessException, IllegalArgumentException, InvocationTargetException, EncryptionException {
         final BuildProgressLogger buildLogger = build.getBuildLogger();
-        final HubAgentBuildLogger hubLogger = new HubAgentBuildLogger(buildLogger);
-
-        final Map<String, String> variables = getVariables();
-        final CIEnvironmentVariables commonVariables = new CIEnvironmentVariables();
-        commonVariables.putAll(variables);
+        final HubBuildParameters parameters = new HubBuildParameters(context);
+        final CIEnvironmentVariables commonVariables = parameters.getCommonVariables();
+        timings = new HubBuildTimings(context.getId(), NumberUtils.toInt(commonVariables.getValue(HubConstantValues.HUB_STEP_COUNT)) > 1);
+        final HubLogSinkFactory logSinkFactory = new HubLogSinkFactory(commonVariables);
+        final HubAgentBuildLogger hubLogger = new HubAgentBuildLogger(buildLogger, logSinkFactory.create(buildLogger));
         hubLogger.setLogLevel(commonVariables);
         setHubLogger(hubLogger);
 
+        try {
+            return runHubBuildStep(buildLogger, logSinkFactory, hubLogger, parameters);
+        } finally {
+            if (connectionLease != null) {
+                connectionLease.close();
+                connectionLease = null;
+            }
+            publishTimings(buildLogger, hubLogger);
+            hubLogger.close();
+        }
+    }
+
+    private BuildFinishedStatus runHubBuildStep(final BuildProgressLogger buildLogger, final HubLogSinkFactory logSinkFactory, final HubAgentBuildLogger hubLogger, final HubBuildParameters parameters)
+            throws IOException, NoSuchMethodException, IllegalAccessException, IllegalArgumentException, InvocationTargetException, EncryptionException {
+        final Map<String, String> variables = parameters.getVariables();
+        final CIEnvironmentVariables commonVariables = parameters.getCommonVariables();
         if (StringUtils.isBlank(System.getProperty("http.maxRedirects"))) {
             // If this property is not set the default is 20
             // When not set the Authenticator redirects in a loop and results in
@@ -135,8 +204,9 @@ public class HubBuildProcess extends HubCallableBuildProcess {
 
         logger.targetStarted("Hub Build Step");
 
-        final String localHostName = HostnameHelper.getMyHostname();
+        final String localHostName = getLocalHostName(commonVariables);
         logger.info("Running on machine : " + localHostName);
+        logger.debug("Hub build processes active : " + getExecutor().getActiveCount() + ", queued : " + getExecutor().getQueueDepth());
 
         final String thirdPartyVersion = ServerVersionHolder.getVersion().getDisplayVersion();
         final String pluginVersion = getPluginVersion(commonVariables);
@@ -144,7 +214,8 @@ public class HubBuildProcess extends HubCallableBuildProcess {
         logger.info("Hub TeamCity Plugin version : " + pluginVersion);
 
         try {
-            final HubServerConfig hubConfig = getHubServerConfig(logger, commonVariables);
+            timings.start(HubBuildTimings.CONFIG);
+            final HubServerConfig hubConfig = serverConfigCache.getHubServerConfig(commonVariables, logger);
             if (hubConfig == null) {
                 logger.error("Please verify the correct dependent Hub configuration plugin is installed");
                 logger.error("Please verify the configuration is correct if the plugin is installed.");
@@ -184,21 +255,26 @@ public class HubBuildProcess extends HubCallableBuildProcess {
             logger.info("--> Check Policies : " + isFailOnPolicySelected);
 
             final File workingDirectory = context.getWorkingDirectory();
-            final File toolsDir = new File(build.getAgentConfiguration().getAgentToolsDirectory(), "HubCLI");
-            final HubScanConfig hubScanConfig = getScanConfig(workingDirectory, toolsDir, hubLogger, commonVariables);
+            final File toolsDir = cliInstaller.getToolsDirectory(build.getAgentConfiguration());
+            final List<String> scanTargets = parameters.getScanTargets(workingDirectory);
+            final HubScanConfig hubScanConfig = parameters.getScanConfig(workingDirectory, toolsDir, hubLogger, scanTargets);
+
+            final HubScanCliOptions scanCliOptions = new HubScanCliOptions(variables);
+            scanCliOptions.apply(variables);
+            logger.debug("Scan CLI JVM options : " + scanCliOptions.getOptions());
+            timings.stop(HubBuildTimings.CONFIG);
 
-            final RestConnection restConnection = getRestConnection(logger, hubConfig);
-            restConnection.connect();
+            timings.start(HubBuildTimings.CONNECT);
+            connectionLease = connectionPool.acquire(hubConfig, logger);
+            final RestConnection restConnection = connectionLease.getRestConnection();
+            timings.stop(HubBuildTimings.CONNECT);
 
             HubServicesFactory services = new HubServicesFactory(restConnection);
             services.addEnvironmentVariables(variables);
 
-            PhoneHomeService phoneHomeService = services.createPhoneHomeService();
-            PhoneHomeRequestBody.Builder builder = phoneHomeService.createInitialPhoneHomeRequestBodyBuilder();
-            builder.setArtifactId("hub-teamcity");
-            builder.setArtifactVersion(pluginVersion);
-            builder.addToMetaData("teamcity.version", thirdPartyVersion);
-            phoneHomeService.phoneHome(builder);
+            timings.start(HubBuildTimings.PHONE_HOME);
+            phoneHome(services, hubConfig, pluginVersion, thirdPartyVersion);
+            timings.stop(HubBuildTimings.PHONE_HOME);
 
             final SignatureScannerService signatureScannerService = services.createSignatureScannerService(hubConfig.getTimeout() * 60 * 1000);
 
@@ -211,13 +287,85 @@ public class HubBuildProcess extends HubCallableBuildProcess {
                 logger.debug("No project and version specified.");
             }
 
+            List<String> targetsToScan = scanTargets;
+            if (Boolean.parseBoolean(commonVariables.getValue(HubConstantValues.HUB_SCAN_VCS_CHANGED_TARGETS)) && !hubScanConfig.isDryRun()) {
+                if (Boolean.parseBoolean(commonVariables.getValue(HubConstantValues.HUB_PREVIOUS_SCAN_COMPLETED + context.getId()))) {
+                    final List<VcsChangeInfo> changes = new ArrayList<>(build.getVcsChanges());
+                    changes.addAll(build.getPersonalVcsChanges());
+                    final HubVcsChangeScope vcsChangeScope = new HubVcsChangeScope(build.getCheckoutDirectory(), build.getVcsRootEntries(), hubLogger);
+                    targetsToScan = vcsChangeScope.getChangedTargets(targetsToScan, changes);
+                } else {
+                    // the changes only go back to the previous build, which may not have scanned them
+                    logger.info("The previous build did not complete its Hub scan, scanning all of the targets.");
+                }
+            }
+            HubIncrementalScan incrementalScan = null;
+            if (Boolean.parseBoolean(commonVariables.getValue(HubConstantValues.HUB_INCREMENTAL_SCAN)) && !hubScanConfig.isDryRun()) {
+                incrementalScan = createIncrementalScan(hubLogger, parameters);
+                targetsToScan = incrementalScan.getChangedTargets(targetsToScan);
+            }
+            targetsToScan = getTargetsToScan(hubLogger, commonVariables, scanTargets, targetsToScan);
+
+            if (!targetsToScan.isEmpty()) {
+                timings.start(HubBuildTimings.CLI_INSTALL);
+                cliInstaller.ensureInstalled(connectionLease, hubConfig.getHubUrl().toString(), commonVariables, localHostName, hubLogger);
+                if (Boolean.parseBoolean(commonVariables.getValue(HubConstantValues.HUB_SCAN_CLI_CLASS_DATA_SHARING))) {
+                    final String sharedArchiveOptions = cliInstaller.getSharedArchiveOptions(hubLogger);
+                    if (sharedArchiveOptions != null) {
+                        scanCliOptions.addOption(sharedArchiveOptions);
+                        scanCliOptions.apply(variables);
+                        services.addEnvironmentVariables(variables);
+                    }
+                }
+                timings.stop(HubBuildTimings.CLI_INSTALL);
+            }
+
             final boolean shouldWaitForScansFinished = isRiskReportGenerated || isFailOnPolicySelected;
             ProjectVersionWrapper projectVersionWrapper = null;
+            final long scanStartedMillis = System.currentTimeMillis();
             try {
-                projectVersionWrapper = signatureScannerService.installAndRunControlledScan(hubConfig, hubScanConfig, projectRequest, shouldWaitForScansFinished);
-
+                timings.start(HubBuildTimings.SCAN);
+                if (targetsToScan.isEmpty()) {
+                    logger.info("None of the scan targets changed since they were last scanned.");
+                    if (projectRequest != null) {
+                        final ProjectService projectService = services.createProjectService();
+                        projectVersionWrapper = connectionLease.call(new HubSessionCall<ProjectVersionWrapper>() {
+                            @Override
+                            public ProjectVersionWrapper call() throws IntegrationException {
+                                return projectService.getProjectVersionAndCreateIfNeeded(projectRequest);
+                            }
+                        });
+                    }
+                } else if (parameters.isParallelScan(targetsToScan)) {
+                    final List<HubScanConfig> targetScanConfigs = parameters.getParallelScanConfigs(workingDirectory, toolsDir, hubLogger, targetsToScan);
+                    if (targetScanConfigs == null) {
+                        logger.error("Please verify the Black Duck Hub Runner configuration is correct.");
+                        result = BuildFinishedStatus.FINISHED_FAILED;
+                        return result;
+                    }
+                    final int maxConcurrency = NumberUtils.toInt(commonVariables.getValue(HubConstantValues.HUB_PARALLEL_SCAN_MAX_CONCURRENCY), DEFAULT_PARALLEL_SCAN_MAX_CONCURRENCY);
+                    final HubParallelScanner parallelScanner = new HubParallelScanner(hubConfig, connectionPool, getExecutor(), variables, buildLogger, logSinkFactory, hubLogger, maxConcurrency);
+                    projectVersionWrapper = parallelScanner.scan(targetScanConfigs, projectRequest, false);
+                } else {
+                    final HubScanConfig changedTargetsScanConfig = targetsToScan.size() != scanTargets.size() ? parameters.getScanConfig(workingDirectory, toolsDir, hubLogger, targetsToScan) : hubScanConfig;
+                    // not retried on a rejected session, running the scan again could upload the Code Location twice
+                    projectVersionWrapper = signatureScannerService.installAndRunControlledScan(hubConfig, changedTargetsScanConfig, projectRequest, false);
+                }
+                if (incrementalScan != null) {
+                    incrementalScan.recordScannedTargets(targetsToScan);
+                }
+                timings.stop(HubBuildTimings.SCAN);
+                if (!hubScanConfig.isDryRun()) {
+                    markScanCompleted(buildLogger);
+                }
+                if (shouldWaitForScansFinished && projectVersionWrapper != null && !hubScanConfig.isDryRun()) {
+                    timings.start(HubBuildTimings.BOM_WAIT);
+                    waitForBom(hubConfig, projectVersionWrapper.getProjectVersionView(), scanStartedMillis, waitTimeForReport, hubLogger);
+                    timings.stop(HubBuildTimings.BOM_WAIT);
+                }
             } catch (final HubIntegrationException e) {
                 logger.error(e.getMessage(), e);
+                invalidateConnection();
                 result = BuildFinishedStatus.FINISHED_FAILED;
                 return result;
             } catch (final InterruptedException e) {
@@ -229,13 +377,27 @@ public class HubBuildProcess extends HubCallableBuildProcess {
                 final MetaHandler metaHandler = new MetaHandler(logger);
 
                 ProjectView project = null;
-                if (isRiskReportGenerated) {
-                    logger.info("Generating Risk Report");
-                    publishRiskReportFiles(logger, workingDirectory, services.createReportService(waitTimeForReport), projectVersionWrapper.getProjectView(), projectVersionWrapper.getProjectVersionView());
-                }
-                if (isFailOnPolicySelected) {
-                    logger.info("Checking for Policy violations.");
-                    checkPolicyFailures(build, logger, services.createHubService(), metaHandler, projectVersionWrapper.getProjectVersionView(), hubScanConfig.isDryRun());
+                // the report and the policy check only read the same Project Version, so they run at the same time
+                HubBuildProcessExecutor.ForkedTask<Void> riskReport = null;
+                try {
+                    if (isRiskReportGenerated) {
+                        logger.info("Generating Risk Report");
+                        riskReport = getExecutor().fork(createRiskReportTask(buildLogger, logSinkFactory, workingDirectory, services.createReportService(waitTimeForReport), projectVersionWrapper));
+                    }
+                    if (isFailOnPolicySelected) {
+                        logger.info("Checking for Policy violations.");
+                        timings.start(HubBuildTimings.POLICY);
+                        checkPolicyFailures(build, logger, services.createHubService(), metaHandler, projectVersionWrapper.getProjectVersionView(), hubScanConfig.isDryRun());
+                        timings.stop(HubBuildTimings.POLICY);
+                    }
+                    if (riskReport != null) {
+                        riskReport.join();
+                    }
+                } finally {
+                    if (riskReport != null) {
+                        // after a failure the report must not outlive the connection and the loggers of the step
+                        riskReport.cancelAndAwait();
+                    }
                 }
             } else {
                 if (isRiskReportGenerated) {
@@ -247,115 +409,94 @@ public class HubBuildProcess extends HubCallableBuildProcess {
             }
         } catch (final Exception e) {
             logger.error(e);
+            invalidateConnection();
             result = BuildFinishedStatus.FINISHED_FAILED;
         }
         logger.targetFinished("Hub Build Step");
         return result;
     }
 
-    public RestConnection getRestConnection(final IntLogger logger, final HubServerConfig hubServerConfig) throws EncryptionException {
-        return hubServerConfig.createCredentialsRestConnection(logger);
+    private void markScanCompleted(final BuildProgressLogger buildLogger) {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("name", HubConstantValues.HUB_SCAN_COMPLETED + context.getId());
+        attributes.put("value", Boolean.TRUE.toString());
+        buildLogger.message(ServiceMessage.asString("setParameter", attributes));
     }
 
-    private HubServerConfig getHubServerConfig(final IntLogger logger, final CIEnvironmentVariables commonVariables) {
-        final HubServerConfigBuilder configBuilder = new HubServerConfigBuilder();
-
-        // read the credentials and proxy info using the existing objects.
-        final String serverUrl = commonVariables.getValue(HubConstantValues.HUB_URL);
-        final String timeout = commonVariables.getValue(HubConstantValues.HUB_CONNECTION_TIMEOUT);
-        final String username = commonVariables.getValue(HubConstantValues.HUB_USERNAME);
-        final String password = commonVariables.getValue(HubConstantValues.HUB_PASSWORD);
-        final String passwordLength = commonVariables.getValue(HubConstantValues.HUB_PASSWORD_LENGTH);
-
-        final String alwaysTrustServerCertificate = commonVariables.getValue(HubConstantValues.HUB_TRUST_SERVER_CERT);
-
-        final String proxyHost = commonVariables.getValue(HubConstantValues.HUB_PROXY_HOST);
-        final String proxyPort = commonVariables.getValue(HubConstantValues.HUB_PROXY_PORT);
-        final String ignoredProxyHosts = commonVariables.getValue(HubConstantValues.HUB_NO_PROXY_HOSTS);
-        final String proxyUsername = commonVariables.getValue(HubConstantValues.HUB_PROXY_USER);
-        final String proxyPassword = commonVariables.getValue(HubConstantValues.HUB_PROXY_PASS);
-        final String proxyPasswordLength = commonVariables.getValue(HubConstantValues.HUB_PROXY_PASS_LENGTH);
-
-        configBuilder.setHubUrl(serverUrl);
-        configBuilder.setUsername(username);
-        configBuilder.setPassword(password);
-        configBuilder.setPasswordLength(NumberUtils.toInt(passwordLength));
-        configBuilder.setTimeout(timeout);
-
-        configBuilder.setAlwaysTrustServerCertificate(Boolean.valueOf(alwaysTrustServerCertificate));
-
-        configBuilder.setProxyHost(proxyHost);
-        configBuilder.setProxyPort(proxyPort);
-        configBuilder.setIgnoredProxyHosts(ignoredProxyHosts);
-        configBuilder.setProxyUsername(proxyUsername);
-        configBuilder.setProxyPassword(proxyPassword);
-        configBuilder.setProxyPasswordLength(NumberUtils.toInt(proxyPasswordLength));
+    private void invalidateConnection() {
+        if (connectionLease != null) {
+            // the session may be the cause of the failure, the next build logs in again
+            connectionLease.invalidate();
+        }
+    }
 
+    private void publishTimings(final BuildProgressLogger buildLogger, final IntLogger logger) {
+        timings.stopAll();
+        for (final String statisticMessage : timings.getStatisticMessages()) {
+            buildLogger.message(statisticMessage);
+        }
         try {
-            return configBuilder.build();
-        } catch (final IllegalStateException e) {
-            logger.error(e.getMessage(), e);
+            final File timingsFile = new File(build.getBuildTempDirectory(), HubConstantValues.HUB_TIMINGS_FILE_PREFIX + timings.getStepId() + HubConstantValues.HUB_TIMINGS_FILE_EXTENSION);
+            timings.writeJson(timingsFile);
+            artifactsWatcher.addNewArtifactsPath(timingsFile.getCanonicalPath());
+        } catch (final IOException e) {
+            logger.warn("Could not write the Hub step timings: " + e.getMessage());
         }
-        return null;
     }
 
-    private HubScanConfig getScanConfig(final File workingDirectory, final File toolsDir, final IntLogger logger, final CIEnvironmentVariables commonVariables) throws IOException {
-
-        final String dryRun = commonVariables.getValue(HubConstantValues.HUB_DRY_RUN);
-        final String cleanupLogs = commonVariables.getValue(HubConstantValues.HUB_CLEANUP_LOGS_ON_SUCCESS);
-
-        final String scanMemory = commonVariables.getValue(HubConstantValues.HUB_SCAN_MEMORY);
-
-        final String codeLocationName = commonVariables.getValue(HubConstantValues.HUB_CODE_LOCATION_NAME);
-        final String unmapPreviousCodeLocations = commonVariables.getValue(HubConstantValues.HUB_UNMAP_PREVIOUS_CODE_LOCATIONS);
-        final String deletePreviousCodeLocations = commonVariables.getValue(HubConstantValues.HUB_DELETE_PREVIOUS_CODE_LOCATIONS);
+    private void phoneHome(final HubServicesFactory services, final HubServerConfig hubConfig, final String pluginVersion, final String thirdPartyVersion) {
+        try {
+            final PhoneHomeService phoneHomeService = services.createPhoneHomeService();
+            final PhoneHomeRequestBody.Builder builder = phoneHomeService.createInitialPhoneHomeRequestBodyBuilder();
+            builder.setArtifactId("hub-teamcity");
+            builder.setArtifactVersion(pluginVersion);
+            builder.addToMetaData("teamcity.version", thirdPartyVersion);
+            phoneHomeSender.phoneHome(builder.build(), hubConfig, logger);
+        } catch (final Exception e) {
+            // telemetry never fails the build
+            logger.debug("Could not phone home: " + e.getMessage());
+        }
+    }
 
-        final String hubWorkspaceCheck = commonVariables.getValue(HubConstantValues.HUB_WORKSPACE_CHECK);
+    public RestConnection getRestConnection(final IntLogger logger, final HubServerConfig hubServerConfig) throws EncryptionException {
+        return hubServerConfig.createCredentialsRestConnection(logger);
+    }
 
-        String[] excludePatternArray = new String[0];
-        final String excludePatternParameter = commonVariables.getValue(HubConstantValues.HUB_EXCLUDE_PATTERNS);
-        if (StringUtils.isNotBlank(excludePatternParameter)) {
-            excludePatternArray = excludePatternParameter.split("\\r?\\n");
+    private String getLocalHostName(final CIEnvironmentVariables commonVariables) {
+        String hostname = hostnameResolver.getHostname();
+        if (StringUtils.isBlank(hostname)) {
+            // the first lookup of the agent is still running, do not wait on it
+            hostname = commonVariables.getValue(HubConstantValues.HUB_AGENT_HOSTNAME);
         }
-
-        final List<String> scanTargets = new ArrayList<>();
-        final String scanTargetParameter = commonVariables.getValue(HubConstantValues.HUB_SCAN_TARGETS);
-        if (StringUtils.isNotBlank(scanTargetParameter)) {
-            final String[] scanTargetPathsArray = scanTargetParameter.split("\\r?\\n");
-            for (final String target : scanTargetPathsArray) {
-                if (StringUtils.isNotBlank(target)) {
-                    final File tmpTarget = new File(target);
-                    if (tmpTarget.isAbsolute()) {
-                        scanTargets.add(tmpTarget.getCanonicalPath());
-                    } else {
-                        scanTargets.add(new File(workingDirectory, target).getCanonicalPath());
-                    }
-                }
-            }
-        } else {
-            scanTargets.add(workingDirectory.getAbsolutePath());
+        if (StringUtils.isBlank(hostname)) {
+            hostname = build.getAgentConfiguration().getName();
         }
+        return hostname;
+    }
 
-        final HubScanConfigBuilder hubScanConfigBuilder = new HubScanConfigBuilder();
-        hubScanConfigBuilder.setWorkingDirectory(workingDirectory);
-        hubScanConfigBuilder.setDryRun(Boolean.valueOf(dryRun));
-        hubScanConfigBuilder.setScanMemory(scanMemory);
-        hubScanConfigBuilder.setCodeLocationAlias(codeLocationName);
-        hubScanConfigBuilder.addAllScanTargetPaths(scanTargets);
-        hubScanConfigBuilder.setToolsDir(toolsDir);
-        hubScanConfigBuilder.setCleanupLogsOnSuccess(Boolean.valueOf(cleanupLogs));
-        hubScanConfigBuilder.setUnmapPreviousCodeLocations(Boolean.valueOf(unmapPreviousCodeLocations));
-        hubScanConfigBuilder.setDeletePreviousCodeLocations(Boolean.valueOf(deletePreviousCodeLocations));
-        hubScanConfigBuilder.setExcludePatterns(excludePatternArray);
-        if (Boolean.valueOf(hubWorkspaceCheck)) {
-            hubScanConfigBuilder.enableScanTargetPathsWithinWorkingDirectoryCheck();
-        }
-        try {
-            return hubScanConfigBuilder.build();
-        } catch (final IllegalStateException e) {
-            logger.error(e.getMessage(), e);
+    private HubIncrementalScan createIncrementalScan(final IntLogger logger, final HubBuildParameters parameters) {
+        final CIEnvironmentVariables commonVariables = parameters.getCommonVariables();
+        final HubScanManifestStore manifestStore = new HubScanManifestStore(build.getAgentConfiguration().getCacheDirectory(SCAN_MANIFEST_CACHE));
+        // a step is scanned incrementally against its own previous scans only
+        final String scope = build.getBuildTypeId() + ":" + context.getId();
+        final StringBuilder configFingerprint = new StringBuilder();
+        configFingerprint.append(commonVariables.getValue(HubConstantValues.HUB_URL)).append('|');
+        configFingerprint.append(commonVariables.getValue(HubConstantValues.HUB_PROJECT_NAME)).append('|');
+        configFingerprint.append(commonVariables.getValue(HubConstantValues.HUB_PROJECT_VERSION)).append('|');
+        configFingerprint.append(commonVariables.getValue(HubConstantValues.HUB_CODE_LOCATION_NAME)).append('|');
+        configFingerprint.append(commonVariables.getValue(HubConstantValues.HUB_EXCLUDE_PATTERNS));
+        return new HubIncrementalScan(manifestStore, scope, configFingerprint.toString(), parameters.getExcludePatterns(), logger);
+    }
+
+    private List<String> getTargetsToScan(final IntLogger logger, final CIEnvironmentVariables commonVariables, final List<String> scanTargets, final List<String> changedTargets) {
+        final boolean removesPreviousCodeLocations = Boolean.valueOf(commonVariables.getValue(HubConstantValues.HUB_UNMAP_PREVIOUS_CODE_LOCATIONS))
+                || Boolean.valueOf(commonVariables.getValue(HubConstantValues.HUB_DELETE_PREVIOUS_CODE_LOCATIONS));
+        if (removesPreviousCodeLocations && !changedTargets.isEmpty() && changedTargets.size() < scanTargets.size()) {
+            // scanning only the changed targets would unmap or delete the Code Locations of the unchanged ones
+            logger.info("Previous Code Locations are unmapped or deleted, scanning all of the targets.");
+            return scanTargets;
         }
-        return null;
+        return changedTargets;
     }
 
     private ProjectRequest getProjectRequest(final IntLogger logger, final CIEnvironmentVariables commonVariables) {
@@ -373,13 +514,43 @@ public class HubBuildProcess extends HubCallableBuildProcess {
         return null;
     }
 
-    private Map<String, String> getVariables() {
-        final Map<String, String> variables = new HashMap<>();
-        variables.putAll(context.getBuildParameters().getEnvironmentVariables());
-        variables.putAll(context.getBuildParameters().getSystemProperties());
-        variables.putAll(context.getConfigParameters());
-        variables.putAll(context.getRunnerParameters());
-        return variables;
+    private void waitForBom(final HubServerConfig hubConfig, final ProjectVersionView version, final long scanStartedMillis, final long waitTime, final IntLogger logger)
+            throws HubIntegrationException, InterruptedException {
+        final HubBomWaiter.PendingBom pendingBom = bomWaiter.waitForBom(hubConfig, version, scanStartedMillis, logger);
+        try {
+            pendingBom.getFuture().get(waitTime, TimeUnit.MILLISECONDS);
+            logger.info("The BOM has been updated.");
+        } catch (final TimeoutException e) {
+            throw new HubIntegrationException("The BOM was not updated within the maximum wait time of " + TimeUnit.MILLISECONDS.toMinutes(waitTime) + " minutes.");
+        } catch (final CancellationException e) {
+            throw new HubIntegrationException("Waiting for the BOM to be updated was cancelled.");
+        } catch (final ExecutionException e) {
+            throw new HubIntegrationException(e.getCause().getMessage(), e.getCause());
+        } finally {
+            bomWaiter.release(pendingBom, logger);
+        }
+    }
+
+    private Callable<Void> createRiskReportTask(final BuildProgressLogger buildLogger, final HubLogSinkFactory logSinkFactory, final File workingDirectory, final ReportService reportService,
+            final ProjectVersionWrapper projectVersionWrapper) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                timings.start(HubBuildTimings.REPORT);
+                final FlowLogger flowLogger = buildLogger.getThreadLogger();
+                flowLogger.startFlow();
+                final HubAgentBuildLogger reportLogger = new HubAgentBuildLogger(flowLogger, logSinkFactory.create(flowLogger));
+                reportLogger.setLogLevel(logger.getLogLevel());
+                try {
+                    publishRiskReportFiles(reportLogger, workingDirectory, reportService, projectVersionWrapper.getProjectView(), projectVersionWrapper.getProjectVersionView());
+                } finally {
+                    reportLogger.close();
+                    flowLogger.disposeFlow();
+                    timings.stop(HubBuildTimings.REPORT);
+                }
+                return null;
+            }
+        };
     }
 
     private void publishRiskReportFiles(final IntLogger logger, final File workingDirectory, final ReportService reportSerivce, final ProjectView project, final ProjectVersionView version)
@@ -388,11 +559,32 @@ public class HubBuildProcess extends HubCallableBuildProcess {
         final String reportDirectoryPath = workingDirectory.getCanonicalPath() + File.separator + HubConstantValues.HUB_RISK_REPORT_DIRECTORY_NAME;
         final File reportDirectory = new File(reportDirectoryPath);
         reportSerivce.createReportFiles(reportDirectory, project, version);
+
+        // the artifacts are uploaded asynchronously, so only register them once they are on disk;
+        // the Risk Report tab looks for the uploaded artifact itself and needs no delay here
+        final File reportFile = new File(reportDirectory, HubConstantValues.HUB_RISK_REPORT_FILENAME);
+        if (!reportFile.isFile()) {
+            throw new HubIntegrationException("The risk report was not created: " + reportFile.getCanonicalPath());
+        }
+        syncReportFiles(reportDirectory);
         artifactsWatcher.addNewArtifactsPath(reportDirectoryPath + "=>" + HubConstantValues.HUB_RISK_REPORT_DIRECTORY_NAME);
+        logger.info("Published the risk report from " + reportDirectoryPath);
+    }
 
-        // If we do not wait, the report tab will not be added and
-        // it will appear that the report was unsuccessful
-        Thread.sleep(2000);
+    private void syncReportFiles(final File directory) throws IOException {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (final File file : files) {
+            if (file.isDirectory()) {
+                syncReportFiles(file);
+            } else {
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                }
+            }
+        }
     }
 
     private void checkPolicyFailures(final AgentRunningBuild build, final IntLogger logger, final HubService hubService, final MetaHandler metaHandler, final ProjectVersionView version, final boolean isDryRun) {
@@ -408,7 +600,12 @@ public class HubBuildProcess extends HubCallableBuildProcess {
                 logger.warn("Could not get the policy status link, the Hub policy module is not enabled");
             }
             if (null != policyStatusLink) {
-                VersionBomPolicyStatusView policyStatusItem = hubService.getResponse(version, ProjectVersionView.POLICY_STATUS_LINK_RESPONSE);
+                final VersionBomPolicyStatusView policyStatusItem = connectionLease.call(new HubSessionCall<VersionBomPolicyStatusView>() {
+                    @Override
+                    public VersionBomPolicyStatusView call() throws IntegrationException {
+                        return hubService.getResponse(version, ProjectVersionView.POLICY_STATUS_LINK_RESPONSE);
+                    }
+                });
                 if (policyStatusItem == null) {
                     final String message = "Could not find any information about the Policy status of the bom.";
                     logger.error(message);
@@ -0,0 +1,234 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.scan;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.jetbrains.annotations.NotNull;
+
+import com.blackducksoftware.integration.hub.teamcity.agent.HubThreadFactory;
+import com.blackducksoftware.integration.hub.teamcity.common.HubConstantValues;
+
+import jetbrains.buildServer.agent.AgentLifeCycleAdapter;
+import jetbrains.buildServer.agent.AgentLifeCycleListener;
+import jetbrains.buildServer.agent.BuildAgent;
+import jetbrains.buildServer.log.Loggers;
+import jetbrains.buildServer.util.EventDispatcher;
+
+/**
+ * The single executor used by the agent to run Hub build processes. It is created with the plugin, resized from the
+ * agent configuration parameters once they are loaded and shut down when the agent stops.
+ */
+public class HubBuildProcessExecutor extends AgentLifeCycleAdapter {
+    public static final int DEFAULT_THREADS = 4;
+
+    public static final int DEFAULT_QUEUE_SIZE = 100;
+
+    private static final long SHUTDOWN_WAIT_SECONDS = 30;
+
+    private final ThreadPoolExecutor executor;
+
+    public HubBuildProcessExecutor(@NotNull final EventDispatcher<AgentLifeCycleListener> dispatcher) {
+        executor = new ThreadPoolExecutor(DEFAULT_THREADS, DEFAULT_THREADS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(DEFAULT_QUEUE_SIZE), new HubThreadFactory("Hub Build Process"));
+        executor.allowCoreThreadTimeOut(true);
+        dispatcher.addListener(this);
+    }
+
+    @Override
+    public void afterAgentConfigurationLoaded(@NotNull final BuildAgent agent) {
+        final String threadsParameter = agent.getConfiguration().getConfigurationParameters().get(HubConstantValues.HUB_AGENT_EXECUTOR_THREADS);
+        final int threads = NumberUtils.toInt(threadsParameter, DEFAULT_THREADS);
+        if (threads > 0) {
+            resize(threads);
+        }
+        Loggers.AGENT.info("Hub build process executor running with " + executor.getMaximumPoolSize() + " threads");
+    }
+
+    @Override
+    public void agentShutdown() {
+        shutdown();
+    }
+
+    public <T> Future<T> submit(final Callable<T> task) {
+        return executor.submit(task);
+    }
+
+    /**
+     * Runs part of a build process beside it on the executor. Joining the part runs it on the joining thread if no
+     * executor thread picked it up yet, so a build process waiting on its part never waits for a thread that every
+     * other build process holds as well.
+     */
+    public <T> ForkedTask<T> fork(final Callable<T> task) {
+        final ForkedTask<T> forkedTask = new ForkedTask<>(task);
+        try {
+            forkedTask.future = executor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return forkedTask.runIfUnclaimed();
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            // the queue is full, the task runs when it is joined
+        }
+        return forkedTask;
+    }
+
+    public void resize(final int threads) {
+        if (threads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        } else {
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (final InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getMaximumThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public long getCompletedTaskCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    public static class ForkedTask<T> {
+        private final Callable<T> task;
+
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        private volatile Future<T> future;
+
+        private ForkedTask(final Callable<T> task) {
+            this.task = task;
+        }
+
+        /**
+         * @return the result of the task, run on this thread unless an executor thread already runs it
+         */
+        public T join() throws Exception {
+            if (claimed.compareAndSet(false, true)) {
+                if (future != null) {
+                    future.cancel(false);
+                }
+                return runAndFinish();
+            }
+            try {
+                return future.get();
+            } catch (final InterruptedException e) {
+                future.cancel(true);
+                throw e;
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Keeps the task from starting and interrupts it if it already runs on an executor thread.
+         */
+        public void cancel() {
+            if (claimed.compareAndSet(false, true)) {
+                // it never runs
+                finished.countDown();
+            }
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+
+        /**
+         * Cancels the task and waits until it no longer runs, so whatever it uses can be closed afterwards. The wait
+         * goes on when the waiting thread is interrupted, which is how a failed build usually gets here; the interrupt
+         * is kept for the caller.
+         */
+        public void cancelAndAwait() {
+            cancel();
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    finished.await();
+                    break;
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private T runIfUnclaimed() throws Exception {
+            if (claimed.compareAndSet(false, true)) {
+                return runAndFinish();
+            }
+            return null;
+        }
+
+        private T runAndFinish() throws Exception {
+            try {
+                return task.call();
+            } finally {
+                finished.countDown();
+            }
+        }
+    }
+
+}
@@ -25,6 +25,11 @@ package com.blackducksoftware.integration.hub.teamcity.agent.scan;
 
 import org.jetbrains.annotations.NotNull;
 
+import com.blackducksoftware.integration.hub.teamcity.agent.HubHostnameResolver;
+import com.blackducksoftware.integration.hub.teamcity.agent.cli.HubCliInstaller;
+import com.blackducksoftware.integration.hub.teamcity.agent.connection.HubRestConnectionPool;
+import com.blackducksoftware.integration.hub.teamcity.agent.connection.HubServerConfigCache;
+import com.blackducksoftware.integration.hub.teamcity.agent.phonehome.HubPhoneHomeSender;
 import com.blackducksoftware.integration.hub.teamcity.common.HubBundle;
 
 import jetbrains.buildServer.RunBuildException;
@@ -40,14 +45,44 @@ public class HubBuildRunner implements AgentBuildRunner {
     @NotNull
     private final ArtifactsWatcher artifactsWatcher;
 
-    public HubBuildRunner(@NotNull final ArtifactsWatcher artifactsWatcher) {
+    @NotNull
+    private final HubBuildProcessExecutor executor;
+
+    @NotNull
+    private final HubCliInstaller cliInstaller;
+
+    @NotNull
+    private final HubBomWaiter bomWaiter;
+
+    @NotNull
+    private final HubPhoneHomeSender phoneHomeSender;
+
+    @NotNull
+    private final HubRestConnectionPool connectionPool;
+
+    @NotNull
+    private final HubServerConfigCache serverConfigCache;
+
+    @NotNull
+    private final HubHostnameResolver hostnameResolver;
+
+    public HubBuildRunner(@NotNull final ArtifactsWatcher artifactsWatcher, @NotNull final HubBuildProcessExecutor executor, @NotNull final HubCliInstaller cliInstaller,
+            @NotNull final HubBomWaiter bomWaiter, @NotNull final HubPhoneHomeSender phoneHomeSender, @NotNull final HubRestConnectionPool connectionPool,
+            @NotNull final HubServerConfigCache serverConfigCache, @NotNull final HubHostnameResolver hostnameResolver) {
         this.artifactsWatcher = artifactsWatcher;
+        this.executor = executor;
+        this.cliInstaller = cliInstaller;
+        this.bomWaiter = bomWaiter;
+        this.phoneHomeSender = phoneHomeSender;
+        this.connectionPool = connectionPool;
+        this.serverConfigCache = serverConfigCache;
+        this.hostnameResolver = hostnameResolver;
     }
 
     @Override
     public BuildProcess createBuildProcess(@NotNull final AgentRunningBuild runningBuild,
             @NotNull final BuildRunnerContext context) throws RunBuildException {
-        return new HubBuildProcess(runningBuild, context, artifactsWatcher);
+        return new HubBuildProcess(runningBuild, context, artifactsWatcher, executor, cliInstaller, bomWaiter, phoneHomeSender, connectionPool, serverConfigCache, hostnameResolver);
     }
 
     @Override
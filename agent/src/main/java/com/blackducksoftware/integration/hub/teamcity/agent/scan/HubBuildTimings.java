@@ -0,0 +1,151 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import jetbrains.buildServer.messages.serviceMessages.ServiceMessage;
+
+/**
+ * Measures the phases of a Hub build step with the monotonic clock. The durations are reported as TeamCity build
+ * statistic values named hub.&lt;phase&gt;.durationMs, or hub.&lt;phase&gt;.&lt;step id&gt;.durationMs in a build with
+ * more than one Hub step, and written to a JSON file that is published with the build, so the Hub steps of a build each
+ * keep their own timings. Phases may run on different threads, a phase that runs more than once adds up.
+ */
+public class HubBuildTimings {
+    public static final String CONFIG = "config";
+    public static final String CONNECT = "connect";
+    public static final String PHONE_HOME = "phoneHome";
+    public static final String CLI_INSTALL = "cliInstall";
+    public static final String SCAN = "scan";
+    public static final String BOM_WAIT = "bomWait";
+    public static final String REPORT = "report";
+    public static final String POLICY = "policy";
+    public static final String TOTAL = "total";
+
+    private static final String STATISTIC_PREFIX = "hub.";
+    private static final String STATISTIC_SUFFIX = ".durationMs";
+
+    private final String stepId;
+
+    private final boolean qualifiedByStep;
+
+    private final Map<String, Long> startNanos = new HashMap<>();
+
+    private final Map<String, Long> durationNanos = new LinkedHashMap<>();
+
+    /**
+     * @param qualifiedByStep
+     *            true if the build has more than one Hub step, whose statistic values would otherwise add up
+     */
+    public HubBuildTimings(final String stepId, final boolean qualifiedByStep) {
+        this.stepId = stepId;
+        this.qualifiedByStep = qualifiedByStep;
+        start(TOTAL);
+    }
+
+    public String getStepId() {
+        return stepId;
+    }
+
+    public synchronized void start(final String phase) {
+        startNanos.put(phase, System.nanoTime());
+    }
+
+    public synchronized void stop(final String phase) {
+        final Long started = startNanos.remove(phase);
+        if (started != null) {
+            final long elapsed = System.nanoTime() - started;
+            final Long previous = durationNanos.get(phase);
+            durationNanos.put(phase, previous == null ? elapsed : previous + elapsed);
+        }
+    }
+
+    /**
+     * Stops every phase that is still running, the phase a build failed in ends here.
+     */
+    public synchronized void stopAll() {
+        for (final String phase : startNanos.keySet().toArray(new String[0])) {
+            stop(phase);
+        }
+    }
+
+    /**
+     * @return the milliseconds of every finished phase in the order they finished
+     */
+    public synchronized Map<String, Long> getDurations() {
+        final Map<String, Long> durations = new LinkedHashMap<>();
+        for (final Map.Entry<String, Long> duration : durationNanos.entrySet()) {
+            durations.put(duration.getKey(), TimeUnit.NANOSECONDS.toMillis(duration.getValue()));
+        }
+        return durations;
+    }
+
+    public String getStatisticKey(final String phase) {
+        if (qualifiedByStep) {
+            return STATISTIC_PREFIX + phase + "." + stepId + STATISTIC_SUFFIX;
+        }
+        return STATISTIC_PREFIX + phase + STATISTIC_SUFFIX;
+    }
+
+    /**
+     * @return the service messages that report the durations as build statistic values
+     */
+    public String[] getStatisticMessages() {
+        final Map<String, Long> durations = getDurations();
+        final String[] messages = new String[durations.size()];
+        int index = 0;
+        for (final Map.Entry<String, Long> duration : durations.entrySet()) {
+            final Map<String, String> attributes = new LinkedHashMap<>();
+            attributes.put("key", getStatisticKey(duration.getKey()));
+            attributes.put("value", String.valueOf(duration.getValue()));
+            messages[index++] = ServiceMessage.asString("buildStatisticValue", attributes);
+        }
+        return messages;
+    }
+
+    public void writeJson(final File file) throws IOException {
+        final Map<String, Object> json = new LinkedHashMap<>();
+        json.put("step", stepId);
+        json.put("unit", "ms");
+        json.put("phases", getDurations());
+        final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        file.getParentFile().mkdirs();
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            gson.toJson(json, writer);
+        }
+    }
+
+}
@@ -26,7 +26,6 @@ package com.blackducksoftware.integration.hub.teamcity.agent.scan;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
 
@@ -35,8 +34,18 @@ import jetbrains.buildServer.agent.BuildFinishedStatus;
 import jetbrains.buildServer.agent.BuildProcess;
 
 abstract public class HubCallableBuildProcess implements BuildProcess, Callable<BuildFinishedStatus> {
+    private final HubBuildProcessExecutor executor;
+
     private Future<BuildFinishedStatus> future;
 
+    public HubCallableBuildProcess(final HubBuildProcessExecutor executor) {
+        this.executor = executor;
+    }
+
+    public HubBuildProcessExecutor getExecutor() {
+        return executor;
+    }
+
     @Override
     public void interrupt() {
         future.cancel(true);
@@ -55,7 +64,7 @@ abstract public class HubCallableBuildProcess implements BuildProcess, Callable<
     @Override
     public void start() throws RunBuildException {
         try {
-            future = Executors.newSingleThreadExecutor().submit(this);
+            future = executor.submit(this);
         } catch (final RejectedExecutionException e) {
             throw new RunBuildException(e);
         }
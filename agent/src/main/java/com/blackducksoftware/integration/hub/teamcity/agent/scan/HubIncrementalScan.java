@@ -0,0 +1,89 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.scan;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.blackducksoftware.integration.log.IntLogger;
+
+/**
+ * Decides which scan targets changed since they were last scanned successfully in the same scope, and records the
+ * targets once they have been scanned.
+ */
+public class HubIncrementalScan {
+    private final HubScanManifestStore manifestStore;
+
+    private final String scope;
+
+    private final String configFingerprint;
+
+    private final String[] excludePatterns;
+
+    private final IntLogger logger;
+
+    private final Map<String, HubScanManifest> currentManifests = new HashMap<>();
+
+    public HubIncrementalScan(final HubScanManifestStore manifestStore, final String scope, final String configFingerprint, final String[] excludePatterns, final IntLogger logger) {
+        this.manifestStore = manifestStore;
+        this.scope = scope;
+        this.configFingerprint = configFingerprint;
+        this.excludePatterns = excludePatterns;
+        this.logger = logger;
+    }
+
+    public List<String> getChangedTargets(final List<String> scanTargets) throws IOException {
+        final List<String> changedTargets = new ArrayList<>();
+        for (final String scanTarget : scanTargets) {
+            final HubScanManifest previous = manifestStore.load(scope, scanTarget);
+            final HubScanManifest current = manifestStore.createManifest(scanTarget, configFingerprint, excludePatterns, previous);
+            currentManifests.put(scanTarget, current);
+            if (previous != null && current.getDigest().equals(previous.getDigest())) {
+                logger.info("No changes in " + scanTarget + " since it was last scanned, skipping this target.");
+            } else {
+                changedTargets.add(scanTarget);
+            }
+        }
+        return changedTargets;
+    }
+
+    public void recordScannedTargets(final Collection<String> scanTargets) {
+        for (final String scanTarget : scanTargets) {
+            final HubScanManifest manifest = currentManifests.get(scanTarget);
+            if (manifest == null) {
+                continue;
+            }
+            try {
+                manifestStore.save(scope, scanTarget, manifest);
+            } catch (final IOException e) {
+                logger.warn("Could not save the scan manifest of " + scanTarget + " : " + e.getMessage());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,231 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.scan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.blackducksoftware.integration.hub.api.generated.component.ProjectRequest;
+import com.blackducksoftware.integration.hub.configuration.HubScanConfig;
+import com.blackducksoftware.integration.hub.configuration.HubServerConfig;
+import com.blackducksoftware.integration.hub.exception.HubIntegrationException;
+import com.blackducksoftware.integration.hub.service.HubServicesFactory;
+import com.blackducksoftware.integration.hub.service.SignatureScannerService;
+import com.blackducksoftware.integration.hub.service.model.ProjectVersionWrapper;
+import com.blackducksoftware.integration.hub.teamcity.agent.HubAgentBuildLogger;
+import com.blackducksoftware.integration.hub.teamcity.agent.connection.HubRestConnectionLease;
+import com.blackducksoftware.integration.hub.teamcity.agent.connection.HubRestConnectionPool;
+import com.blackducksoftware.integration.hub.teamcity.agent.log.HubLogSinkFactory;
+import com.blackducksoftware.integration.log.IntLogger;
+
+import jetbrains.buildServer.agent.BuildProgressLogger;
+import jetbrains.buildServer.agent.FlowLogger;
+
+/**
+ * Scans each target in its own scan CLI run, at most maxConcurrency at a time. The scans run on the shared Hub build
+ * process executor: the build process itself and up to maxConcurrency - 1 forked workers take the targets one after
+ * the other, so a build never holds more executor threads than its concurrency. Every target logs to its own TeamCity
+ * flow, through the log sinks configured for the step, so the output of concurrent scans is not interleaved.
+ */
+public class HubParallelScanner {
+    private final HubServerConfig hubServerConfig;
+
+    private final HubRestConnectionPool connectionPool;
+
+    private final HubBuildProcessExecutor executor;
+
+    private final Map<String, String> variables;
+
+    private final BuildProgressLogger buildLogger;
+
+    private final HubLogSinkFactory logSinkFactory;
+
+    private final HubAgentBuildLogger logger;
+
+    private final int maxConcurrency;
+
+    public HubParallelScanner(final HubServerConfig hubServerConfig, final HubRestConnectionPool connectionPool, final HubBuildProcessExecutor executor, final Map<String, String> variables,
+            final BuildProgressLogger buildLogger, final HubLogSinkFactory logSinkFactory, final HubAgentBuildLogger logger, final int maxConcurrency) {
+        this.hubServerConfig = hubServerConfig;
+        this.connectionPool = connectionPool;
+        this.executor = executor;
+        this.variables = variables;
+        this.buildLogger = buildLogger;
+        this.logSinkFactory = logSinkFactory;
+        this.logger = logger;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * @return the Project Version the targets were mapped to, or null if no Project was requested
+     * @throws HubIntegrationException
+     *             the first failure of any target, once every target has finished
+     */
+    public ProjectVersionWrapper scan(final List<HubScanConfig> hubScanConfigs, final ProjectRequest projectRequest, final boolean shouldWaitForScansFinished) throws HubIntegrationException, InterruptedException {
+        final int threads = Math.max(1, Math.min(maxConcurrency, hubScanConfigs.size()));
+        logger.info("Scanning " + hubScanConfigs.size() + " targets, " + threads + " at a time");
+
+        final TargetScans targetScans = new TargetScans(hubScanConfigs, projectRequest, shouldWaitForScansFinished);
+        // the first scan installs or updates the CLI in the shared tools directory, the others must not race it
+        targetScans.scanNext();
+
+        final List<HubBuildProcessExecutor.ForkedTask<Void>> workers = new ArrayList<>();
+        try {
+            for (int i = 1; i < threads; i++) {
+                workers.add(executor.fork(targetScans));
+            }
+            targetScans.call();
+            for (final HubBuildProcessExecutor.ForkedTask<Void> worker : workers) {
+                worker.join();
+            }
+        } catch (final InterruptedException e) {
+            throw e;
+        } catch (final Exception e) {
+            // the workers report the failures of their targets, this is a failure of the worker itself
+            throw asHubIntegrationException(e);
+        } finally {
+            // after a failure no CLI run may go on using its connection and its flow once the scan returned
+            for (final HubBuildProcessExecutor.ForkedTask<Void> worker : workers) {
+                worker.cancelAndAwait();
+            }
+        }
+
+        ProjectVersionWrapper projectVersionWrapper = null;
+        for (int i = 0; i < hubScanConfigs.size(); i++) {
+            final Throwable failure = targetScans.failures.get(i);
+            if (failure != null) {
+                throw asHubIntegrationException(failure);
+            }
+            final ProjectVersionWrapper targetProjectVersionWrapper = targetScans.results.get(i);
+            if (targetProjectVersionWrapper != null) {
+                projectVersionWrapper = targetProjectVersionWrapper;
+            }
+        }
+        return projectVersionWrapper;
+    }
+
+    /**
+     * Runs the scan CLI for one target on a connection of its own.
+     */
+    ProjectVersionWrapper scanTarget(final HubScanConfig hubScanConfig, final ProjectRequest projectRequest, final boolean shouldWaitForScansFinished, final IntLogger targetLogger) throws Exception {
+        final HubRestConnectionLease connectionLease = connectionPool.acquire(hubServerConfig, targetLogger);
+        try {
+            final HubServicesFactory services = new HubServicesFactory(connectionLease.getRestConnection());
+            services.addEnvironmentVariables(variables);
+            final SignatureScannerService signatureScannerService = services.createSignatureScannerService(hubServerConfig.getTimeout() * 60 * 1000);
+            // not retried on a rejected session, running the scan again could upload the Code Location twice
+            return signatureScannerService.installAndRunControlledScan(hubServerConfig, hubScanConfig, projectRequest, shouldWaitForScansFinished);
+        } catch (final Exception e) {
+            connectionLease.invalidate();
+            throw e;
+        } finally {
+            connectionLease.close();
+        }
+    }
+
+    private HubIntegrationException asHubIntegrationException(final Throwable cause) {
+        if (cause instanceof HubIntegrationException) {
+            return (HubIntegrationException) cause;
+        }
+        return new HubIntegrationException(cause.getMessage(), cause);
+    }
+
+    /**
+     * The targets of one scan, taken one after the other by every worker.
+     */
+    private class TargetScans implements Callable<Void> {
+        private final List<HubScanConfig> hubScanConfigs;
+
+        private final ProjectRequest projectRequest;
+
+        private final boolean shouldWaitForScansFinished;
+
+        private final AtomicInteger nextTarget = new AtomicInteger();
+
+        private final AtomicReferenceArray<ProjectVersionWrapper> results;
+
+        private final AtomicReferenceArray<Throwable> failures;
+
+        public TargetScans(final List<HubScanConfig> hubScanConfigs, final ProjectRequest projectRequest, final boolean shouldWaitForScansFinished) {
+            this.hubScanConfigs = hubScanConfigs;
+            this.projectRequest = projectRequest;
+            this.shouldWaitForScansFinished = shouldWaitForScansFinished;
+            results = new AtomicReferenceArray<>(hubScanConfigs.size());
+            failures = new AtomicReferenceArray<>(hubScanConfigs.size());
+        }
+
+        @Override
+        public Void call() throws InterruptedException {
+            while (scanNext()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return false once every target was taken
+         */
+        private boolean scanNext() throws InterruptedException {
+            final int target = nextTarget.getAndIncrement();
+            if (target >= hubScanConfigs.size()) {
+                return false;
+            }
+            try {
+                results.set(target, scan(hubScanConfigs.get(target)));
+            } catch (final InterruptedException e) {
+                failures.set(target, e);
+                throw e;
+            } catch (final Exception e) {
+                failures.set(target, e);
+            }
+            return true;
+        }
+
+        private ProjectVersionWrapper scan(final HubScanConfig hubScanConfig) throws Exception {
+            final String targets = hubScanConfig.getScanTargetPaths().toString();
+            final FlowLogger flowLogger = buildLogger.getThreadLogger();
+            flowLogger.startFlow();
+            final HubAgentBuildLogger targetLogger = new HubAgentBuildLogger(flowLogger, logSinkFactory.create(flowLogger));
+            targetLogger.setLogLevel(logger.getLogLevel());
+            targetLogger.targetStarted("Hub Scan " + targets);
+            try {
+                return scanTarget(hubScanConfig, projectRequest, shouldWaitForScansFinished, targetLogger);
+            } catch (final Exception e) {
+                targetLogger.error("Scan of " + targets + " failed: " + e.getMessage(), e);
+                throw e;
+            } finally {
+                targetLogger.targetFinished("Hub Scan " + targets);
+                targetLogger.close();
+                flowLogger.disposeFlow();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.scan;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The content of a scan target as it was when it was last scanned: a hash of every file, keyed by the path relative
+ * to the target, plus a digest of the whole target and the configuration it was scanned with.
+ */
+public class HubScanManifest {
+    private String digest;
+
+    private Map<String, FileEntry> files = new TreeMap<>();
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public void setDigest(final String digest) {
+        this.digest = digest;
+    }
+
+    public Map<String, FileEntry> getFiles() {
+        return files;
+    }
+
+    public FileEntry getFile(final String relativePath) {
+        return files.get(relativePath);
+    }
+
+    public void addFile(final String relativePath, final FileEntry fileEntry) {
+        files.put(relativePath, fileEntry);
+    }
+
+    public static class FileEntry {
+        private long size;
+
+        private long lastModified;
+
+        private String hash;
+
+        public FileEntry(final long size, final long lastModified, final String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public boolean isUnchanged(final long size, final long lastModified) {
+            return this.size == size && this.lastModified == lastModified;
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.scan;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * Keeps one {@link HubScanManifest} per scan scope and target in a directory on the agent, and builds the manifest
+ * of a target as it is now. File hashes are reused from the previous manifest when the size and modification time of
+ * the file have not changed, so an unchanged tree is not read again.
+ */
+public class HubScanManifestStore {
+    private static final String MANIFEST_EXTENSION = ".json";
+
+    private final File manifestDirectory;
+
+    private final Gson gson;
+
+    public HubScanManifestStore(final File manifestDirectory) {
+        this.manifestDirectory = manifestDirectory;
+        gson = new Gson();
+    }
+
+    public File getManifestDirectory() {
+        return manifestDirectory;
+    }
+
+    public HubScanManifest load(final String scope, final String scanTarget) {
+        final File manifestFile = getManifestFile(scope, scanTarget);
+        if (!manifestFile.isFile()) {
+            return null;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(manifestFile.toPath(), StandardCharsets.UTF_8)) {
+            return gson.fromJson(reader, HubScanManifest.class);
+        } catch (final IOException | JsonParseException e) {
+            // a manifest that can not be read only means the target is scanned again
+            return null;
+        }
+    }
+
+    public void save(final String scope, final String scanTarget, final HubScanManifest manifest) throws IOException {
+        if (!manifestDirectory.exists() && !manifestDirectory.mkdirs()) {
+            throw new IOException("Could not create the scan manifest directory : " + manifestDirectory.getCanonicalPath());
+        }
+        final File manifestFile = getManifestFile(scope, scanTarget);
+        final File tempFile = File.createTempFile(manifestFile.getName(), ".tmp", manifestDirectory);
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+                gson.toJson(manifest, writer);
+            }
+            Files.move(tempFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /**
+     * @param configFingerprint
+     *            the scan settings that change the result of a scan, so a changed setting changes the digest
+     * @param excludePatterns
+     *            directories, relative to the target with leading and trailing slashes, that are not hashed
+     */
+    public HubScanManifest createManifest(final String scanTarget, final String configFingerprint, final String[] excludePatterns, final HubScanManifest previous) throws IOException {
+        final HubScanManifest manifest = new HubScanManifest();
+        final Path targetPath = new File(scanTarget).toPath();
+        if (Files.isRegularFile(targetPath)) {
+            addFile(manifest, previous, targetPath.getFileName().toString(), targetPath, Files.readAttributes(targetPath, BasicFileAttributes.class));
+        } else if (Files.isDirectory(targetPath)) {
+            Files.walkFileTree(targetPath, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+                    final String relativeDirectory = "/" + toRelativePath(targetPath, dir) + "/";
+                    for (final String excludePattern : excludePatterns) {
+                        if (relativeDirectory.equals(excludePattern)) {
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                    if (attrs.isRegularFile()) {
+                        addFile(manifest, previous, toRelativePath(targetPath, file), file, attrs);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        manifest.setDigest(createDigest(configFingerprint, manifest));
+        return manifest;
+    }
+
+    private void addFile(final HubScanManifest manifest, final HubScanManifest previous, final String relativePath, final Path file, final BasicFileAttributes attrs) throws IOException {
+        final long size = attrs.size();
+        final long lastModified = attrs.lastModifiedTime().toMillis();
+        HubScanManifest.FileEntry fileEntry = previous == null ? null : previous.getFile(relativePath);
+        if (fileEntry == null || !fileEntry.isUnchanged(size, lastModified)) {
+            try (InputStream inputStream = new FileInputStream(file.toFile())) {
+                fileEntry = new HubScanManifest.FileEntry(size, lastModified, DigestUtils.sha1Hex(inputStream));
+            }
+        }
+        manifest.addFile(relativePath, fileEntry);
+    }
+
+    private String createDigest(final String configFingerprint, final HubScanManifest manifest) {
+        final MessageDigest messageDigest = DigestUtils.getSha1Digest();
+        messageDigest.update(configFingerprint.getBytes(StandardCharsets.UTF_8));
+        for (final Map.Entry<String, HubScanManifest.FileEntry> file : manifest.getFiles().entrySet()) {
+            messageDigest.update(file.getKey().getBytes(StandardCharsets.UTF_8));
+            messageDigest.update(file.getValue().getHash().getBytes(StandardCharsets.UTF_8));
+        }
+        return Hex.encodeHexString(messageDigest.digest());
+    }
+
+    private String toRelativePath(final Path targetPath, final Path path) {
+        return targetPath.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    private File getManifestFile(final String scope, final String scanTarget) {
+        return new File(manifestDirectory, DigestUtils.sha1Hex(scope + "|" + scanTarget) + MANIFEST_EXTENSION);
+    }
+
+}
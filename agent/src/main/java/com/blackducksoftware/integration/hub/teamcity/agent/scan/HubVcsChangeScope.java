@@ -0,0 +1,105 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.blackducksoftware.integration.log.IntLogger;
+
+import jetbrains.buildServer.vcs.VcsChangeInfo;
+import jetbrains.buildServer.vcs.VcsRootEntry;
+
+/**
+ * Maps the files changed in a build to the scan targets that contain them. Targets without changes keep the Code
+ * Locations of their previous scan. A changed file is named relative to its VCS root, it is mapped into the checkout
+ * directory through the checkout rules of the VCS roots. The change does not name its root, so it is mapped through
+ * the rules of every root, which at worst scans a target that did not change.
+ */
+public class HubVcsChangeScope {
+    private final File checkoutDirectory;
+
+    private final List<VcsRootEntry> vcsRootEntries;
+
+    private final IntLogger logger;
+
+    public HubVcsChangeScope(final File checkoutDirectory, final List<VcsRootEntry> vcsRootEntries, final IntLogger logger) {
+        this.checkoutDirectory = checkoutDirectory;
+        this.vcsRootEntries = vcsRootEntries;
+        this.logger = logger;
+    }
+
+    /**
+     * @return the targets containing at least one of the changed files, or every target when there is no change
+     *         information to scope the scan with
+     */
+    public List<String> getChangedTargets(final List<String> scanTargets, final Collection<VcsChangeInfo> changes) throws IOException {
+        if (changes == null || changes.isEmpty()) {
+            logger.info("No VCS changes are known for this build, scanning all of the targets.");
+            return scanTargets;
+        }
+        final List<String> changedFiles = new ArrayList<>();
+        for (final VcsChangeInfo change : changes) {
+            addCheckoutPaths(changedFiles, change.getRelativeFileName());
+        }
+
+        final List<String> changedTargets = new ArrayList<>();
+        for (final String scanTarget : scanTargets) {
+            if (containsAny(scanTarget, changedFiles)) {
+                changedTargets.add(scanTarget);
+            } else {
+                logger.info("No VCS changes in " + scanTarget + ", keeping the results of its previous scan.");
+            }
+        }
+        return changedTargets;
+    }
+
+    private void addCheckoutPaths(final List<String> changedFiles, final String relativeFileName) throws IOException {
+        if (vcsRootEntries == null || vcsRootEntries.isEmpty()) {
+            changedFiles.add(new File(checkoutDirectory, relativeFileName).getCanonicalPath());
+            return;
+        }
+        for (final VcsRootEntry vcsRootEntry : vcsRootEntries) {
+            // null when the checkout rules of the root exclude the file
+            final String checkoutPath = vcsRootEntry.getCheckoutRules().map(relativeFileName);
+            if (checkoutPath != null) {
+                changedFiles.add(new File(checkoutDirectory, checkoutPath).getCanonicalPath());
+            }
+        }
+    }
+
+    private boolean containsAny(final String scanTarget, final List<String> changedFiles) {
+        final String targetDirectory = scanTarget.endsWith(File.separator) ? scanTarget : scanTarget + File.separator;
+        for (final String changedFile : changedFiles) {
+            if (changedFile.equals(scanTarget) || changedFile.startsWith(targetDirectory)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -26,32 +26,39 @@ package com.blackducksoftware.integration.hub.teamcity.agent.scan;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
- * Remember to close the Streams when they are done being used.
+ * Copies the output of a child process in blocks. Remember to close the Streams when they are done being used.
  *
  * @author jrichard
  */
 public class StreamRedirectThread extends Thread {
-    private final InputStream in;
+    public static final int BUFFER_SIZE = 8192;
 
-    private final OutputStream out;
+    private final ReadableByteChannel in;
+
+    private final WritableByteChannel out;
 
     public StreamRedirectThread(final InputStream in, final OutputStream out) {
         super("Stream Redirect Thread");
-        this.in = in;
-        this.out = out;
+        this.in = Channels.newChannel(in);
+        this.out = Channels.newChannel(out);
     }
 
     @Override
     public void run() {
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
         try {
-            int i;
-            while ((i = in.read()) >= 0) {
-                if (i == -1) {
-                    break;
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
                 }
-                out.write(i);
+                buffer.clear();
             }
         } catch (final IOException e) {
             // Ignore
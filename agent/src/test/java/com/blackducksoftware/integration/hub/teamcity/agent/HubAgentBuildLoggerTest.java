@@ -27,6 +27,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.List;
+
 import org.junit.Test;
 
 import com.blackducksoftware.integration.hub.teamcity.agent.util.TestBuildProgressLogger;
@@ -303,4 +305,20 @@ public class HubAgentBuildLoggerTest {
         assertTrue(output, output.contains("This error definitely Should be logged"));
     }
 
+    @Test
+    public void testRepeatedStackTraceIsReferenced() {
+        final TestBuildProgressLogger testLogger = new TestBuildProgressLogger();
+        final HubAgentBuildLogger logger = new HubAgentBuildLogger(testLogger);
+        for (int i = 0; i < 3; i++) {
+            logger.error(new Exception("Attempt " + i));
+        }
+
+        final List<String> errors = testLogger.getErrorMessages();
+        assertEquals(3, errors.size());
+        assertTrue(errors.get(0), errors.get(0).startsWith("Stack trace #"));
+        assertTrue(errors.get(0), errors.get(0).contains("testRepeatedStackTraceIsReferenced"));
+        assertTrue(errors.get(1), errors.get(1).contains("Attempt 1 (same stack trace as #"));
+        assertTrue(errors.get(2), errors.get(2).endsWith("repeated 2 times)"));
+        assertTrue(errors.get(2), !errors.get(2).contains("testRepeatedStackTraceIsReferenced"));
+    }
 }
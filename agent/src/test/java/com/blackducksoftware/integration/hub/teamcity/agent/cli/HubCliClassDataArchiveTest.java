@@ -0,0 +1,81 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.blackducksoftware.integration.hub.teamcity.agent.HubAgentBuildLogger;
+import com.blackducksoftware.integration.hub.teamcity.agent.util.TestBuildProgressLogger;
+import com.blackducksoftware.integration.log.IntLogger;
+
+public class HubCliClassDataArchiveTest {
+    private static final String CLI_VERSION = "3.1.0";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final IntLogger logger = new HubAgentBuildLogger(new TestBuildProgressLogger());
+
+    @Test
+    public void testExistingArchiveIsUsed() throws IOException {
+        final File toolsDirectory = folder.newFolder("tools");
+        final HubCliClassDataArchive classDataArchive = new HubCliClassDataArchive(toolsDirectory);
+        try {
+            final File archive = createArchive(classDataArchive);
+            assertEquals("-XX:SharedArchiveFile=" + archive.getAbsolutePath() + " -Xshare:auto",
+                    classDataArchive.getSharedArchiveOptions(new File(toolsDirectory, "cli"), CLI_VERSION, logger));
+        } finally {
+            classDataArchive.shutdown();
+        }
+    }
+
+    @Test
+    public void testArchivePathWithWhitespaceIsSkipped() throws IOException {
+        final File toolsDirectory = folder.newFolder("agent tools");
+        final HubCliClassDataArchive classDataArchive = new HubCliClassDataArchive(toolsDirectory);
+        try {
+            createArchive(classDataArchive);
+            assertNull(classDataArchive.getSharedArchiveOptions(new File(toolsDirectory, "cli"), CLI_VERSION, logger));
+        } finally {
+            classDataArchive.shutdown();
+        }
+    }
+
+    private File createArchive(final HubCliClassDataArchive classDataArchive) throws IOException {
+        final File archive = classDataArchive.getArchive(CLI_VERSION);
+        assertTrue(archive.getParentFile().mkdirs());
+        assertTrue(archive.createNewFile());
+        return archive;
+    }
+
+}
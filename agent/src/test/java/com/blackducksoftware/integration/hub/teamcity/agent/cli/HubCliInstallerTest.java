@@ -0,0 +1,153 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.blackducksoftware.integration.exception.IntegrationException;
+import com.blackducksoftware.integration.hub.cli.CLILocation;
+import com.blackducksoftware.integration.hub.teamcity.agent.HubAgentBuildLogger;
+import com.blackducksoftware.integration.hub.teamcity.agent.connection.HubRestConnectionLease;
+import com.blackducksoftware.integration.hub.teamcity.agent.util.TestBuildAgentConfiguration;
+import com.blackducksoftware.integration.hub.teamcity.agent.util.TestBuildProgressLogger;
+import com.blackducksoftware.integration.hub.teamcity.agent.util.TestClock;
+import com.blackducksoftware.integration.log.IntLogger;
+import com.blackducksoftware.integration.util.CIEnvironmentVariables;
+
+import jetbrains.buildServer.agent.AgentLifeCycleListener;
+import jetbrains.buildServer.util.EventDispatcher;
+
+public class HubCliInstallerTest {
+    private static final String HUB_URL = "https://hub.example.com";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final TestClock clock = new TestClock(0);
+
+    private final TestCliSource cliSource = new TestCliSource();
+
+    private final IntLogger logger = new HubAgentBuildLogger(new TestBuildProgressLogger());
+
+    private HubCliInstaller cliInstaller;
+
+    @Before
+    public void setUp() throws IOException {
+        final TestBuildAgentConfiguration agentConfiguration = new TestBuildAgentConfiguration();
+        agentConfiguration.setAgentToolsDirectory(folder.newFolder("tools"));
+        cliInstaller = new HubCliInstaller(EventDispatcher.create(AgentLifeCycleListener.class), cliSource, clock);
+        cliInstaller.getToolsDirectory(agentConfiguration);
+    }
+
+    @After
+    public void tearDown() {
+        cliInstaller.agentShutdown();
+    }
+
+    @Test
+    public void testFirstBuildInstallsTheCli() throws Exception {
+        assertNull(cliInstaller.getInstalledCliVersion());
+
+        cliInstaller.ensureInstalled(null, HUB_URL, new CIEnvironmentVariables(), "localhost", logger);
+
+        assertEquals(1, cliSource.versionReads);
+        assertEquals(1, cliSource.installs);
+        assertEquals("4.2.0", cliInstaller.getInstalledCliVersion());
+    }
+
+    @Test
+    public void testCachedHubVersionSkipsTheHub() throws Exception {
+        cliInstaller.ensureInstalled(null, HUB_URL, new CIEnvironmentVariables(), "localhost", logger);
+        clock.advance(HubCliInstaller.HUB_VERSION_TTL_MILLISEC - 1);
+        cliInstaller.ensureInstalled(null, HUB_URL, new CIEnvironmentVariables(), "localhost", logger);
+
+        assertEquals(1, cliSource.versionReads);
+        assertEquals(1, cliSource.installs);
+    }
+
+    @Test
+    public void testOutdatedHubVersionIsReadAgain() throws Exception {
+        cliInstaller.ensureInstalled(null, HUB_URL, new CIEnvironmentVariables(), "localhost", logger);
+
+        clock.advance(HubCliInstaller.HUB_VERSION_TTL_MILLISEC);
+        cliInstaller.ensureInstalled(null, HUB_URL, new CIEnvironmentVariables(), "localhost", logger);
+        assertEquals(2, cliSource.versionReads);
+        assertEquals(1, cliSource.installs);
+
+        // the Hub was upgraded, the first build that reads the new version installs its CLI
+        cliSource.hubVersion = "4.3.0";
+        clock.advance(HubCliInstaller.HUB_VERSION_TTL_MILLISEC);
+        cliInstaller.ensureInstalled(null, HUB_URL, new CIEnvironmentVariables(), "localhost", logger);
+        assertEquals(3, cliSource.versionReads);
+        assertEquals(2, cliSource.installs);
+        assertEquals("4.3.0", cliInstaller.getInstalledCliVersion());
+    }
+
+    @Test
+    public void testHubVersionIsCachedPerServer() throws Exception {
+        cliInstaller.ensureInstalled(null, HUB_URL, new CIEnvironmentVariables(), "localhost", logger);
+        cliInstaller.ensureInstalled(null, "https://other-hub.example.com", new CIEnvironmentVariables(), "localhost", logger);
+
+        assertEquals(2, cliSource.versionReads);
+        assertEquals(2, cliSource.installs);
+    }
+
+    /**
+     * Installs an empty CLI named after the Hub version, the way the Hub versions its CLI.
+     */
+    private static class TestCliSource implements HubCliInstaller.CliSource {
+        private volatile String hubVersion = "4.2.0";
+
+        private int versionReads;
+
+        private int installs;
+
+        @Override
+        public String getHubVersion(final HubRestConnectionLease connectionLease) {
+            versionReads++;
+            return hubVersion;
+        }
+
+        @Override
+        public void install(final HubRestConnectionLease connectionLease, final File toolsDirectory, final CIEnvironmentVariables ciEnvironmentVariables, final String hubUrl, final String hubVersion,
+                final String localHostName, final IntLogger logger) throws IntegrationException {
+            installs++;
+            final File libDirectory = new File(new CLILocation(toolsDirectory).getCLIInstallDir(), "scan.cli-" + hubVersion + "/lib");
+            if (!libDirectory.isDirectory() && !libDirectory.mkdirs()) {
+                throw new IntegrationException("Could not create " + libDirectory.getAbsolutePath());
+            }
+        }
+    }
+
+}
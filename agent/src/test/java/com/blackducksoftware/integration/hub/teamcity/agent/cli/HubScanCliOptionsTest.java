@@ -0,0 +1,53 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.blackducksoftware.integration.hub.teamcity.common.HubConstantValues;
+
+public class HubScanCliOptionsTest {
+    @Test
+    public void testNoOptions() {
+        final Map<String, String> variables = new HashMap<>();
+        new HubScanCliOptions(variables).apply(variables);
+        assertFalse(variables.containsKey(HubScanCliOptions.SCAN_CLI_OPTS));
+    }
+
+    @Test
+    public void testQuickStartKeepsBuildOptions() {
+        final Map<String, String> variables = new HashMap<>();
+        variables.put(HubScanCliOptions.SCAN_CLI_OPTS, "-Dhttps.protocols=TLSv1.2 ");
+        variables.put(HubConstantValues.HUB_SCAN_CLI_QUICK_START, "true");
+        new HubScanCliOptions(variables).apply(variables);
+        assertEquals("-Dhttps.protocols=TLSv1.2 " + HubScanCliOptions.QUICK_START_OPTIONS, variables.get(HubScanCliOptions.SCAN_CLI_OPTS));
+    }
+
+}
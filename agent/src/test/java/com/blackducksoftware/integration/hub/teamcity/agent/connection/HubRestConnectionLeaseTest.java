@@ -0,0 +1,144 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.blackducksoftware.integration.exception.IntegrationException;
+import com.blackducksoftware.integration.hub.configuration.HubServerConfig;
+import com.blackducksoftware.integration.hub.rest.RestConnection;
+import com.blackducksoftware.integration.hub.rest.exception.IntegrationRestException;
+import com.blackducksoftware.integration.hub.teamcity.agent.HubAgentBuildLogger;
+import com.blackducksoftware.integration.hub.teamcity.agent.util.TestBuildProgressLogger;
+import com.blackducksoftware.integration.hub.teamcity.agent.util.TestClock;
+import com.blackducksoftware.integration.log.IntLogger;
+
+import jetbrains.buildServer.agent.AgentLifeCycleListener;
+import jetbrains.buildServer.util.EventDispatcher;
+
+public class HubRestConnectionLeaseTest {
+    private final RestConnection restConnection = Mockito.mock(RestConnection.class);
+
+    private HubRestConnectionPool pool;
+
+    private HubRestConnectionLease lease;
+
+    @Before
+    public void setUp() throws Exception {
+        pool = new HubRestConnectionPool(EventDispatcher.create(AgentLifeCycleListener.class), new HubRestConnectionPool.Connector() {
+            @Override
+            public RestConnection createRestConnection(final HubServerConfig hubServerConfig, final IntLogger logger) {
+                return restConnection;
+            }
+        }, new TestClock(0));
+        lease = pool.acquire(HubRestConnectionPoolTest.createHubServerConfig("https://hub.example.com"), new HubAgentBuildLogger(new TestBuildProgressLogger()));
+    }
+
+    @After
+    public void tearDown() {
+        lease.close();
+        pool.agentShutdown();
+    }
+
+    @Test
+    public void testRejectedSessionIsLoggedInAgainAndRetriedOnce() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final String result = lease.call(new HubSessionCall<String>() {
+            @Override
+            public String call() throws IntegrationException {
+                if (calls.incrementAndGet() == 1) {
+                    throw createRejection(401);
+                }
+                return "project";
+            }
+        });
+
+        assertEquals("project", result);
+        assertEquals(2, calls.get());
+        // once when the connection was created, once after the rejection
+        Mockito.verify(restConnection, Mockito.times(2)).connect();
+    }
+
+    @Test
+    public void testSecondRejectionFails() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final IntegrationException rejection = createRejection(401);
+        try {
+            lease.call(new HubSessionCall<String>() {
+                @Override
+                public String call() throws IntegrationException {
+                    calls.incrementAndGet();
+                    throw rejection;
+                }
+            });
+            fail("The second rejection should fail the call");
+        } catch (final IntegrationException e) {
+            assertSame(rejection, e);
+        }
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testOtherFailuresAreNotRetried() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        try {
+            lease.call(new HubSessionCall<String>() {
+                @Override
+                public String call() throws IntegrationException {
+                    calls.incrementAndGet();
+                    throw createRejection(500);
+                }
+            });
+            fail("The failure should fail the call");
+        } catch (final IntegrationException e) {
+            assertEquals(1, calls.get());
+        }
+        Mockito.verify(restConnection, Mockito.times(1)).connect();
+    }
+
+    @Test
+    public void testSessionRejectionIsFoundInTheCauses() {
+        assertTrue(HubRestConnectionLease.isSessionRejected(createRejection(401)));
+        assertFalse(HubRestConnectionLease.isSessionRejected(createRejection(403)));
+        assertFalse(HubRestConnectionLease.isSessionRejected(new IntegrationException("failed")));
+    }
+
+    private static IntegrationException createRejection(final int httpStatusCode) {
+        final IntegrationRestException restException = Mockito.mock(IntegrationRestException.class);
+        Mockito.when(restException.getHttpStatusCode()).thenReturn(httpStatusCode);
+        return new IntegrationException("request failed", restException);
+    }
+
+}
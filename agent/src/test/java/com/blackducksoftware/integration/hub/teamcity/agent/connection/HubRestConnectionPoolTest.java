@@ -0,0 +1,179 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.blackducksoftware.integration.exception.IntegrationException;
+import com.blackducksoftware.integration.hub.configuration.HubServerConfig;
+import com.blackducksoftware.integration.hub.rest.RestConnection;
+import com.blackducksoftware.integration.hub.teamcity.agent.HubAgentBuildLogger;
+import com.blackducksoftware.integration.hub.teamcity.agent.util.TestBuildProgressLogger;
+import com.blackducksoftware.integration.hub.teamcity.agent.util.TestClock;
+import com.blackducksoftware.integration.log.IntLogger;
+
+import jetbrains.buildServer.agent.AgentLifeCycleListener;
+import jetbrains.buildServer.util.EventDispatcher;
+
+public class HubRestConnectionPoolTest {
+    private final List<RestConnection> created = new ArrayList<>();
+
+    private final TestClock clock = new TestClock(1000000);
+
+    private final IntLogger logger = new HubAgentBuildLogger(new TestBuildProgressLogger());
+
+    private HubRestConnectionPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new HubRestConnectionPool(EventDispatcher.create(AgentLifeCycleListener.class), new HubRestConnectionPool.Connector() {
+            @Override
+            public RestConnection createRestConnection(final HubServerConfig hubServerConfig, final IntLogger connectionLogger) {
+                final RestConnection restConnection = Mockito.mock(RestConnection.class);
+                created.add(restConnection);
+                return restConnection;
+            }
+        }, clock);
+    }
+
+    @After
+    public void tearDown() {
+        pool.agentShutdown();
+    }
+
+    @Test
+    public void testReleasedConnectionIsReused() throws Exception {
+        final HubServerConfig hubServerConfig = createHubServerConfig("https://hub.example.com");
+        final RestConnection first = acquireAndClose(hubServerConfig);
+
+        assertSame(first, acquireAndClose(hubServerConfig));
+        assertEquals(1, created.size());
+        Mockito.verify(first, Mockito.times(1)).connect();
+    }
+
+    @Test
+    public void testConnectionsAreKeptPerServer() throws Exception {
+        final RestConnection first = acquireAndClose(createHubServerConfig("https://hub.example.com"));
+
+        assertNotSame(first, acquireAndClose(createHubServerConfig("https://other.example.com")));
+        assertEquals(2, pool.getIdleCount());
+    }
+
+    @Test
+    public void testSessionOlderThanMaxAgeIsNotReused() throws Exception {
+        final HubServerConfig hubServerConfig = createHubServerConfig("https://hub.example.com");
+        final RestConnection first = acquireAndClose(hubServerConfig);
+        clock.advance(HubRestConnectionPool.MAX_SESSION_AGE_MILLIS);
+
+        assertNotSame(first, acquireAndClose(hubServerConfig));
+        assertEquals(2, created.size());
+    }
+
+    @Test
+    public void testIdleConnectionIsEvicted() throws Exception {
+        acquireAndClose(createHubServerConfig("https://hub.example.com"));
+        clock.advance(HubRestConnectionPool.MAX_IDLE_MILLIS - 1);
+        pool.evictIdle();
+        assertEquals(1, pool.getIdleCount());
+
+        clock.advance(1);
+        pool.evictIdle();
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void testSessionOlderThanMaxAgeIsEvicted() throws Exception {
+        final HubServerConfig hubServerConfig = createHubServerConfig("https://hub.example.com");
+        final HubRestConnectionLease lease = pool.acquire(hubServerConfig, logger);
+        // the session aged while the build held it, it was used until the release
+        clock.advance(HubRestConnectionPool.MAX_SESSION_AGE_MILLIS);
+        lease.close();
+        assertEquals(1, pool.getIdleCount());
+
+        pool.evictIdle();
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void testIdleConnectionsPerServerAreCapped() throws Exception {
+        final HubServerConfig hubServerConfig = createHubServerConfig("https://hub.example.com");
+        final List<HubRestConnectionLease> leases = new ArrayList<>();
+        for (int i = 0; i < HubRestConnectionPool.MAX_IDLE_CONNECTIONS_PER_SERVER + 2; i++) {
+            leases.add(pool.acquire(hubServerConfig, logger));
+        }
+        for (final HubRestConnectionLease lease : leases) {
+            lease.close();
+        }
+
+        assertEquals(HubRestConnectionPool.MAX_IDLE_CONNECTIONS_PER_SERVER, pool.getIdleCount());
+        // the most recently released connection is handed out first
+        assertSame(leases.get(leases.size() - 1).getRestConnection(), acquireAndClose(hubServerConfig));
+    }
+
+    @Test
+    public void testInvalidatedConnectionIsNotReused() throws Exception {
+        final HubServerConfig hubServerConfig = createHubServerConfig("https://hub.example.com");
+        final HubRestConnectionLease lease = pool.acquire(hubServerConfig, logger);
+        final RestConnection first = lease.getRestConnection();
+        lease.invalidate();
+        lease.close();
+
+        assertEquals(0, pool.getIdleCount());
+        assertNotSame(first, acquireAndClose(hubServerConfig));
+    }
+
+    @Test
+    public void testLeaseIsReleasedOnce() throws Exception {
+        final HubRestConnectionLease lease = pool.acquire(createHubServerConfig("https://hub.example.com"), logger);
+        lease.close();
+        lease.close();
+
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    private RestConnection acquireAndClose(final HubServerConfig hubServerConfig) throws IntegrationException {
+        try (HubRestConnectionLease lease = pool.acquire(hubServerConfig, logger)) {
+            return lease.getRestConnection();
+        }
+    }
+
+    static HubServerConfig createHubServerConfig(final String url) throws Exception {
+        final HubServerConfig hubServerConfig = Mockito.mock(HubServerConfig.class);
+        Mockito.when(hubServerConfig.getHubUrl()).thenReturn(new URL(url));
+        Mockito.when(hubServerConfig.getTimeout()).thenReturn(120);
+        return hubServerConfig;
+    }
+
+}
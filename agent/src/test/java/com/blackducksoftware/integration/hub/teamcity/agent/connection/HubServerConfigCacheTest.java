@@ -0,0 +1,92 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.blackducksoftware.integration.hub.teamcity.agent.HubAgentBuildLogger;
+import com.blackducksoftware.integration.hub.teamcity.agent.util.TestBuildProgressLogger;
+import com.blackducksoftware.integration.hub.teamcity.common.HubConstantValues;
+import com.blackducksoftware.integration.util.CIEnvironmentVariables;
+
+public class HubServerConfigCacheTest {
+    @Test
+    public void testKeyIgnoresUnrelatedParameters() {
+        final CIEnvironmentVariables first = createVariables("1");
+        final CIEnvironmentVariables second = createVariables("1");
+        second.put(HubConstantValues.HUB_PROJECT_NAME, "other project");
+
+        assertEquals(HubServerConfigCache.createKey(first), HubServerConfigCache.createKey(second));
+    }
+
+    @Test
+    public void testKeyChangesWithServerConfig() {
+        final CIEnvironmentVariables first = createVariables("1");
+        final CIEnvironmentVariables newVersion = createVariables("2");
+        final CIEnvironmentVariables newUser = createVariables("1");
+        newUser.put(HubConstantValues.HUB_USERNAME, "other");
+
+        assertNotEquals(HubServerConfigCache.createKey(first), HubServerConfigCache.createKey(newVersion));
+        assertNotEquals(HubServerConfigCache.createKey(first), HubServerConfigCache.createKey(newUser));
+    }
+
+    @Test
+    public void testKeySeparatesValues() {
+        final CIEnvironmentVariables first = createVariables("1");
+        first.put(HubConstantValues.HUB_PROXY_HOST, "ab");
+        first.put(HubConstantValues.HUB_PROXY_PORT, "c");
+        final CIEnvironmentVariables second = createVariables("1");
+        second.put(HubConstantValues.HUB_PROXY_HOST, "a");
+        second.put(HubConstantValues.HUB_PROXY_PORT, "bc");
+
+        assertNotEquals(HubServerConfigCache.createKey(first), HubServerConfigCache.createKey(second));
+    }
+
+    @Test
+    public void testInvalidConfigIsNotCached() {
+        final HubServerConfigCache cache = new HubServerConfigCache();
+        final HubAgentBuildLogger logger = new HubAgentBuildLogger(new TestBuildProgressLogger());
+        final CIEnvironmentVariables variables = createVariables("1");
+        variables.put(HubConstantValues.HUB_URL, "");
+
+        assertNull(cache.getHubServerConfig(variables, logger));
+        assertEquals(0, cache.size());
+    }
+
+    private CIEnvironmentVariables createVariables(final String configVersion) {
+        final CIEnvironmentVariables variables = new CIEnvironmentVariables();
+        variables.put(HubConstantValues.HUB_CONFIG_VERSION, configVersion);
+        variables.put(HubConstantValues.HUB_URL, "https://hub.example.com");
+        variables.put(HubConstantValues.HUB_USERNAME, "user");
+        variables.put(HubConstantValues.HUB_PASSWORD, "encrypted");
+        variables.put(HubConstantValues.HUB_PASSWORD_LENGTH, "8");
+        variables.put(HubConstantValues.HUB_CONNECTION_TIMEOUT, "120");
+        return variables;
+    }
+
+}
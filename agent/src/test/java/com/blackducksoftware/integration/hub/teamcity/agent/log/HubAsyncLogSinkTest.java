@@ -0,0 +1,132 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import com.blackducksoftware.integration.hub.teamcity.agent.util.TestBuildProgressLogger;
+import com.blackducksoftware.integration.log.LogLevel;
+
+public class HubAsyncLogSinkTest {
+    @Test
+    public void testOrderIsKeptAndFlushed() {
+        final TestBuildProgressLogger testLogger = new TestBuildProgressLogger();
+        final HubAsyncLogSink sink = new HubAsyncLogSink(new HubDirectLogSink(testLogger), 10, HubLogQueueFullPolicy.BLOCK);
+        for (int i = 0; i < 1000; i++) {
+            sink.message(LogLevel.INFO, "line " + i);
+        }
+        sink.targetFinished("Hub Build Step");
+        assertEquals(1000, testLogger.getProgressMessages().size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("line " + i, testLogger.getProgressMessages().get(i));
+        }
+        assertEquals("Hub Build Step", testLogger.getFinishedMessagesString());
+        sink.close();
+    }
+
+    @Test
+    public void testCloseDeliversEverythingQueued() {
+        final TestBuildProgressLogger testLogger = new TestBuildProgressLogger();
+        final HubAsyncLogSink sink = new HubAsyncLogSink(new HubDirectLogSink(testLogger), 10, HubLogQueueFullPolicy.BLOCK);
+        for (int i = 0; i < 1000; i++) {
+            sink.message(LogLevel.INFO, "line " + i);
+        }
+        sink.close();
+        sink.message(LogLevel.INFO, "after close");
+        assertEquals(1001, testLogger.getProgressMessages().size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("line " + i, testLogger.getProgressMessages().get(i));
+        }
+        assertEquals("after close", testLogger.getProgressMessages().get(1000));
+        assertEquals(0, sink.getQueueSize());
+    }
+
+    @Test
+    public void testLowestLevelIsDroppedWhenFull() throws Exception {
+        final TestBuildProgressLogger testLogger = new TestBuildProgressLogger();
+        final BlockingSink blockingSink = new BlockingSink(new HubDirectLogSink(testLogger));
+        final HubAsyncLogSink sink = new HubAsyncLogSink(blockingSink, 2, HubLogQueueFullPolicy.DROP_LOWEST_LEVEL);
+        sink.message(LogLevel.INFO, "first");
+        blockingSink.started.await();
+        sink.message(LogLevel.INFO, "second");
+        sink.message(LogLevel.INFO, "third");
+        sink.message(LogLevel.DEBUG, "dropped");
+        assertEquals(1, sink.getDroppedLines());
+        blockingSink.release.countDown();
+        sink.close();
+
+        final String output = testLogger.getProgressMessagesString();
+        assertTrue(output, output.startsWith("first\nsecond\nthird\n1 log lines were dropped"));
+        assertTrue(output, !output.contains("dropped\n"));
+    }
+
+    private static class BlockingSink implements HubBuildLogSink {
+        private final HubBuildLogSink delegate;
+
+        private final CountDownLatch started = new CountDownLatch(1);
+
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        private BlockingSink(final HubBuildLogSink delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void message(final LogLevel level, final String txt) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            delegate.message(level, txt);
+        }
+
+        @Override
+        public void targetStarted(final String txt) {
+            delegate.targetStarted(txt);
+        }
+
+        @Override
+        public void targetFinished(final String txt) {
+            delegate.targetFinished(txt);
+        }
+
+        @Override
+        public void flush() {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+
+}
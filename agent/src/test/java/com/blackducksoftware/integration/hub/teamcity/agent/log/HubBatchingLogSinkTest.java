@@ -0,0 +1,85 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.blackducksoftware.integration.hub.teamcity.agent.util.TestBuildProgressLogger;
+import com.blackducksoftware.integration.log.LogLevel;
+
+public class HubBatchingLogSinkTest {
+    @Test
+    public void testLinesAreBatched() {
+        final TestBuildProgressLogger testLogger = new TestBuildProgressLogger();
+        final HubBatchingLogSink sink = new HubBatchingLogSink(testLogger, 3, 60000, 0);
+        sink.message(LogLevel.INFO, "one");
+        sink.message(LogLevel.DEBUG, "two");
+        assertTrue(testLogger.getProgressMessages().isEmpty());
+        sink.message(LogLevel.INFO, "three");
+        sink.message(LogLevel.INFO, "four");
+        sink.flush();
+        assertEquals(2, testLogger.getProgressMessages().size());
+        assertEquals("one\ntwo\nthree", testLogger.getProgressMessages().get(0));
+        assertEquals("four", testLogger.getProgressMessages().get(1));
+    }
+
+    @Test
+    public void testErrorsAreNotBatched() {
+        final TestBuildProgressLogger testLogger = new TestBuildProgressLogger();
+        final HubBatchingLogSink sink = new HubBatchingLogSink(testLogger, 100, 60000, 0);
+        sink.message(LogLevel.INFO, "before");
+        sink.message(LogLevel.ERROR, "failure");
+        assertEquals("before", testLogger.getProgressMessagesString());
+        assertEquals("failure", testLogger.getErrorMessagesString());
+    }
+
+    @Test
+    public void testRateLimitIsSummarised() {
+        final TestBuildProgressLogger testLogger = new TestBuildProgressLogger();
+        final HubBatchingLogSink sink = new HubBatchingLogSink(testLogger, 100, 60000, 2);
+        sink.message(LogLevel.DEBUG, "one");
+        sink.message(LogLevel.DEBUG, "two");
+        sink.message(LogLevel.DEBUG, "three");
+        sink.message(LogLevel.INFO, "info");
+        sink.flush();
+        final String output = testLogger.getProgressMessagesString();
+        assertTrue(output, output.contains("one\ntwo\ninfo"));
+        assertTrue(output, output.contains("1 log lines were dropped"));
+    }
+
+    @Test
+    public void testBatchIsFlushedAfterDelay() throws Exception {
+        final TestBuildProgressLogger testLogger = new TestBuildProgressLogger();
+        final HubBatchingLogSink sink = new HubBatchingLogSink(testLogger, 100, 10, 0);
+        sink.message(LogLevel.INFO, "one");
+        for (int i = 0; i < 100 && testLogger.getProgressMessages().isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals("one", testLogger.getProgressMessagesString());
+    }
+
+}
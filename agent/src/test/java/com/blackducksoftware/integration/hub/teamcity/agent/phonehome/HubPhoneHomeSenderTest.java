@@ -0,0 +1,161 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.phonehome;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.blackducksoftware.integration.hub.configuration.HubServerConfig;
+import com.blackducksoftware.integration.hub.teamcity.agent.HubAgentBuildLogger;
+import com.blackducksoftware.integration.hub.teamcity.agent.util.TestBuildProgressLogger;
+
+import jetbrains.buildServer.agent.AgentLifeCycleListener;
+import jetbrains.buildServer.util.EventDispatcher;
+
+public class HubPhoneHomeSenderTest {
+    private static final long WAIT_SECONDS = 10;
+
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+    private final CountDownLatch requestArrived = new CountDownLatch(1);
+
+    private volatile CountDownLatch responseReleased = new CountDownLatch(0);
+
+    private volatile String unreachableHubUrl;
+
+    private File spoolDirectory;
+
+    private HubPhoneHomeSender sender;
+
+    @Before
+    public void setUp() throws IOException {
+        spoolDirectory = Files.createTempDirectory("hub-phone-home").toFile();
+        final HubPhoneHomeTransport transport = new HubPhoneHomeTransport() {
+            @Override
+            public void send(final HubServerConfig hubServerConfig, final String requestBody) throws Exception {
+                requestArrived.countDown();
+                responseReleased.await();
+                if (String.valueOf(hubServerConfig.getHubUrl()).equals(unreachableHubUrl)) {
+                    throw new IOException("Connection refused");
+                }
+                received.add(hubServerConfig.getHubUrl() + " " + requestBody);
+            }
+        };
+        sender = new HubPhoneHomeSender(EventDispatcher.create(AgentLifeCycleListener.class), transport);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        responseReleased.countDown();
+        sender.agentShutdown();
+        FileUtils.deleteDirectory(spoolDirectory);
+    }
+
+    @Test
+    public void testRequestIsSentInTheBackground() throws Exception {
+        sender.initialize(spoolDirectory, 10000);
+        sender.submit("{\"artifactId\":\"hub-teamcity\"}", createHubServerConfig("https://hub.example.com"), createLogger());
+
+        assertEquals("https://hub.example.com {\"artifactId\":\"hub-teamcity\"}", received.poll(WAIT_SECONDS, TimeUnit.SECONDS));
+        sender.awaitDrained(WAIT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(0, sender.getPendingCount());
+    }
+
+    @Test
+    public void testSlowEndpointDoesNotBlockTheBuild() throws Exception {
+        // the Hub does not answer until the test is over
+        responseReleased = new CountDownLatch(1);
+        sender.initialize(spoolDirectory, 1000);
+        sender.submit("{\"artifactId\":\"hub-teamcity\"}", createHubServerConfig("https://hub.example.com"), createLogger());
+
+        assertTrue(requestArrived.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        sender.awaitDrained(WAIT_SECONDS, TimeUnit.SECONDS);
+        // the send timed out, so the request waits in the spool for the next retry
+        assertEquals(1, sender.getPendingCount());
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void testEachRequestIsSentToItsOwnHub() throws Exception {
+        // the requests are drained together once the sender is released
+        responseReleased = new CountDownLatch(1);
+        sender.initialize(spoolDirectory, 10000);
+        sender.submit("{\"build\":1}", createHubServerConfig("https://first.example.com"), createLogger());
+        assertTrue(requestArrived.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        sender.submit("{\"build\":2}", createHubServerConfig("https://second.example.com"), createLogger());
+        responseReleased.countDown();
+
+        assertEquals("https://first.example.com {\"build\":1}", received.poll(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("https://second.example.com {\"build\":2}", received.poll(WAIT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testUnreachableHubDoesNotHoldUpOtherHubs() throws Exception {
+        unreachableHubUrl = "https://down.example.com";
+        // both requests are spooled before the first drain sends anything
+        responseReleased = new CountDownLatch(1);
+        sender.initialize(spoolDirectory, 10000);
+        sender.submit("{\"build\":1}", createHubServerConfig("https://down.example.com"), createLogger());
+        assertTrue(requestArrived.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        sender.submit("{\"build\":2}", createHubServerConfig("https://hub.example.com"), createLogger());
+        responseReleased.countDown();
+
+        assertEquals("https://hub.example.com {\"build\":2}", received.poll(WAIT_SECONDS, TimeUnit.SECONDS));
+        sender.awaitDrained(WAIT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(1, sender.getPendingCount());
+    }
+
+    @Test
+    public void testRetriesAreScheduledOnce() {
+        assertTrue(sender.scheduleRetries());
+        assertFalse(sender.scheduleRetries());
+    }
+
+    private HubServerConfig createHubServerConfig(final String hubUrl) throws IOException {
+        final HubServerConfig hubServerConfig = Mockito.mock(HubServerConfig.class);
+        Mockito.when(hubServerConfig.getHubUrl()).thenReturn(new URL(hubUrl));
+        return hubServerConfig;
+    }
+
+    private HubAgentBuildLogger createLogger() {
+        return new HubAgentBuildLogger(new TestBuildProgressLogger());
+    }
+
+}
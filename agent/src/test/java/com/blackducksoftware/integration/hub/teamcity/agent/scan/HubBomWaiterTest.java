@@ -0,0 +1,258 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.scan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.blackducksoftware.integration.exception.IntegrationException;
+import com.blackducksoftware.integration.hub.api.generated.view.ProjectVersionView;
+import com.blackducksoftware.integration.hub.configuration.HubServerConfig;
+import com.blackducksoftware.integration.hub.teamcity.agent.HubAgentBuildLogger;
+import com.blackducksoftware.integration.hub.teamcity.agent.util.TestBuildProgressLogger;
+
+import jetbrains.buildServer.agent.AgentLifeCycleListener;
+import jetbrains.buildServer.util.EventDispatcher;
+
+public class HubBomWaiterTest {
+    private static final String VERSION_URL = "https://hub.example.com/api/projects/1/versions/1";
+
+    private final HubServerConfig hubServerConfig = Mockito.mock(HubServerConfig.class);
+
+    private final ProjectVersionView version = Mockito.mock(ProjectVersionView.class);
+
+    private TestPollScheduler scheduler;
+
+    private TestPendingScanCounter pendingScanCounter;
+
+    @Before
+    public void setUp() {
+        scheduler = new TestPollScheduler();
+        pendingScanCounter = new TestPendingScanCounter();
+    }
+
+    @Test
+    public void testBuildsWaitingOnOneVersionShareOnePoll() {
+        final HubBomWaiter bomWaiter = createBomWaiter(0.5);
+        final HubBomWaiter.PendingBom first = bomWaiter.waitForBom(hubServerConfig, version, VERSION_URL, 200000, createLogger());
+        final HubBomWaiter.PendingBom second = bomWaiter.waitForBom(hubServerConfig, version, VERSION_URL, 100000, createLogger());
+
+        assertSame(first, second);
+        assertEquals(Arrays.asList(0L), scheduler.delays);
+
+        pendingScanCounter.pendingScans.add(0);
+        scheduler.runNext();
+
+        assertTrue(first.getFuture().isDone());
+        assertFalse(first.getFuture().isCompletedExceptionally());
+        assertEquals(Arrays.asList(100000 - HubBomWaiter.CLOCK_SKEW_MILLISEC), pendingScanCounter.createdAfterMillis);
+        assertEquals(0, bomWaiter.getPendingCount());
+        assertTrue(scheduler.polls.isEmpty());
+    }
+
+    @Test
+    public void testBackoffGrowsToTheMaximum() {
+        final HubBomWaiter bomWaiter = createBomWaiter(0.5);
+        final HubBomWaiter.PendingBom pendingBom = bomWaiter.waitForBom(hubServerConfig, version, VERSION_URL, 0, createLogger());
+        for (int i = 0; i < 7; i++) {
+            pendingScanCounter.pendingScans.add(1);
+            scheduler.runNext();
+        }
+
+        assertEquals(Arrays.asList(0L, 2000L, 4000L, 8000L, 16000L, 32000L, 60000L, 60000L), scheduler.delays);
+        assertFalse(pendingBom.getFuture().isDone());
+    }
+
+    @Test
+    public void testBackoffIsJittered() {
+        final HubBomWaiter shortestWaiter = createBomWaiter(0.0);
+        shortestWaiter.waitForBom(hubServerConfig, version, VERSION_URL, 0, createLogger());
+        pendingScanCounter.pendingScans.add(1);
+        scheduler.runNext();
+        assertEquals(Long.valueOf(1600), scheduler.delays.get(1));
+
+        setUp();
+        final HubBomWaiter longestWaiter = createBomWaiter(0.99);
+        longestWaiter.waitForBom(hubServerConfig, version, VERSION_URL, 0, createLogger());
+        pendingScanCounter.pendingScans.add(1);
+        scheduler.runNext();
+        final long delay = scheduler.delays.get(1);
+        assertTrue(String.valueOf(delay), delay > 2000 && delay < 2400);
+    }
+
+    @Test
+    public void testReleasingTheLastWaiterStopsPolling() {
+        final HubBomWaiter bomWaiter = createBomWaiter(0.5);
+        final HubAgentBuildLogger firstLogger = createLogger();
+        final HubAgentBuildLogger secondLogger = createLogger();
+        final HubBomWaiter.PendingBom pendingBom = bomWaiter.waitForBom(hubServerConfig, version, VERSION_URL, 0, firstLogger);
+        bomWaiter.waitForBom(hubServerConfig, version, VERSION_URL, 0, secondLogger);
+
+        bomWaiter.release(pendingBom, firstLogger);
+        assertFalse(pendingBom.getFuture().isDone());
+        assertEquals(1, bomWaiter.getPendingCount());
+
+        bomWaiter.release(pendingBom, secondLogger);
+        assertTrue(pendingBom.getFuture().isCancelled());
+        assertEquals(0, bomWaiter.getPendingCount());
+
+        // the poll scheduled before the release neither asks the Hub nor polls again
+        scheduler.runNext();
+        assertTrue(pendingScanCounter.createdAfterMillis.isEmpty());
+        assertTrue(scheduler.polls.isEmpty());
+    }
+
+    @Test
+    public void testFailedPollIsRetriedWithBackoff() {
+        final HubBomWaiter bomWaiter = createBomWaiter(0.5);
+        final TestBuildProgressLogger buildLogger = new TestBuildProgressLogger();
+        final HubBomWaiter.PendingBom pendingBom = bomWaiter.waitForBom(hubServerConfig, version, VERSION_URL, 0, new HubAgentBuildLogger(buildLogger));
+
+        pendingScanCounter.failure = new IntegrationException("Hub unavailable");
+        scheduler.runNext();
+        assertFalse(pendingBom.getFuture().isDone());
+        assertEquals(Arrays.asList(0L, 2000L), scheduler.delays);
+        final String output = buildLogger.getProgressMessagesString();
+        assertTrue(output, output.contains("Could not check the BOM status, checking again in 2 seconds: Hub unavailable"));
+
+        pendingScanCounter.pendingScans.add(0);
+        scheduler.runNext();
+        assertTrue(pendingBom.getFuture().isDone());
+    }
+
+    @Test
+    public void testBuildJoiningDuringAPollIsCounted() {
+        final HubBomWaiter bomWaiter = createBomWaiter(0.5);
+        final HubBomWaiter.PendingBom pendingBom = bomWaiter.waitForBom(hubServerConfig, version, VERSION_URL, 0, createLogger());
+        pendingScanCounter.duringCount = new Runnable() {
+            @Override
+            public void run() {
+                bomWaiter.waitForBom(hubServerConfig, version, VERSION_URL, 0, createLogger());
+            }
+        };
+
+        pendingScanCounter.pendingScans.add(0);
+        scheduler.runNext();
+        assertFalse(pendingBom.getFuture().isDone());
+        assertEquals(Arrays.asList(0L, 0L), scheduler.delays);
+
+        pendingScanCounter.pendingScans.add(0);
+        scheduler.runNext();
+        assertTrue(pendingBom.getFuture().isDone());
+        assertEquals(0, bomWaiter.getPendingCount());
+    }
+
+    @Test
+    public void testAgentShutdownFailsTheWaits() {
+        final HubBomWaiter bomWaiter = createBomWaiter(0.5);
+        final HubBomWaiter.PendingBom pendingBom = bomWaiter.waitForBom(hubServerConfig, version, VERSION_URL, 0, createLogger());
+
+        bomWaiter.agentShutdown();
+
+        assertTrue(pendingBom.getFuture().isCompletedExceptionally());
+        assertTrue(scheduler.shutdown);
+        assertEquals(0, bomWaiter.getPendingCount());
+    }
+
+    private HubBomWaiter createBomWaiter(final double randomValue) {
+        final Random random = new Random() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public double nextDouble() {
+                return randomValue;
+            }
+        };
+        return new HubBomWaiter(EventDispatcher.create(AgentLifeCycleListener.class), scheduler, pendingScanCounter, random);
+    }
+
+    private HubAgentBuildLogger createLogger() {
+        return new HubAgentBuildLogger(new TestBuildProgressLogger());
+    }
+
+    /**
+     * Records the delays and runs the polls on the test thread when asked, so no test waits for real.
+     */
+    private static class TestPollScheduler implements HubBomWaiter.PollScheduler {
+        private final List<Long> delays = new ArrayList<>();
+
+        private final Deque<Runnable> polls = new ArrayDeque<>();
+
+        private boolean shutdown;
+
+        @Override
+        public void schedule(final Runnable poll, final long delayMillis) {
+            delays.add(delayMillis);
+            polls.add(poll);
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        private void runNext() {
+            polls.remove().run();
+        }
+    }
+
+    private static class TestPendingScanCounter implements HubBomWaiter.PendingScanCounter {
+        private final Deque<Integer> pendingScans = new ArrayDeque<>();
+
+        private final List<Long> createdAfterMillis = new ArrayList<>();
+
+        private IntegrationException failure;
+
+        private Runnable duringCount;
+
+        @Override
+        public int countPendingScans(final HubServerConfig hubServerConfig, final ProjectVersionView version, final long createdAfterMillis) throws IntegrationException {
+            this.createdAfterMillis.add(createdAfterMillis);
+            if (duringCount != null) {
+                duringCount.run();
+                duringCount = null;
+            }
+            if (failure != null) {
+                final IntegrationException thrown = failure;
+                failure = null;
+                throw thrown;
+            }
+            return pendingScans.remove();
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.scan;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.blackducksoftware.integration.hub.teamcity.common.HubConstantValues;
+
+public class HubBuildParametersTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testScanTargetsAreResolvedAgainstTheWorkingDirectory() throws IOException {
+        final File workingDirectory = folder.newFolder("work");
+        final File absoluteTarget = folder.newFolder("absolute");
+        final Map<String, String> variables = new HashMap<>();
+        variables.put(HubConstantValues.HUB_SCAN_TARGETS, "module\n\n" + absoluteTarget.getAbsolutePath());
+
+        final List<String> scanTargets = new HubBuildParameters(variables).getScanTargets(workingDirectory);
+
+        assertEquals(Arrays.asList(new File(workingDirectory, "module").getCanonicalPath(), absoluteTarget.getCanonicalPath()), scanTargets);
+    }
+
+    @Test
+    public void testWorkingDirectoryIsScannedWithoutTargets() throws IOException {
+        final File workingDirectory = folder.newFolder("work");
+
+        final List<String> scanTargets = new HubBuildParameters(new HashMap<String, String>()).getScanTargets(workingDirectory);
+
+        assertEquals(Arrays.asList(workingDirectory.getAbsolutePath()), scanTargets);
+    }
+
+    @Test
+    public void testExcludePatternsAreSplitPerLine() {
+        final Map<String, String> variables = new HashMap<>();
+        variables.put(HubConstantValues.HUB_EXCLUDE_PATTERNS, "/module0/build/\r\n/module1/build/");
+
+        assertArrayEquals(new String[] { "/module0/build/", "/module1/build/" }, new HubBuildParameters(variables).getExcludePatterns());
+    }
+
+    @Test
+    public void testParallelTargetsGetTheirOwnCodeLocation() throws IOException {
+        final File workingDirectory = folder.newFolder("work");
+        final File outside = folder.newFolder("outside");
+
+        assertEquals("app .", HubBuildParameters.getTargetCodeLocationName("app", workingDirectory, workingDirectory.getAbsolutePath()));
+        assertEquals("app module0", HubBuildParameters.getTargetCodeLocationName("app", workingDirectory, new File(workingDirectory, "module0").getAbsolutePath()));
+        assertEquals("app lib/module1", HubBuildParameters.getTargetCodeLocationName("app", workingDirectory, new File(workingDirectory, "lib/module1").getAbsolutePath()));
+        assertEquals("app " + outside.getAbsolutePath().replace(File.separatorChar, '/'), HubBuildParameters.getTargetCodeLocationName("app", workingDirectory, outside.getAbsolutePath()));
+    }
+
+    @Test
+    public void testParallelScanNeedsMoreThanOneTarget() {
+        final Map<String, String> variables = new HashMap<>();
+        variables.put(HubConstantValues.HUB_PARALLEL_SCAN, "true");
+        final HubBuildParameters parameters = new HubBuildParameters(variables);
+
+        assertFalse(parameters.isParallelScan(Arrays.asList("a")));
+        assertTrue(parameters.isParallelScan(Arrays.asList("a", "b")));
+    }
+
+}
@@ -0,0 +1,152 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.scan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import jetbrains.buildServer.agent.AgentLifeCycleListener;
+import jetbrains.buildServer.util.EventDispatcher;
+
+public class HubBuildProcessExecutorTest {
+    @Test
+    public void testSubmit() throws Exception {
+        final HubBuildProcessExecutor executor = new HubBuildProcessExecutor(EventDispatcher.create(AgentLifeCycleListener.class));
+        final Future<String> future = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return Thread.currentThread().getName();
+            }
+        });
+        final String threadName = future.get();
+        assertTrue(threadName, threadName.startsWith("Hub Build Process"));
+        executor.shutdown();
+    }
+
+    @Test
+    public void testForkedTaskRunsOnJoinWhenTheExecutorIsBusy() throws Exception {
+        final HubBuildProcessExecutor executor = new HubBuildProcessExecutor(EventDispatcher.create(AgentLifeCycleListener.class));
+        executor.resize(1);
+        final String result = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                // the only thread of the executor waits on the forked task, which could never get a thread of its own
+                final HubBuildProcessExecutor.ForkedTask<String> forkedTask = executor.fork(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return Thread.currentThread().getName();
+                    }
+                });
+                return forkedTask.join() + "|" + Thread.currentThread().getName();
+            }
+        }).get(10, TimeUnit.SECONDS);
+        final String[] threadNames = result.split("\\|");
+        assertEquals(threadNames[1], threadNames[0]);
+        executor.shutdown();
+    }
+
+    @Test
+    public void testCancelAndAwaitWaitsForTheRunningTask() throws Exception {
+        final HubBuildProcessExecutor executor = new HubBuildProcessExecutor(EventDispatcher.create(AgentLifeCycleListener.class));
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicBoolean exited = new AtomicBoolean();
+        final HubBuildProcessExecutor.ForkedTask<Void> forkedTask = executor.fork(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try {
+                    started.countDown();
+                    new CountDownLatch(1).await();
+                    return null;
+                } finally {
+                    Thread.sleep(50);
+                    exited.set(true);
+                }
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        forkedTask.cancelAndAwait();
+
+        assertTrue(exited.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testCancelledTaskNeverRuns() throws Exception {
+        final HubBuildProcessExecutor executor = new HubBuildProcessExecutor(EventDispatcher.create(AgentLifeCycleListener.class));
+        executor.resize(1);
+        final CountDownLatch blocker = new CountDownLatch(1);
+        executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                blocker.await();
+                return null;
+            }
+        });
+        final AtomicBoolean ran = new AtomicBoolean();
+        final HubBuildProcessExecutor.ForkedTask<Void> forkedTask = executor.fork(new Callable<Void>() {
+            @Override
+            public Void call() {
+                ran.set(true);
+                return null;
+            }
+        });
+
+        forkedTask.cancelAndAwait();
+        blocker.countDown();
+        executor.shutdown();
+
+        assertFalse(ran.get());
+    }
+
+    @Test
+    public void testResize() {
+        final HubBuildProcessExecutor executor = new HubBuildProcessExecutor(EventDispatcher.create(AgentLifeCycleListener.class));
+        executor.resize(8);
+        assertEquals(8, executor.getMaximumThreads());
+        executor.resize(1);
+        assertEquals(1, executor.getMaximumThreads());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testShutdownOnAgentShutdown() {
+        final EventDispatcher<AgentLifeCycleListener> dispatcher = EventDispatcher.create(AgentLifeCycleListener.class);
+        final HubBuildProcessExecutor executor = new HubBuildProcessExecutor(dispatcher);
+        assertEquals(0, executor.getActiveCount());
+        assertEquals(0, executor.getQueueDepth());
+        dispatcher.getMulticaster().agentShutdown();
+        assertTrue(executor.isShutdown());
+    }
+
+}
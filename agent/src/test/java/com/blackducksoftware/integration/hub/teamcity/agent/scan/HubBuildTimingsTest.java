@@ -0,0 +1,102 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.scan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HubBuildTimingsTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPhasesAreMeasured() throws InterruptedException {
+        final HubBuildTimings timings = new HubBuildTimings("RUNNER_1", false);
+        timings.start(HubBuildTimings.SCAN);
+        Thread.sleep(20);
+        timings.stop(HubBuildTimings.SCAN);
+        timings.stop(HubBuildTimings.POLICY);
+
+        final Map<String, Long> durations = timings.getDurations();
+        assertTrue(durations.get(HubBuildTimings.SCAN) >= 20);
+        assertFalse(durations.containsKey(HubBuildTimings.POLICY));
+        assertFalse(durations.containsKey(HubBuildTimings.TOTAL));
+    }
+
+    @Test
+    public void testStopAllEndsRunningPhases() {
+        final HubBuildTimings timings = new HubBuildTimings("RUNNER_1", false);
+        timings.start(HubBuildTimings.BOM_WAIT);
+        timings.stopAll();
+
+        final Map<String, Long> durations = timings.getDurations();
+        assertTrue(durations.containsKey(HubBuildTimings.BOM_WAIT));
+        assertTrue(durations.containsKey(HubBuildTimings.TOTAL));
+    }
+
+    @Test
+    public void testStatisticMessages() {
+        final HubBuildTimings timings = new HubBuildTimings("RUNNER_1", false);
+        timings.start(HubBuildTimings.SCAN);
+        timings.stop(HubBuildTimings.SCAN);
+
+        final String[] messages = timings.getStatisticMessages();
+        assertEquals(1, messages.length);
+        assertTrue(messages[0], messages[0].startsWith("##teamcity[buildStatisticValue key='hub.scan.durationMs' value='"));
+    }
+
+    @Test
+    public void testStatisticKeysNameTheStepOnlyWithSeveralHubSteps() {
+        assertEquals("hub.scan.durationMs", new HubBuildTimings("RUNNER_1", false).getStatisticKey(HubBuildTimings.SCAN));
+        assertEquals("hub.scan.RUNNER_1.durationMs", new HubBuildTimings("RUNNER_1", true).getStatisticKey(HubBuildTimings.SCAN));
+    }
+
+    @Test
+    public void testWriteJson() throws IOException {
+        final HubBuildTimings timings = new HubBuildTimings("RUNNER_1", false);
+        timings.start(HubBuildTimings.CONNECT);
+        timings.stop(HubBuildTimings.CONNECT);
+        timings.stopAll();
+
+        final File file = new File(folder.getRoot(), "timings/" + "hub-timings.json");
+        timings.writeJson(file);
+        final String json = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+        assertTrue(json, json.contains("\"step\": \"RUNNER_1\""));
+        assertTrue(json, json.contains("\"unit\": \"ms\""));
+        assertTrue(json, json.contains("\"connect\":"));
+        assertTrue(json, json.contains("\"total\":"));
+    }
+
+}
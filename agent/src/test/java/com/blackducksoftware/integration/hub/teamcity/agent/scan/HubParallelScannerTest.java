@@ -0,0 +1,207 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.scan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.blackducksoftware.integration.hub.api.generated.component.ProjectRequest;
+import com.blackducksoftware.integration.hub.configuration.HubScanConfig;
+import com.blackducksoftware.integration.hub.exception.HubIntegrationException;
+import com.blackducksoftware.integration.hub.service.model.ProjectVersionWrapper;
+import com.blackducksoftware.integration.hub.teamcity.agent.HubAgentBuildLogger;
+import com.blackducksoftware.integration.hub.teamcity.agent.log.HubLogSinkFactory;
+import com.blackducksoftware.integration.hub.teamcity.agent.util.TestBuildProgressLogger;
+import com.blackducksoftware.integration.log.IntLogger;
+import com.blackducksoftware.integration.util.CIEnvironmentVariables;
+
+import jetbrains.buildServer.agent.AgentLifeCycleListener;
+import jetbrains.buildServer.agent.BuildProgressLogger;
+import jetbrains.buildServer.agent.FlowLogger;
+import jetbrains.buildServer.util.EventDispatcher;
+
+public class HubParallelScannerTest {
+    private HubBuildProcessExecutor executor;
+
+    private BuildProgressLogger buildLogger;
+
+    @Before
+    public void setUp() {
+        executor = new HubBuildProcessExecutor(EventDispatcher.create(AgentLifeCycleListener.class));
+        buildLogger = Mockito.mock(BuildProgressLogger.class);
+        Mockito.when(buildLogger.getThreadLogger()).thenAnswer(new Answer<FlowLogger>() {
+            @Override
+            public FlowLogger answer(final InvocationOnMock invocation) {
+                return Mockito.mock(FlowLogger.class);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testEveryTargetIsScannedWithinTheConcurrency() throws Exception {
+        final List<HubScanConfig> hubScanConfigs = createHubScanConfigs(6);
+        final List<HubScanConfig> scanned = Collections.synchronizedList(new ArrayList<HubScanConfig>());
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final ProjectVersionWrapper projectVersionWrapper = Mockito.mock(ProjectVersionWrapper.class);
+
+        final HubParallelScanner scanner = new HubParallelScanner(null, null, executor, new HashMap<String, String>(), buildLogger, createLogSinkFactory(), createLogger(), 3) {
+            @Override
+            ProjectVersionWrapper scanTarget(final HubScanConfig hubScanConfig, final ProjectRequest projectRequest, final boolean shouldWaitForScansFinished, final IntLogger targetLogger) {
+                final int nowRunning = running.incrementAndGet();
+                int max;
+                do {
+                    max = maxRunning.get();
+                } while (nowRunning > max && !maxRunning.compareAndSet(max, nowRunning));
+                scanned.add(hubScanConfig);
+                running.decrementAndGet();
+                return projectVersionWrapper;
+            }
+        };
+
+        assertEquals(projectVersionWrapper, scanner.scan(hubScanConfigs, null, false));
+        assertEquals(hubScanConfigs.size(), scanned.size());
+        assertTrue(scanned.containsAll(hubScanConfigs));
+        assertTrue(maxRunning.get() <= 3);
+    }
+
+    @Test
+    public void testFailureIsThrownOnceEveryTargetFinished() throws Exception {
+        final List<HubScanConfig> hubScanConfigs = createHubScanConfigs(4);
+        final AtomicInteger scans = new AtomicInteger();
+
+        final HubParallelScanner scanner = new HubParallelScanner(null, null, executor, new HashMap<String, String>(), buildLogger, createLogSinkFactory(), createLogger(), 2) {
+            @Override
+            ProjectVersionWrapper scanTarget(final HubScanConfig hubScanConfig, final ProjectRequest projectRequest, final boolean shouldWaitForScansFinished, final IntLogger targetLogger) {
+                scans.incrementAndGet();
+                if (hubScanConfig == hubScanConfigs.get(1)) {
+                    throw new IllegalStateException("target failed");
+                }
+                return null;
+            }
+        };
+
+        try {
+            scanner.scan(hubScanConfigs, null, false);
+            fail("Expected the failure of the second target");
+        } catch (final HubIntegrationException e) {
+            assertEquals("target failed", e.getMessage());
+        }
+        assertEquals(hubScanConfigs.size(), scans.get());
+    }
+
+    @Test
+    public void testInterruptedScanWaitsForItsWorkers() throws Exception {
+        final List<HubScanConfig> hubScanConfigs = createHubScanConfigs(3);
+        final CountDownLatch targetsStarted = new CountDownLatch(2);
+        final CountDownLatch releaseWorker = new CountDownLatch(1);
+        final AtomicReference<Thread> scanThread = new AtomicReference<>();
+        final AtomicReference<Throwable> scanFailure = new AtomicReference<>();
+
+        final HubParallelScanner scanner = new HubParallelScanner(null, null, executor, new HashMap<String, String>(), buildLogger, createLogSinkFactory(), createLogger(), 2) {
+            @Override
+            ProjectVersionWrapper scanTarget(final HubScanConfig hubScanConfig, final ProjectRequest projectRequest, final boolean shouldWaitForScansFinished, final IntLogger targetLogger) throws Exception {
+                if (hubScanConfig == hubScanConfigs.get(0)) {
+                    return null;
+                }
+                targetsStarted.countDown();
+                if (Thread.currentThread() == scanThread.get()) {
+                    new CountDownLatch(1).await();
+                }
+                // the worker keeps running its CLI after the cancel, until the test lets it finish
+                while (true) {
+                    try {
+                        releaseWorker.await();
+                        return null;
+                    } catch (final InterruptedException e) {
+                        // a running CLI does not stop on an interrupt either
+                    }
+                }
+            }
+        };
+
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    scanner.scan(hubScanConfigs, null, false);
+                } catch (final Throwable e) {
+                    scanFailure.set(e);
+                }
+            }
+        });
+        scanThread.set(thread);
+        thread.start();
+
+        assertTrue(targetsStarted.await(10, TimeUnit.SECONDS));
+        thread.interrupt();
+        thread.join(200);
+        assertTrue("The scan returned while a worker was still running", thread.isAlive());
+
+        releaseWorker.countDown();
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        assertTrue(String.valueOf(scanFailure.get()), scanFailure.get() instanceof InterruptedException);
+    }
+
+    private List<HubScanConfig> createHubScanConfigs(final int count) {
+        final List<HubScanConfig> hubScanConfigs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            hubScanConfigs.add(Mockito.mock(HubScanConfig.class));
+        }
+        return hubScanConfigs;
+    }
+
+    private HubLogSinkFactory createLogSinkFactory() {
+        return new HubLogSinkFactory(new CIEnvironmentVariables());
+    }
+
+    private HubAgentBuildLogger createLogger() {
+        return new HubAgentBuildLogger(new TestBuildProgressLogger());
+    }
+
+}
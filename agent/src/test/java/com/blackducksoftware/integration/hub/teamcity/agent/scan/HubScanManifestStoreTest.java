@@ -0,0 +1,112 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.scan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HubScanManifestStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testUnchangedTargetHasSameDigest() throws Exception {
+        final File target = createTarget();
+        final HubScanManifestStore store = new HubScanManifestStore(folder.newFolder("manifests"));
+
+        final HubScanManifest first = store.createManifest(target.getCanonicalPath(), "config", new String[0], null);
+        final HubScanManifest second = store.createManifest(target.getCanonicalPath(), "config", new String[0], first);
+
+        assertEquals(2, first.getFiles().size());
+        assertEquals(first.getDigest(), second.getDigest());
+    }
+
+    @Test
+    public void testChangedFileChangesDigest() throws Exception {
+        final File target = createTarget();
+        final HubScanManifestStore store = new HubScanManifestStore(folder.newFolder("manifests"));
+
+        final HubScanManifest first = store.createManifest(target.getCanonicalPath(), "config", new String[0], null);
+        final File changedFile = new File(target, "directory/second.txt");
+        FileUtils.write(changedFile, "changed content", "UTF-8");
+        changedFile.setLastModified(changedFile.lastModified() + 2000);
+        final HubScanManifest second = store.createManifest(target.getCanonicalPath(), "config", new String[0], first);
+
+        assertNotEquals(first.getDigest(), second.getDigest());
+    }
+
+    @Test
+    public void testChangedConfigChangesDigest() throws Exception {
+        final File target = createTarget();
+        final HubScanManifestStore store = new HubScanManifestStore(folder.newFolder("manifests"));
+
+        final HubScanManifest first = store.createManifest(target.getCanonicalPath(), "config", new String[0], null);
+        final HubScanManifest second = store.createManifest(target.getCanonicalPath(), "other config", new String[0], first);
+
+        assertNotEquals(first.getDigest(), second.getDigest());
+    }
+
+    @Test
+    public void testExcludedDirectoryIsNotHashed() throws Exception {
+        final File target = createTarget();
+        final HubScanManifestStore store = new HubScanManifestStore(folder.newFolder("manifests"));
+
+        final HubScanManifest manifest = store.createManifest(target.getCanonicalPath(), "config", new String[] { "/directory/" }, null);
+
+        assertEquals(1, manifest.getFiles().size());
+        assertNotNull(manifest.getFile("first.txt"));
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        final File target = createTarget();
+        final HubScanManifestStore store = new HubScanManifestStore(folder.newFolder("manifests"));
+
+        assertNull(store.load("scope", target.getCanonicalPath()));
+        final HubScanManifest manifest = store.createManifest(target.getCanonicalPath(), "config", new String[0], null);
+        store.save("scope", target.getCanonicalPath(), manifest);
+
+        final HubScanManifest loaded = store.load("scope", target.getCanonicalPath());
+        assertEquals(manifest.getDigest(), loaded.getDigest());
+        assertEquals(manifest.getFile("first.txt").getHash(), loaded.getFile("first.txt").getHash());
+        assertNull(store.load("other scope", target.getCanonicalPath()));
+    }
+
+    private File createTarget() throws Exception {
+        final File target = folder.newFolder("target");
+        FileUtils.write(new File(target, "first.txt"), "first", "UTF-8");
+        FileUtils.write(new File(target, "directory/second.txt"), "second", "UTF-8");
+        return target;
+    }
+
+}
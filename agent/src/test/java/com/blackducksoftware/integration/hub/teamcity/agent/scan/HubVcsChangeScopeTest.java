@@ -0,0 +1,138 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Agent
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.agent.scan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import com.blackducksoftware.integration.hub.teamcity.agent.HubAgentBuildLogger;
+import com.blackducksoftware.integration.hub.teamcity.agent.util.TestBuildProgressLogger;
+
+import jetbrains.buildServer.vcs.CheckoutRules;
+import jetbrains.buildServer.vcs.VcsChangeInfo;
+import jetbrains.buildServer.vcs.VcsRootEntry;
+
+public class HubVcsChangeScopeTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File checkoutDirectory;
+
+    private List<String> scanTargets;
+
+    private HubAgentBuildLogger logger;
+
+    @Before
+    public void setUp() throws IOException {
+        checkoutDirectory = folder.newFolder("checkout");
+        scanTargets = Arrays.asList(new File(checkoutDirectory, "app/module0").getCanonicalPath(), new File(checkoutDirectory, "app/module1").getCanonicalPath());
+        logger = new HubAgentBuildLogger(new TestBuildProgressLogger());
+    }
+
+    @Test
+    public void testChangesAreMappedThroughTheCheckoutRules() throws IOException {
+        final VcsRootEntry vcsRootEntry = createVcsRootEntry("module1/pom.xml", "app/module1/pom.xml");
+        final HubVcsChangeScope vcsChangeScope = new HubVcsChangeScope(checkoutDirectory, Arrays.asList(vcsRootEntry), logger);
+
+        final List<String> changedTargets = vcsChangeScope.getChangedTargets(scanTargets, Arrays.asList(createChange("module1/pom.xml")));
+
+        assertEquals(Arrays.asList(scanTargets.get(1)), changedTargets);
+    }
+
+    @Test
+    public void testChangesMappedByAnyRootAreScanned() throws IOException {
+        final VcsRootEntry excludingRoot = createVcsRootEntry("module0/src/Main.java", null);
+        final VcsRootEntry mappingRoot = createVcsRootEntry("module0/src/Main.java", "app/module0/src/Main.java");
+        final HubVcsChangeScope vcsChangeScope = new HubVcsChangeScope(checkoutDirectory, Arrays.asList(excludingRoot, mappingRoot), logger);
+
+        final List<String> changedTargets = vcsChangeScope.getChangedTargets(scanTargets, Arrays.asList(createChange("module0/src/Main.java")));
+
+        assertEquals(Arrays.asList(scanTargets.get(0)), changedTargets);
+    }
+
+    @Test
+    public void testUnmappedChangesScanNoTarget() throws IOException {
+        final VcsRootEntry vcsRootEntry = createVcsRootEntry("docs/README.md", null);
+        final HubVcsChangeScope vcsChangeScope = new HubVcsChangeScope(checkoutDirectory, Arrays.asList(vcsRootEntry), logger);
+
+        final List<String> changedTargets = vcsChangeScope.getChangedTargets(scanTargets, Arrays.asList(createChange("docs/README.md")));
+
+        assertTrue(changedTargets.isEmpty());
+    }
+
+    @Test
+    public void testChangesOutsideTheTargetsScanNoTarget() throws IOException {
+        final HubVcsChangeScope vcsChangeScope = new HubVcsChangeScope(checkoutDirectory, Collections.<VcsRootEntry> emptyList(), logger);
+
+        // a sibling directory sharing the prefix of a target is not inside it
+        final List<String> changedTargets = vcsChangeScope.getChangedTargets(scanTargets, Arrays.asList(createChange("app/module10/pom.xml")));
+
+        assertTrue(changedTargets.isEmpty());
+    }
+
+    @Test
+    public void testChangesWithoutRootsAreInTheCheckoutDirectory() throws IOException {
+        final HubVcsChangeScope vcsChangeScope = new HubVcsChangeScope(checkoutDirectory, null, logger);
+
+        final List<String> changedTargets = vcsChangeScope.getChangedTargets(scanTargets, Arrays.asList(createChange("app/module0/pom.xml")));
+
+        assertEquals(Arrays.asList(scanTargets.get(0)), changedTargets);
+    }
+
+    @Test
+    public void testEveryTargetIsScannedWithoutChanges() throws IOException {
+        // the first build of a configuration has no previous build to have changes since
+        final HubVcsChangeScope vcsChangeScope = new HubVcsChangeScope(checkoutDirectory, Collections.<VcsRootEntry> emptyList(), logger);
+
+        assertEquals(scanTargets, vcsChangeScope.getChangedTargets(scanTargets, Collections.<VcsChangeInfo> emptyList()));
+        assertEquals(scanTargets, vcsChangeScope.getChangedTargets(scanTargets, null));
+    }
+
+    private VcsRootEntry createVcsRootEntry(final String relativeFileName, final String checkoutPath) {
+        final CheckoutRules checkoutRules = Mockito.mock(CheckoutRules.class);
+        Mockito.when(checkoutRules.map(relativeFileName)).thenReturn(checkoutPath);
+        final VcsRootEntry vcsRootEntry = Mockito.mock(VcsRootEntry.class);
+        Mockito.when(vcsRootEntry.getCheckoutRules()).thenReturn(checkoutRules);
+        return vcsRootEntry;
+    }
+
+    private VcsChangeInfo createChange(final String relativeFileName) {
+        final VcsChangeInfo change = Mockito.mock(VcsChangeInfo.class);
+        Mockito.when(change.getRelativeFileName()).thenReturn(relativeFileName);
+        return change;
+    }
+
+}
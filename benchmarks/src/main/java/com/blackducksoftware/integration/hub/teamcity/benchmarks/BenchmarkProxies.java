@@ -0,0 +1,78 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Benchmarks
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Stand-ins for the TeamCity interfaces the measured code calls. A method returns the result registered under its name,
+ * or the default value of its return type.
+ */
+final class BenchmarkProxies {
+    private BenchmarkProxies() {
+    }
+
+    static <T> T create(final Class<T> type) {
+        return create(type, Collections.<String, Object> emptyMap());
+    }
+
+    static <T> T create(final Class<T> type, final Map<String, Object> results) {
+        final Object proxy = Proxy.newProxyInstance(BenchmarkProxies.class.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if (results.containsKey(method.getName())) {
+                    return results.get(method.getName());
+                }
+                return getDefaultValue(method.getReturnType());
+            }
+        });
+        return type.cast(proxy);
+    }
+
+    private static Object getDefaultValue(final Class<?> returnType) {
+        if (returnType == boolean.class) {
+            return Boolean.FALSE;
+        } else if (returnType == int.class) {
+            return 0;
+        } else if (returnType == long.class) {
+            return 0L;
+        } else if (returnType == double.class) {
+            return 0.0d;
+        } else if (returnType == float.class) {
+            return 0.0f;
+        } else if (returnType == short.class) {
+            return (short) 0;
+        } else if (returnType == byte.class) {
+            return (byte) 0;
+        } else if (returnType == char.class) {
+            return (char) 0;
+        }
+        return null;
+    }
+
+}
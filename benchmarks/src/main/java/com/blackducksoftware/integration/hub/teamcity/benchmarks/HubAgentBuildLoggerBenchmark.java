@@ -0,0 +1,110 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Benchmarks
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.blackducksoftware.integration.hub.teamcity.agent.HubAgentBuildLogger;
+import com.blackducksoftware.integration.hub.teamcity.agent.log.HubAsyncLogSink;
+import com.blackducksoftware.integration.hub.teamcity.agent.log.HubBuildLogSink;
+import com.blackducksoftware.integration.hub.teamcity.agent.log.HubDirectLogSink;
+import com.blackducksoftware.integration.hub.teamcity.agent.log.HubLogQueueFullPolicy;
+import com.blackducksoftware.integration.log.LogLevel;
+
+import jetbrains.buildServer.agent.BuildProgressLogger;
+
+/**
+ * How long the build step thread spends in a DEBUG call when the build log takes {@code deliveryTokens} of CPU work per
+ * message, once written synchronously and once through the async sink with each queue full policy.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HubAgentBuildLoggerBenchmark {
+    @Param({ "sync", "async-block", "async-drop" })
+    private String mode;
+
+    @Param({ "0", "1000" })
+    private long deliveryTokens;
+
+    private HubAgentBuildLogger logger;
+
+    private long lineNumber;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final BuildProgressLogger buildLogger = createBuildLogger(deliveryTokens);
+        HubBuildLogSink sink = new HubDirectLogSink(buildLogger);
+        if ("async-block".equals(mode)) {
+            sink = new HubAsyncLogSink(sink, HubAsyncLogSink.DEFAULT_CAPACITY, HubLogQueueFullPolicy.BLOCK);
+        } else if ("async-drop".equals(mode)) {
+            sink = new HubAsyncLogSink(sink, HubAsyncLogSink.DEFAULT_CAPACITY, HubLogQueueFullPolicy.DROP_LOWEST_LEVEL);
+        }
+        logger = new HubAgentBuildLogger(buildLogger, sink);
+        logger.setLogLevel(LogLevel.DEBUG);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        logger.close();
+    }
+
+    @Benchmark
+    public void debugLine() {
+        logger.debug("Scanning file " + lineNumber++);
+    }
+
+    static BuildProgressLogger createBuildLogger(final long deliveryTokens) {
+        return (BuildProgressLogger) Proxy.newProxyInstance(HubAgentBuildLoggerBenchmark.class.getClassLoader(), new Class<?>[] { BuildProgressLogger.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                // stands in for sending the message to the server
+                Blackhole.consumeCPU(deliveryTokens);
+                return null;
+            }
+        });
+    }
+
+}
@@ -0,0 +1,145 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Benchmarks
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.blackducksoftware.integration.hub.configuration.HubScanConfig;
+import com.blackducksoftware.integration.hub.teamcity.agent.HubAgentBuildLogger;
+import com.blackducksoftware.integration.hub.teamcity.agent.scan.HubBuildParameters;
+import com.blackducksoftware.integration.hub.teamcity.common.HubConstantValues;
+import com.blackducksoftware.integration.log.IntLogger;
+
+import jetbrains.buildServer.agent.BuildParametersMap;
+import jetbrains.buildServer.agent.BuildProgressLogger;
+import jetbrains.buildServer.agent.BuildRunnerContext;
+
+/**
+ * The parameter handling at the start of every Hub build step: collecting the build parameters and building the scan
+ * configuration from them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HubBuildParametersBenchmark {
+    private static final int PARAMETERS_PER_SOURCE = 200;
+
+    private File workingDirectory;
+
+    private File toolsDirectory;
+
+    private List<String> scanTargets;
+
+    private BuildRunnerContext context;
+
+    private IntLogger logger;
+
+    private HubBuildParameters parameters;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workingDirectory = Files.createTempDirectory("hub-benchmark").toFile();
+        toolsDirectory = new File(workingDirectory, "tools");
+        toolsDirectory.mkdirs();
+        scanTargets = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final File scanTarget = new File(workingDirectory, "module" + i);
+            scanTarget.mkdirs();
+            scanTargets.add(scanTarget.getAbsolutePath());
+        }
+
+        final Map<String, String> runnerParameters = createParameters("runner");
+        runnerParameters.put(HubConstantValues.HUB_PROJECT_NAME, "benchmark");
+        runnerParameters.put(HubConstantValues.HUB_PROJECT_VERSION, "1.0");
+        runnerParameters.put(HubConstantValues.HUB_SCAN_MEMORY, "4096");
+        runnerParameters.put(HubConstantValues.HUB_CODE_LOCATION_NAME, "benchmark");
+        runnerParameters.put(HubConstantValues.HUB_WORKSPACE_CHECK, "true");
+        runnerParameters.put(HubConstantValues.HUB_EXCLUDE_PATTERNS, "/module0/build/\n/module1/build/");
+
+        final Map<String, Object> buildParametersResults = new HashMap<>();
+        buildParametersResults.put("getEnvironmentVariables", createParameters("env"));
+        buildParametersResults.put("getSystemProperties", createParameters("system"));
+        final Map<String, Object> contextResults = new HashMap<>();
+        contextResults.put("getBuildParameters", BenchmarkProxies.create(BuildParametersMap.class, buildParametersResults));
+        contextResults.put("getConfigParameters", createParameters("config"));
+        contextResults.put("getRunnerParameters", runnerParameters);
+        context = BenchmarkProxies.create(BuildRunnerContext.class, contextResults);
+        logger = new HubAgentBuildLogger(BenchmarkProxies.create(BuildProgressLogger.class));
+
+        parameters = new HubBuildParameters(context);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FileUtils.deleteQuietly(workingDirectory);
+    }
+
+    @Benchmark
+    public Map<String, String> collectVariables() {
+        return HubBuildParameters.collectVariables(context);
+    }
+
+    @Benchmark
+    public HubBuildParameters newBuildParameters() {
+        return new HubBuildParameters(context);
+    }
+
+    @Benchmark
+    public HubScanConfig getScanConfig() {
+        return parameters.getScanConfig(workingDirectory, toolsDirectory, logger, scanTargets);
+    }
+
+    private static Map<String, String> createParameters(final String source) {
+        final Map<String, String> parameters = new HashMap<>();
+        for (int i = 0; i < PARAMETERS_PER_SOURCE; i++) {
+            parameters.put(source + ".parameter." + i, source + " value " + i);
+        }
+        return parameters;
+    }
+
+}
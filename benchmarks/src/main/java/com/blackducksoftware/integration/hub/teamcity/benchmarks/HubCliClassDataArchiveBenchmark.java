@@ -0,0 +1,133 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Benchmarks
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.blackducksoftware.integration.hub.teamcity.agent.HubAgentBuildLogger;
+import com.blackducksoftware.integration.hub.teamcity.agent.cli.HubCliClassDataArchive;
+
+import jetbrains.buildServer.agent.BuildProgressLogger;
+
+/**
+ * Start-up of an installed scan CLI with and without its class-data sharing archive. Needs an installed CLI, passed
+ * with -p cliDirectory=... -p cliVersion=...; the archive is recorded once per trial in a temporary directory.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HubCliClassDataArchiveBenchmark {
+    private static final long ARCHIVE_WAIT_MILLIS = TimeUnit.MINUTES.toMillis(3);
+
+    @Param({ "" })
+    private String cliDirectory;
+
+    @Param({ "" })
+    private String cliVersion;
+
+    private File toolsDirectory;
+
+    private HubCliClassDataArchive classDataArchive;
+
+    private File javaExecutable;
+
+    private File standaloneJar;
+
+    private String sharedArchiveOptions;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        if (cliDirectory.isEmpty() || cliVersion.isEmpty()) {
+            throw new IllegalStateException("Pass the installed scan CLI with -p cliDirectory=<directory> -p cliVersion=<version>");
+        }
+        final File directory = new File(cliDirectory);
+        javaExecutable = HubCliClassDataArchive.getJavaExecutable(directory);
+        standaloneJar = HubCliClassDataArchive.getStandaloneJar(directory, cliVersion);
+        toolsDirectory = Files.createTempDirectory("hub-cli-cds").toFile();
+        classDataArchive = new HubCliClassDataArchive(toolsDirectory);
+
+        final HubAgentBuildLogger logger = new HubAgentBuildLogger(BenchmarkProxies.create(BuildProgressLogger.class));
+        final long deadline = System.currentTimeMillis() + ARCHIVE_WAIT_MILLIS;
+        sharedArchiveOptions = classDataArchive.getSharedArchiveOptions(directory, cliVersion, logger);
+        while (sharedArchiveOptions == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(500);
+            sharedArchiveOptions = classDataArchive.getSharedArchiveOptions(directory, cliVersion, logger);
+        }
+        if (sharedArchiveOptions == null) {
+            throw new IllegalStateException("The runtime " + javaExecutable.getAbsolutePath() + " did not create a class-data sharing archive.");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        classDataArchive.shutdown();
+        FileUtils.deleteDirectory(toolsDirectory);
+    }
+
+    @Benchmark
+    public int withoutArchive() throws IOException, InterruptedException {
+        return runCli(Arrays.asList("-Xshare:off"));
+    }
+
+    @Benchmark
+    public int withArchive() throws IOException, InterruptedException {
+        return runCli(Arrays.asList(sharedArchiveOptions.split(" ")));
+    }
+
+    private int runCli(final List<String> jvmOptions) throws IOException, InterruptedException {
+        final List<String> command = new ArrayList<>();
+        command.add(javaExecutable.getAbsolutePath());
+        command.addAll(jvmOptions);
+        command.addAll(Arrays.asList("-jar", standaloneJar.getAbsolutePath(), "--help"));
+        final ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.redirectErrorStream(true);
+        processBuilder.redirectOutput(ProcessBuilder.Redirect.appendTo(new File(toolsDirectory, "benchmark.log")));
+        return processBuilder.start().waitFor();
+    }
+
+}
@@ -0,0 +1,125 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Benchmarks
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.blackducksoftware.integration.hub.teamcity.common.HubConstantValues;
+import com.blackducksoftware.integration.hub.teamcity.server.global.HubServerListener;
+import com.blackducksoftware.integration.hub.teamcity.server.runner.HubParametersPreprocessor;
+
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.serverSide.buildLog.BuildLog;
+import jetbrains.buildServer.util.EventDispatcher;
+import jetbrains.buildServer.web.openapi.PluginDescriptor;
+
+/**
+ * The server runs the preprocessor for every build step it starts, with a Hub step and with the step of another runner.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HubParametersPreprocessorBenchmark {
+    @Param({ "true", "false" })
+    private boolean hubStep;
+
+    private File dataDirectory;
+
+    private HubParametersPreprocessor preprocessor;
+
+    private SRunningBuild build;
+
+    private Map<String, String> stepParameters;
+
+    private Map<String, String> buildParameters;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataDirectory = Files.createTempDirectory("hub-benchmark").toFile();
+        ServerHubConfigPersistenceManagerBenchmark.createPersistenceManager(dataDirectory).persist();
+
+        final EventDispatcher<BuildServerListener> dispatcher = EventDispatcher.create(BuildServerListener.class);
+        final HubServerListener serverListener = new HubServerListener(dispatcher, BenchmarkProxies.create(SBuildServer.class), new ServerPaths(dataDirectory.getAbsolutePath()));
+
+        final Map<String, Object> pluginResults = new HashMap<>();
+        pluginResults.put("getPluginVersion", "4.0.1");
+        pluginResults.put("getPluginName", "hub-teamcity");
+        preprocessor = new HubParametersPreprocessor(serverListener, BenchmarkProxies.create(PluginDescriptor.class, pluginResults));
+
+        final Map<String, Object> buildResults = new HashMap<>();
+        buildResults.put("getBuildLog", BenchmarkProxies.create(BuildLog.class));
+        build = BenchmarkProxies.create(SRunningBuild.class, buildResults);
+
+        stepParameters = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            stepParameters.put("teamcity.step.parameter." + i, "value " + i);
+        }
+        if (hubStep) {
+            stepParameters.put(HubConstantValues.HUB_PROJECT_NAME, "benchmark");
+            stepParameters.put(HubConstantValues.HUB_PROJECT_VERSION, "1.0");
+            stepParameters.put(HubConstantValues.HUB_SCAN_TARGETS, "build/libs");
+        }
+        buildParameters = new HashMap<>();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FileUtils.deleteQuietly(dataDirectory);
+    }
+
+    @Benchmark
+    public Map<String, String> fixRunBuildParameters() {
+        // the server hands every step its own copy of the parameters
+        final Map<String, String> runParameters = new HashMap<>(stepParameters);
+        preprocessor.fixRunBuildParameters(build, runParameters, buildParameters);
+        return runParameters;
+    }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Benchmarks
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.blackducksoftware.integration.hub.configuration.HubServerConfig;
+import com.blackducksoftware.integration.hub.configuration.HubServerConfigBuilder;
+import com.blackducksoftware.integration.hub.teamcity.server.global.ServerHubConfigPersistenceManager;
+
+import jetbrains.buildServer.serverSide.ServerPaths;
+
+/**
+ * Loading and saving the global Hub configuration of the server, the file lives in a temporary data directory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ServerHubConfigPersistenceManagerBenchmark {
+    private File dataDirectory;
+
+    private ServerHubConfigPersistenceManager persistenceManager;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataDirectory = Files.createTempDirectory("hub-benchmark").toFile();
+        persistenceManager = createPersistenceManager(dataDirectory);
+        persistenceManager.persist();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FileUtils.deleteQuietly(dataDirectory);
+    }
+
+    @Benchmark
+    public HubServerConfig loadSettings() {
+        persistenceManager.loadSettings();
+        return persistenceManager.getHubServerConfig();
+    }
+
+    @Benchmark
+    public File persist() throws IOException {
+        persistenceManager.persist();
+        return persistenceManager.getConfigFile();
+    }
+
+    static ServerHubConfigPersistenceManager createPersistenceManager(final File dataDirectory) {
+        final ServerHubConfigPersistenceManager persistenceManager = new ServerHubConfigPersistenceManager(new ServerPaths(dataDirectory.getAbsolutePath()));
+        persistenceManager.setHubServerConfig(createHubServerConfig());
+        persistenceManager.setHubWorkspaceCheck(true);
+        return persistenceManager;
+    }
+
+    static HubServerConfig createHubServerConfig() {
+        final HubServerConfigBuilder builder = new HubServerConfigBuilder();
+        builder.setHubUrl("https://hub.example.com");
+        builder.setUsername("sysadmin");
+        builder.setPassword("blackduck");
+        builder.setTimeout("120");
+        builder.setProxyHost("proxy.example.com");
+        builder.setProxyPort("3128");
+        builder.setIgnoredProxyHosts("localhost,.*\\.internal");
+        // the configuration page saves without connecting to the Hub, so does the benchmark
+        return builder.buildObject();
+    }
+
+}
@@ -0,0 +1,98 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Benchmarks
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.blackducksoftware.integration.hub.teamcity.agent.scan.StreamRedirectThread;
+
+/**
+ * Copying the output of a scan CLI process, the copy runs on the benchmark thread.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StreamRedirectThreadBenchmark {
+    @Param({ "10000" })
+    private int lines;
+
+    @Param({ "80", "8000" })
+    private int lineLength;
+
+    private byte[] output;
+
+    private OutputStream target;
+
+    @Setup(Level.Trial)
+    public void setUp(final Blackhole blackhole) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            final String prefix = "INFO: Scanning file " + i + " ";
+            builder.append(prefix);
+            for (int j = prefix.length(); j < lineLength; j++) {
+                builder.append('x');
+            }
+            builder.append('\n');
+        }
+        output = builder.toString().getBytes(StandardCharsets.UTF_8);
+        target = new OutputStream() {
+            @Override
+            public void write(final int b) {
+                blackhole.consume(b);
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+                blackhole.consume(b);
+            }
+        };
+    }
+
+    @Benchmark
+    public void copy() {
+        final StreamRedirectThread redirectThread = new StreamRedirectThread(new ByteArrayInputStream(output), target);
+        redirectThread.run();
+    }
+
+}
@@ -52,6 +52,36 @@ public final class HubConstantValues {
 
     public static final String HUB_SCAN_TARGETS = PLUGIN_PREFIX + "targets";
 
+    public static final String HUB_PARALLEL_SCAN = PLUGIN_PREFIX + "parallelScan";
+
+    public static final String HUB_PARALLEL_SCAN_MAX_CONCURRENCY = PLUGIN_PREFIX + "parallelScanMaxConcurrency";
+
+    public static final String HUB_PARALLEL_SCAN_MEMORY = PLUGIN_PREFIX + "parallelScanMemory";
+
+    public static final String HUB_INCREMENTAL_SCAN = PLUGIN_PREFIX + "incrementalScan";
+
+    public static final String HUB_SCAN_VCS_CHANGED_TARGETS = PLUGIN_PREFIX + "scanVcsChangedTargets";
+
+    /**
+     * The number of enabled Hub steps of a build, set by the server when the build starts.
+     */
+    public static final String HUB_STEP_COUNT = PLUGIN_PREFIX + "stepCount";
+
+    /**
+     * Prefix of the parameter a Hub step sets, followed by the id of the step, once its scan completed.
+     */
+    public static final String HUB_SCAN_COMPLETED = PLUGIN_PREFIX + "scanCompleted.";
+
+    /**
+     * Prefix of the parameter, followed by the id of the step, telling a Hub step that the step completed its scan in
+     * the previous build of the configuration.
+     */
+    public static final String HUB_PREVIOUS_SCAN_COMPLETED = PLUGIN_PREFIX + "previousScanCompleted.";
+
+    public static final String HUB_SCAN_CLI_QUICK_START = PLUGIN_PREFIX + "scanCliQuickStart";
+
+    public static final String HUB_SCAN_CLI_CLASS_DATA_SHARING = PLUGIN_PREFIX + "scanCliClassDataSharing";
+
     public static final String HUB_CLEANUP_LOGS_ON_SUCCESS = PLUGIN_PREFIX + "cleanupOnSuccessfulScan";
 
     public static final String HUB_UNMAP_PREVIOUS_CODE_LOCATIONS = PLUGIN_PREFIX + "unmapPreviousCodeLocations";
@@ -99,4 +129,33 @@ public final class HubConstantValues {
     public static final String PLUGIN_NAME = PLUGIN_PREFIX + "hubPluginName";
 
     public static final String HUB_RISK_REPORT_DIRECTORY_NAME = "Hub_Risk_Report";
+
+    /**
+     * The timings of a Hub step are written to hub-timings-&lt;step id&gt;.json, one file for each Hub step of a build.
+     */
+    public static final String HUB_TIMINGS_FILE_PREFIX = "hub-timings-";
+
+    public static final String HUB_TIMINGS_FILE_EXTENSION = ".json";
+
+    public static final String HUB_AGENT_EXECUTOR_THREADS = PLUGIN_PREFIX + "agentExecutorThreads";
+
+    public static final String HUB_CLI_VERSION = PLUGIN_PREFIX + "cliVersion";
+
+    public static final String HUB_LOG_BATCHING = PLUGIN_PREFIX + "logBatching";
+
+    public static final String HUB_LOG_MAX_LINES_PER_SECOND = PLUGIN_PREFIX + "logMaxLinesPerSecond";
+
+    public static final String HUB_LOG_ASYNC = PLUGIN_PREFIX + "logAsync";
+
+    public static final String HUB_LOG_QUEUE_CAPACITY = PLUGIN_PREFIX + "logQueueCapacity";
+
+    public static final String HUB_LOG_QUEUE_FULL_POLICY = PLUGIN_PREFIX + "logQueueFullPolicy";
+
+    public static final String HUB_PHONE_HOME_TIMEOUT = PLUGIN_PREFIX + "phoneHomeTimeout";
+
+    public static final String HUB_CONFIG_VERSION = PLUGIN_PREFIX + "hubConfigVersion";
+
+    public static final String HUB_AGENT_HOSTNAME = PLUGIN_PREFIX + "agentHostname";
+
+    public static final String HUB_HOSTNAME_TTL = PLUGIN_PREFIX + "hostnameTtl";
 }
@@ -0,0 +1,148 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Common
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.common;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers which stack traces were already logged so a retry loop that fails the same way over and over prints the
+ * full trace once and a one line reference afterwards. Traces are told apart by a fingerprint of the exception classes
+ * and stack frames of the whole cause chain, the messages are left out because they often carry ids or timestamps. The
+ * trace is only rendered when it is printed in full.
+ */
+public class HubStackTraceCache {
+    public static final int DEFAULT_MAX_FINGERPRINTS = 256;
+
+    public static final long DEFAULT_REPRINT_AFTER_MILLIS = 60 * 60 * 1000;
+
+    private static final int MAX_CAUSES = 32;
+
+    private final Map<Long, Occurrences> occurrences;
+
+    private final long reprintAfterMillis;
+
+    public HubStackTraceCache() {
+        this(DEFAULT_MAX_FINGERPRINTS, DEFAULT_REPRINT_AFTER_MILLIS);
+    }
+
+    /**
+     * @param reprintAfterMillis
+     *            a trace is printed in full again once its last full print is older than this
+     */
+    public HubStackTraceCache(final int maxFingerprints, final long reprintAfterMillis) {
+        this.reprintAfterMillis = reprintAfterMillis;
+        occurrences = new LinkedHashMap<Long, Occurrences>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, Occurrences> eldest) {
+                return size() > maxFingerprints;
+            }
+        };
+    }
+
+    /**
+     * Counts this occurrence of the stack trace and returns either the full trace or, when it was printed recently,
+     * a short reference to it.
+     */
+    public String getStackTrace(final Throwable throwable) {
+        final String repeatReference = getRepeatReference(throwable);
+        if (repeatReference != null) {
+            return throwable + " (" + repeatReference + ")";
+        }
+        return "Stack trace #" + getReference(throwable) + ": " + render(throwable);
+    }
+
+    /**
+     * Counts this occurrence of the stack trace for loggers that print the throwable themselves.
+     *
+     * @return null if the trace should be printed in full, otherwise the reference to its last full print and the
+     *         number of repeats since
+     */
+    public String getRepeatReference(final Throwable throwable) {
+        final long fingerprint = fingerprint(throwable);
+        final long now = System.currentTimeMillis();
+        final long repeated;
+        synchronized (occurrences) {
+            Occurrences previous = occurrences.get(fingerprint);
+            if (previous == null || now - previous.printedMillis >= reprintAfterMillis) {
+                previous = new Occurrences(now);
+                occurrences.put(fingerprint, previous);
+                repeated = 0;
+            } else {
+                repeated = ++previous.repeated;
+            }
+        }
+        if (repeated == 0) {
+            return null;
+        }
+        return "same stack trace as #" + toReference(fingerprint) + ", repeated " + repeated + (repeated == 1 ? " time" : " times");
+    }
+
+    /**
+     * @return the short reference that repeats of this stack trace point back to
+     */
+    public static String getReference(final Throwable throwable) {
+        return toReference(fingerprint(throwable));
+    }
+
+    public static String render(final Throwable throwable) {
+        final StringWriter sw = new StringWriter();
+        throwable.printStackTrace(new PrintWriter(sw));
+        return sw.toString();
+    }
+
+    private static String toReference(final long fingerprint) {
+        return String.format("%08x", (int) (fingerprint ^ (fingerprint >>> 32)));
+    }
+
+    static long fingerprint(final Throwable throwable) {
+        final Map<Throwable, Boolean> seen = new IdentityHashMap<>();
+        long hash = 17;
+        Throwable current = throwable;
+        while (current != null && seen.size() < MAX_CAUSES && seen.put(current, Boolean.TRUE) == null) {
+            hash = 31 * hash + current.getClass().getName().hashCode();
+            for (final StackTraceElement element : current.getStackTrace()) {
+                hash = 31 * hash + element.hashCode();
+            }
+            current = current.getCause();
+        }
+        return hash;
+    }
+
+    private static class Occurrences {
+        private final long printedMillis;
+
+        private long repeated;
+
+        private Occurrences(final long printedMillis) {
+            this.printedMillis = printedMillis;
+        }
+    }
+
+}
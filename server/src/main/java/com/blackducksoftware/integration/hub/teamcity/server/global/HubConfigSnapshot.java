@@ -0,0 +1,63 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Server
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.server.global;
+
+import com.blackducksoftware.integration.hub.configuration.HubServerConfig;
+
+/**
+ * One consistent state of the global Hub configuration. A change publishes a new snapshot instead of modifying this
+ * one, so a reader that takes a snapshot once sees values that belong together without any locking.
+ */
+public final class HubConfigSnapshot {
+    public static final HubConfigSnapshot EMPTY = new HubConfigSnapshot(null, false, 0);
+
+    private final HubServerConfig hubServerConfig;
+
+    private final boolean hubWorkspaceCheck;
+
+    private final long version;
+
+    public HubConfigSnapshot(final HubServerConfig hubServerConfig, final boolean hubWorkspaceCheck, final long version) {
+        this.hubServerConfig = hubServerConfig;
+        this.hubWorkspaceCheck = hubWorkspaceCheck;
+        this.version = version;
+    }
+
+    public HubServerConfig getHubServerConfig() {
+        return hubServerConfig;
+    }
+
+    public boolean isHubWorkspaceCheck() {
+        return hubWorkspaceCheck;
+    }
+
+    /**
+     * The version changes with every published snapshot, it is passed to the builds so the agents know when to drop the
+     * Hub server configuration they built from earlier builds.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+}
@@ -49,7 +49,10 @@ import com.blackducksoftware.integration.validator.ValidationResults;
 import jetbrains.buildServer.controllers.ActionErrors;
 import jetbrains.buildServer.controllers.BaseFormXmlController;
 import jetbrains.buildServer.log.Loggers;
+import jetbrains.buildServer.serverSide.auth.Permission;
 import jetbrains.buildServer.serverSide.crypt.RSACipher;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.web.util.SessionUser;
 
 public class HubGlobalServerConfigController extends BaseFormXmlController {
     private final ServerHubConfigPersistenceManager configPersistenceManager;
@@ -69,6 +72,8 @@ public class HubGlobalServerConfigController extends BaseFormXmlController {
             handleTestConnectionRequest(req, xmlResponse);
         } else if (isSavingRequest(req)) {
             handleSaveRequest(req, xmlResponse);
+        } else if (isRollbackRequest(req)) {
+            handleRollbackRequest(req, xmlResponse);
         }
     }
 
@@ -93,15 +98,36 @@ public class HubGlobalServerConfigController extends BaseFormXmlController {
             Loggers.SERVER.error("Error with the Hub configuration", e);
             errors.addError("errorSaving", e.toString());
         }
+        if (!errors.hasErrors()) {
+            try {
+                configPersistenceManager.persist();
+            } catch (final Exception e) {
+                errors.addError("errorSaving", e.toString());
+            }
+        }
         if (errors.hasErrors()) {
             errors.serialize(xmlResponse);
         }
-        try {
-            configPersistenceManager.persist();
-        } catch (final Exception e) {
-            errors.addError("errorSaving", e.toString());
-        }
+    }
 
+    private void handleRollbackRequest(final HttpServletRequest request, final Element xmlResponse) {
+        final ActionErrors errors = new ActionErrors();
+        final SUser user = SessionUser.getUser(request);
+        if (user == null || !user.isPermissionGrantedGlobally(Permission.CHANGE_SERVER_SETTINGS)) {
+            errors.addError("errorSaving", "You do not have the permission to change the Hub configuration.");
+        } else {
+            try {
+                if (!configPersistenceManager.rollback()) {
+                    errors.addError("errorSaving", "There is no earlier Hub configuration to roll back to.");
+                }
+            } catch (final Exception e) {
+                Loggers.SERVER.error("Error rolling back the Hub configuration", e);
+                errors.addError("errorSaving", e.toString());
+            }
+        }
+        if (errors.hasErrors()) {
+            errors.serialize(xmlResponse);
+        }
     }
 
     public void checkInput(final HttpServletRequest request, final ActionErrors errors) throws IllegalArgumentException, EncryptionException, NoSuchMethodException, IllegalAccessException, InvocationTargetException {
@@ -112,8 +138,7 @@ public class HubGlobalServerConfigController extends BaseFormXmlController {
         final ValidationResults results = validator.assertValid();
         if (results.isSuccess()) {
             final HubServerConfig config = builder.buildObject();
-            configPersistenceManager.setHubServerConfig(config);
-            configPersistenceManager.setHubWorkspaceCheck(Boolean.valueOf(request.getParameter("hubWorkspaceCheck")));
+            configPersistenceManager.setConfig(config, Boolean.valueOf(request.getParameter("hubWorkspaceCheck")));
         } else {
             checkForErrors(HubServerConfigFieldEnum.HUBURL, "errorUrl", results, errors);
             checkForErrors(HubServerConfigFieldEnum.HUBTIMEOUT, "errorTimeout", results, errors);
@@ -264,6 +289,14 @@ public class HubGlobalServerConfigController extends BaseFormXmlController {
         return Boolean.valueOf(testConnectionParamValue);
     }
 
+    private boolean isRollbackRequest(final HttpServletRequest request) {
+        if (!request.getParameterNames().hasMoreElements()) {
+            return false;
+        }
+        final String rollbackParamValue = request.getParameter("rollback");
+        return Boolean.valueOf(rollbackParamValue);
+    }
+
     private boolean isSavingRequest(final HttpServletRequest request) {
         if (!request.getParameterNames().hasMoreElements()) {
             return false;
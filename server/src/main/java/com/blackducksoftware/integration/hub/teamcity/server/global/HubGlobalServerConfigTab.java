@@ -53,7 +53,7 @@ public class HubGlobalServerConfigTab extends SimpleCustomTab {
     @Override
     public void fillModel(@NotNull final Map<String, Object> model, @NotNull final HttpServletRequest request) {
         super.fillModel(model, request);
-        configPersistenceManager.loadSettings();
+        configPersistenceManager.refresh();
         model.put("hubConfigPersistenceManager", configPersistenceManager);
         model.put("teamcityBaseUrl", UrlUtil.createTeamcityBaseUrl(request));
     }
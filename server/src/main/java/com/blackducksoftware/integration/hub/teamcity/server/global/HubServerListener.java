@@ -50,6 +50,12 @@ public class HubServerListener extends BuildServerAdapter {
     public void serverStartup() {
         Loggers.SERVER.info("The Black Duck Software Hub Plugin is running on server version '"
                 + server.getFullServerVersion() + "'.");
+        configPersistenceManager.startWatching();
+    }
+
+    @Override
+    public void serverShutdown() {
+        configPersistenceManager.stopWatching();
     }
 
     public ServerHubConfigPersistenceManager getConfigManager() {
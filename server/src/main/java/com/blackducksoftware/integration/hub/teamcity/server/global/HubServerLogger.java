@@ -23,12 +23,16 @@
  */
 package com.blackducksoftware.integration.hub.teamcity.server.global;
 
+import com.blackducksoftware.integration.hub.teamcity.common.HubStackTraceCache;
 import com.blackducksoftware.integration.log.IntLogger;
 import com.blackducksoftware.integration.log.LogLevel;
 
 import jetbrains.buildServer.log.Loggers;
 
 public class HubServerLogger extends IntLogger {
+    // shared because a new logger is created for every request while the server log is one
+    private static final HubStackTraceCache STACK_TRACES = new HubStackTraceCache();
+
     private LogLevel loggerLevel = LogLevel.INFO;
 
     public HubServerLogger() {
@@ -54,7 +58,11 @@ public class HubServerLogger extends IntLogger {
     @Override
     public void error(final String txt, final Throwable e) {
         if (loggerLevel.isLoggable(LogLevel.ERROR)) {
-            Loggers.SERVER.error(txt, e);
+            if (e == null) {
+                Loggers.SERVER.error(txt);
+            } else {
+                logError(txt, e);
+            }
         }
     }
 
@@ -68,7 +76,7 @@ public class HubServerLogger extends IntLogger {
     @Override
     public void error(final Throwable e) {
         if (loggerLevel.isLoggable(LogLevel.ERROR)) {
-            Loggers.SERVER.error(e);
+            logError(String.valueOf(e), e);
         }
     }
 
@@ -81,28 +89,28 @@ public class HubServerLogger extends IntLogger {
 
     @Override
     public void debug(final String txt) {
-        if (loggerLevel.isLoggable(LogLevel.DEBUG)) {
+        if (loggerLevel.isLoggable(LogLevel.DEBUG) && Loggers.SERVER.isDebugEnabled()) {
             Loggers.SERVER.debug(txt);
         }
     }
 
     @Override
     public void debug(final String txt, final Throwable e) {
-        if (loggerLevel.isLoggable(LogLevel.DEBUG)) {
-            Loggers.SERVER.debug(txt, e);
+        if (loggerLevel.isLoggable(LogLevel.DEBUG) && Loggers.SERVER.isDebugEnabled()) {
+            logDebug(txt, e);
         }
     }
 
     @Override
     public void trace(final String txt, final Throwable e) {
-        if (loggerLevel.isLoggable(LogLevel.TRACE)) {
-            Loggers.SERVER.debug(txt, e);
+        if (loggerLevel.isLoggable(LogLevel.TRACE) && Loggers.SERVER.isDebugEnabled()) {
+            logDebug(txt, e);
         }
     }
 
     @Override
     public void trace(final String txt) {
-        if (loggerLevel.isLoggable(LogLevel.TRACE)) {
+        if (loggerLevel.isLoggable(LogLevel.TRACE) && Loggers.SERVER.isDebugEnabled()) {
             Loggers.SERVER.debug(txt);
         }
     }
@@ -111,4 +119,30 @@ public class HubServerLogger extends IntLogger {
     public void alwaysLog(String txt) {
         Loggers.SERVER.info(txt);
     }
+
+    /**
+     * The first occurrence of a stack trace goes to the server log with its throwable, repeats only with a reference to
+     * it and their count.
+     */
+    private void logError(final String txt, final Throwable e) {
+        final String repeatReference = STACK_TRACES.getRepeatReference(e);
+        if (repeatReference == null) {
+            Loggers.SERVER.error(txt + " (stack trace #" + HubStackTraceCache.getReference(e) + ")", e);
+        } else {
+            Loggers.SERVER.error(txt + " (" + repeatReference + ")");
+        }
+    }
+
+    private void logDebug(final String txt, final Throwable e) {
+        if (e == null) {
+            Loggers.SERVER.debug(txt);
+            return;
+        }
+        final String repeatReference = STACK_TRACES.getRepeatReference(e);
+        if (repeatReference == null) {
+            Loggers.SERVER.debug(txt + " (stack trace #" + HubStackTraceCache.getReference(e) + ")", e);
+        } else {
+            Loggers.SERVER.debug(txt + " (" + repeatReference + ")");
+        }
+    }
 }
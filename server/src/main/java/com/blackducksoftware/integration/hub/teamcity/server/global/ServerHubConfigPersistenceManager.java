@@ -23,15 +23,33 @@
  */
 package com.blackducksoftware.integration.hub.teamcity.server.global;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.jetbrains.annotations.NotNull;
 
 import com.blackducksoftware.integration.hub.api.generated.enumeration.ProjectVersionDistributionType;
@@ -47,23 +65,63 @@ import jetbrains.buildServer.log.Loggers;
 import jetbrains.buildServer.serverSide.ServerPaths;
 import jetbrains.buildServer.serverSide.crypt.RSACipher;
 
+/**
+ * Keeps the global Hub configuration in memory as a {@link HubConfigSnapshot}, the getters never read the disk or
+ * lock. The file is read again only when it changes: a watcher on the config directory notices edits made outside the
+ * server, and a file whose modification time and size are unchanged, or whose content hashes the same as the loaded
+ * one, is not parsed again. Setting the values the current snapshot already has publishes no new snapshot.
+ */
 public class ServerHubConfigPersistenceManager {
+    public static final int MAX_SNAPSHOTS = 10;
+
     private static final String CONFIG_FILE_NAME = "hub-config.json";
 
+    private static final String SNAPSHOT_DIRECTORY_NAME = "hub-config-snapshots";
+
+    private static final String SNAPSHOT_FILE_PREFIX = "hub-config-";
+
+    private static final String SNAPSHOT_FILE_SUFFIX = ".json";
+
+    private static final Pattern SNAPSHOT_FILE_NAME = Pattern.compile(Pattern.quote(SNAPSHOT_FILE_PREFIX) + "(\\d+)" + Pattern.quote(SNAPSHOT_FILE_SUFFIX));
+
     private final Gson gson;
 
     private final JsonParser jsonParser;
 
     private final File configFile;
 
-    private HubServerConfig hubServerConfig;
+    private final File snapshotDirectory;
+
+    private final AtomicReference<HubConfigSnapshot> configSnapshot = new AtomicReference<>(HubConfigSnapshot.EMPTY);
+
+    /**
+     * The versions of the kept snapshots, oldest first. Only this manager writes snapshots, the directory is listed
+     * once and the list is replaced on every save.
+     */
+    private volatile List<Long> snapshotVersions;
+
+    /**
+     * The snapshot the current configuration was rolled back to, or null if it was saved since. The next rollback goes
+     * to the snapshot before it, so repeated rollbacks keep going back.
+     */
+    private volatile Long rolledBackVersion;
+
+    private long loadedLastModified = -1;
+
+    private long loadedLength = -1;
+
+    private String loadedHash;
+
+    private WatchService watchService;
 
-    private boolean hubWorkspaceCheck;
+    private Thread watchThread;
 
     public ServerHubConfigPersistenceManager(@NotNull final ServerPaths serverPaths) {
         gson = new Gson();
         jsonParser = new JsonParser();
         configFile = new File(serverPaths.getConfigDir(), CONFIG_FILE_NAME);
+        snapshotDirectory = new File(serverPaths.getConfigDir(), SNAPSHOT_DIRECTORY_NAME);
+        snapshotVersions = listSnapshotVersions();
         loadSettings();
     }
 
@@ -71,20 +129,78 @@ public class ServerHubConfigPersistenceManager {
         return configFile;
     }
 
+    /**
+     * @return the current configuration, the same snapshot answers every question of one reader consistently
+     */
+    public HubConfigSnapshot getConfigSnapshot() {
+        return configSnapshot.get();
+    }
+
     public HubServerConfig getHubServerConfig() {
-        return hubServerConfig;
+        return configSnapshot.get().getHubServerConfig();
     }
 
     public void setHubServerConfig(final HubServerConfig hubServerConfig) {
-        this.hubServerConfig = hubServerConfig;
+        HubConfigSnapshot current;
+        do {
+            current = configSnapshot.get();
+            if (hasValues(current, hubServerConfig, current.isHubWorkspaceCheck())) {
+                return;
+            }
+        } while (!configSnapshot.compareAndSet(current, new HubConfigSnapshot(hubServerConfig, current.isHubWorkspaceCheck(), nextVersion(current))));
     }
 
     public boolean isHubWorkspaceCheck() {
-        return hubWorkspaceCheck;
+        return configSnapshot.get().isHubWorkspaceCheck();
     }
 
     public void setHubWorkspaceCheck(final boolean hubWorkspaceCheck) {
-        this.hubWorkspaceCheck = hubWorkspaceCheck;
+        HubConfigSnapshot current;
+        do {
+            current = configSnapshot.get();
+            if (hasValues(current, current.getHubServerConfig(), hubWorkspaceCheck)) {
+                return;
+            }
+        } while (!configSnapshot.compareAndSet(current, new HubConfigSnapshot(current.getHubServerConfig(), hubWorkspaceCheck, nextVersion(current))));
+    }
+
+    /**
+     * Publishes both values in one snapshot, no reader sees one without the other.
+     */
+    public void setConfig(final HubServerConfig hubServerConfig, final boolean hubWorkspaceCheck) {
+        HubConfigSnapshot current;
+        do {
+            current = configSnapshot.get();
+            if (hasValues(current, hubServerConfig, hubWorkspaceCheck)) {
+                return;
+            }
+        } while (!configSnapshot.compareAndSet(current, new HubConfigSnapshot(hubServerConfig, hubWorkspaceCheck, nextVersion(current))));
+    }
+
+    /**
+     * Compares the Hub server configurations the way they are saved, a configuration built again from the same
+     * values is not a change.
+     */
+    private boolean hasValues(final HubConfigSnapshot current, final HubServerConfig hubServerConfig, final boolean hubWorkspaceCheck) {
+        if (current == HubConfigSnapshot.EMPTY || current.isHubWorkspaceCheck() != hubWorkspaceCheck) {
+            return false;
+        }
+        if (current.getHubServerConfig() == hubServerConfig) {
+            return true;
+        }
+        if (current.getHubServerConfig() == null || hubServerConfig == null) {
+            return false;
+        }
+        return gson.toJsonTree(current.getHubServerConfig(), HubServerConfig.class).equals(gson.toJsonTree(hubServerConfig, HubServerConfig.class));
+    }
+
+    public long getConfigVersion() {
+        return configSnapshot.get().getVersion();
+    }
+
+    private long nextVersion(final HubConfigSnapshot current) {
+        // the clock keeps the versions apart across server restarts
+        return Math.max(System.currentTimeMillis(), current.getVersion() + 1);
     }
 
     public List<String> getPhaseList() {
@@ -103,46 +219,335 @@ public class ServerHubConfigPersistenceManager {
         return distributionList;
     }
 
-    public void loadSettings() {
+    /**
+     * Reads and parses the config file whether it changed or not. Without a readable config file the newest snapshot is
+     * loaded.
+     */
+    public synchronized void loadSettings() {
         if (configFile.exists()) {
-            try (BufferedReader reader = new BufferedReader(new FileReader(configFile))) {
-                final JsonObject globalConfigJson = jsonParser.parse(reader).getAsJsonObject();
-                try {
-                    if (globalConfigJson.has("hubServerConfig")) {
-                        setHubServerConfig(gson.fromJson(globalConfigJson.get("hubServerConfig"), HubServerConfig.class));
-                        setHubWorkspaceCheck(globalConfigJson.get("hubWorkspaceCheck").getAsBoolean());
-                    } else {
-                        throw new JsonParseException("The Hub Teamcity configuration must be from a previous version.");
+            try {
+                final long lastModified = configFile.lastModified();
+                final long length = configFile.length();
+                final byte[] content = Files.readAllBytes(configFile.toPath());
+                parseSettings(content);
+                rememberLoadedFile(lastModified, length, content);
+                return;
+            } catch (final IOException | JsonParseException e) {
+                Loggers.SERVER.error("Failed to load Hub config file: " + configFile, e);
+            }
+        }
+        loadNewestSnapshot();
+    }
+
+    private void loadNewestSnapshot() {
+        final List<Long> versions = getSnapshotVersions();
+        if (!versions.isEmpty()) {
+            final File snapshotFile = getSnapshotFile(versions.get(versions.size() - 1));
+            try {
+                parseSettings(Files.readAllBytes(snapshotFile.toPath()));
+                Loggers.SERVER.warn("Loaded the Hub configuration from the snapshot " + snapshotFile);
+            } catch (final IOException | JsonParseException e) {
+                Loggers.SERVER.error("Failed to load Hub config snapshot: " + snapshotFile, e);
+            }
+        }
+    }
+
+    /**
+     * Reads the config file again only if it is not the one that was loaded or saved last.
+     * @return true if a different configuration was loaded
+     */
+    public synchronized boolean reloadIfChanged() {
+        if (!configFile.exists()) {
+            // keep what is in memory, the next save writes the file again
+            return false;
+        }
+        final long lastModified = configFile.lastModified();
+        final long length = configFile.length();
+        if (lastModified == loadedLastModified && length == loadedLength) {
+            return false;
+        }
+        try {
+            final byte[] content = Files.readAllBytes(configFile.toPath());
+            final String hash = DigestUtils.sha256Hex(content);
+            final boolean changed = !hash.equals(loadedHash);
+            if (changed) {
+                parseSettings(content);
+                Loggers.SERVER.info("Reloaded the changed Hub configuration file: " + configFile);
+            }
+            rememberLoadedFile(lastModified, length, content);
+            return changed;
+        } catch (final IOException e) {
+            Loggers.SERVER.error("Failed to load Hub config file: " + configFile, e);
+        } catch (final JsonParseException e) {
+            // the file may still be being written, the next change reads it again
+            Loggers.SERVER.warn("Ignoring the unreadable Hub config file: " + configFile + ": " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Picks up changes made to the config file outside the server. Without a running watcher the file is checked here,
+     * with one this returns at once.
+     */
+    public void refresh() {
+        if (!isWatching()) {
+            reloadIfChanged();
+        }
+    }
+
+    public synchronized boolean isWatching() {
+        return watchThread != null && watchThread.isAlive();
+    }
+
+    public synchronized void startWatching() {
+        if (watchThread != null) {
+            return;
+        }
+        final File configDir = configFile.getParentFile();
+        try {
+            if (!configDir.exists() && configDir.mkdirs()) {
+                Loggers.SERVER.info("Directory created for the Hub configuration file at : " + configDir.getCanonicalPath());
+            }
+            watchService = FileSystems.getDefault().newWatchService();
+            configDir.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (final IOException e) {
+            Loggers.SERVER.warn("Could not watch the Hub configuration file, changes are checked when the configuration is shown: " + e.getMessage());
+            closeWatchService();
+            return;
+        }
+        final WatchService currentWatchService = watchService;
+        watchThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch(currentWatchService);
+            }
+        }, "Hub Config Watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    public synchronized void stopWatching() {
+        closeWatchService();
+        if (watchThread != null) {
+            watchThread.interrupt();
+            watchThread = null;
+        }
+    }
+
+    private void watch(final WatchService currentWatchService) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final WatchKey key = currentWatchService.take();
+                boolean configFileChanged = false;
+                for (final WatchEvent<?> event : key.pollEvents()) {
+                    final Object context = event.context();
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || (context instanceof Path && CONFIG_FILE_NAME.equals(((Path) context).getFileName().toString()))) {
+                        configFileChanged = true;
                     }
-                } catch (final JsonParseException e) {
-                    // try to load the old config
-                    setHubServerConfig(gson.fromJson(globalConfigJson, HubServerConfig.class));
-                    setHubWorkspaceCheck(true);
                 }
+                key.reset();
+                if (configFileChanged) {
+                    reloadIfChanged();
+                }
+            }
+        } catch (final InterruptedException | ClosedWatchServiceException e) {
+            // the server is shutting down
+        }
+    }
+
+    private void closeWatchService() {
+        if (watchService != null) {
+            try {
+                watchService.close();
             } catch (final IOException e) {
-                Loggers.SERVER.error("Failed to load Hub config file: " + configFile, e);
+                Loggers.SERVER.debug("Failed to close the Hub configuration watcher: " + e.getMessage());
             }
+            watchService = null;
         }
     }
 
-    public void persist() throws IOException {
-        if (!configFile.getParentFile().exists() && configFile.getParentFile().mkdirs()) {
-            Loggers.SERVER.info("Directory created for the Hub configuration file at : " + configFile.getParentFile().getCanonicalPath());
-        } else if (configFile.exists() && configFile.delete()) {
-            Loggers.SERVER.info("Old Hub configuration file removed, to be replaced by a new configuration.");
+    private void parseSettings(final byte[] content) {
+        final JsonObject globalConfigJson = jsonParser.parse(new String(content, StandardCharsets.UTF_8)).getAsJsonObject();
+        HubServerConfig hubServerConfig = null;
+        boolean hubWorkspaceCheck = true;
+        boolean parsed = false;
+        if (globalConfigJson.has("hubServerConfig")) {
+            try {
+                hubServerConfig = gson.fromJson(globalConfigJson.get("hubServerConfig"), HubServerConfig.class);
+                hubWorkspaceCheck = globalConfigJson.get("hubWorkspaceCheck").getAsBoolean();
+                parsed = true;
+            } catch (final JsonParseException e) {
+                Loggers.SERVER.debug("Could not parse the Hub configuration, trying the format of a previous version: " + e.getMessage());
+            }
+        }
+        if (!parsed) {
+            // the Hub Teamcity configuration must be from a previous version
+            hubServerConfig = gson.fromJson(globalConfigJson, HubServerConfig.class);
+            hubWorkspaceCheck = true;
         }
+        setConfig(hubServerConfig, hubWorkspaceCheck);
+    }
 
-        configFile.createNewFile();
+    private void rememberLoadedFile(final long lastModified, final long length, final byte[] content) {
+        loadedLastModified = lastModified;
+        loadedLength = length;
+        loadedHash = DigestUtils.sha256Hex(content);
+    }
 
+    /**
+     * Writes the configuration to a temporary file, forces it to disk and renames it over the config file, so the file
+     * is always either the old or the new configuration. The written configuration is also kept as the next numbered
+     * snapshot unless it equals the newest one, the newest {@link #MAX_SNAPSHOTS} are kept for {@link #rollback()}.
+     */
+    public synchronized void persist() throws IOException {
+        final HubConfigSnapshot snapshot = configSnapshot.get();
         final JsonObject globalConfigJson = new JsonObject();
-        final JsonElement hubServerConfigJson = gson.toJsonTree(getHubServerConfig(), HubServerConfig.class);
+        final JsonElement hubServerConfigJson = gson.toJsonTree(snapshot.getHubServerConfig(), HubServerConfig.class);
         globalConfigJson.add("hubServerConfig", hubServerConfigJson);
-        globalConfigJson.addProperty("hubWorkspaceCheck", hubWorkspaceCheck);
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(configFile))) {
-            writer.write(gson.toJson(globalConfigJson));
+        globalConfigJson.addProperty("hubWorkspaceCheck", snapshot.isHubWorkspaceCheck());
+        final byte[] content = gson.toJson(globalConfigJson).getBytes(StandardCharsets.UTF_8);
+        try {
+            if (saveContent(content)) {
+                rolledBackVersion = null;
+            }
         } catch (final IOException e) {
             Loggers.SERVER.error("Failed to save Hub config file: " + configFile, e);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the versions of the kept snapshots, oldest first
+     */
+    public List<Long> getSnapshotVersions() {
+        return snapshotVersions;
+    }
+
+    /**
+     * @return true if there is a snapshot before the current configuration to roll back to
+     */
+    public boolean isRollbackAvailable() {
+        return getRollbackIndex(snapshotVersions, rolledBackVersion) > 0;
+    }
+
+    private List<Long> listSnapshotVersions() {
+        final List<Long> versions = new ArrayList<>();
+        final File[] snapshotFiles = snapshotDirectory.listFiles();
+        if (snapshotFiles != null) {
+            for (final File snapshotFile : snapshotFiles) {
+                final Matcher matcher = SNAPSHOT_FILE_NAME.matcher(snapshotFile.getName());
+                if (matcher.matches()) {
+                    versions.add(Long.valueOf(matcher.group(1)));
+                }
+            }
+        }
+        Collections.sort(versions);
+        return Collections.unmodifiableList(versions);
+    }
+
+    /**
+     * Goes back to the configuration that was saved before the current one. After a rollback that is the snapshot
+     * before the one rolled back to, not the configuration the rollback replaced.
+     * @return false if there is no earlier snapshot
+     */
+    public synchronized boolean rollback() throws IOException {
+        final List<Long> versions = snapshotVersions;
+        final int index = getRollbackIndex(versions, rolledBackVersion);
+        if (index < 1) {
+            return false;
+        }
+        rollbackTo(versions.get(index - 1));
+        return true;
+    }
+
+    /**
+     * @return the index of the snapshot the current configuration came from, or -1 if it is no longer kept
+     */
+    private int getRollbackIndex(final List<Long> versions, final Long rolledBack) {
+        if (rolledBack == null) {
+            return versions.size() - 1;
+        }
+        return versions.indexOf(rolledBack);
+    }
+
+    /**
+     * Makes the snapshot the current configuration. It is saved as a new snapshot, so the versions keep increasing and
+     * the rollback itself can be undone.
+     */
+    public synchronized void rollbackTo(final long version) throws IOException {
+        final File snapshotFile = getSnapshotFile(version);
+        if (!snapshotFile.isFile()) {
+            throw new FileNotFoundException("There is no Hub configuration snapshot " + version + ": " + snapshotFile);
+        }
+        final byte[] content = Files.readAllBytes(snapshotFile.toPath());
+        parseSettings(content);
+        saveContent(content);
+        rolledBackVersion = version;
+        Loggers.SERVER.info("Rolled the Hub configuration back to snapshot " + version);
+    }
+
+    /**
+     * @return true if the content was kept as a new snapshot
+     */
+    private boolean saveContent(final byte[] content) throws IOException {
+        writeAtomically(configFile, content);
+        // the watcher sees this write as well, it must not parse what is already in memory
+        rememberLoadedFile(configFile.lastModified(), configFile.length(), content);
+
+        final List<Long> versions = new ArrayList<>(snapshotVersions);
+        if (!versions.isEmpty()) {
+            final File newestSnapshotFile = getSnapshotFile(versions.get(versions.size() - 1));
+            if (newestSnapshotFile.isFile() && Arrays.equals(content, Files.readAllBytes(newestSnapshotFile.toPath()))) {
+                // saving without a change must not push the previous configuration out of reach of a rollback
+                return false;
+            }
+        }
+        final long version = versions.isEmpty() ? 1 : versions.get(versions.size() - 1) + 1;
+        writeAtomically(getSnapshotFile(version), content);
+        versions.add(version);
+        while (versions.size() > MAX_SNAPSHOTS) {
+            Files.deleteIfExists(getSnapshotFile(versions.remove(0)).toPath());
         }
+        snapshotVersions = Collections.unmodifiableList(versions);
+        return true;
+    }
+
+    private void writeAtomically(final File file, final byte[] content) throws IOException {
+        final File directory = file.getParentFile();
+        if (!directory.exists() && directory.mkdirs()) {
+            Loggers.SERVER.info("Directory created for the Hub configuration file at : " + directory.getCanonicalPath());
+        }
+        final Path tempFile = Files.createTempFile(directory.toPath(), file.getName(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                final ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(tempFile, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        syncDirectory(directory);
+    }
+
+    private void syncDirectory(final File directory) {
+        // makes the rename itself durable, not every platform can open a directory
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (final IOException e) {
+            Loggers.SERVER.debug("Could not sync the directory " + directory + ": " + e.getMessage());
+        }
+    }
+
+    private File getSnapshotFile(final long version) {
+        return new File(snapshotDirectory, SNAPSHOT_FILE_PREFIX + version + SNAPSHOT_FILE_SUFFIX);
     }
 
     public String getHexEncodedPublicKey() {
@@ -0,0 +1,153 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Server
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.server.report;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.jetbrains.annotations.NotNull;
+
+import com.blackducksoftware.integration.hub.teamcity.common.HubConstantValues;
+
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifact;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifacts;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifactsViewMode;
+
+/**
+ * Remembers for the most recently viewed finished builds whether they published a risk report and where it is served,
+ * so the build results pages do not look at the artifacts again. A build is added on its first view, and only builds
+ * that ran a Hub step have their artifacts looked at. A running build is never cached because its
+ * report may still be uploaded, and a cached report expires after a while because artifact cleanup may remove it.
+ */
+public class HubRiskReportCache {
+    public static final int MAX_BUILDS = 1000;
+
+    public static final long DEFAULT_AVAILABLE_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final String RISK_REPORT_PATH = HubConstantValues.HUB_RISK_REPORT_DIRECTORY_NAME + "/" + HubConstantValues.HUB_RISK_REPORT_FILENAME;
+
+    private final Map<Long, RiskReport> riskReports = new LinkedHashMap<Long, RiskReport>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Long, RiskReport> eldest) {
+            return size() > MAX_BUILDS;
+        }
+    };
+
+    private final long availableTtlMillis;
+
+    public HubRiskReportCache() {
+        this(DEFAULT_AVAILABLE_TTL_MILLIS);
+    }
+
+    /**
+     * @param availableTtlMillis
+     *            how long an available report is served from the cache before the artifacts are looked at again
+     */
+    HubRiskReportCache(final long availableTtlMillis) {
+        this.availableTtlMillis = availableTtlMillis;
+    }
+
+    /**
+     * @return the cached risk report of the build, or null if the build has to be looked at
+     */
+    public RiskReport get(final long buildId) {
+        synchronized (riskReports) {
+            final RiskReport riskReport = riskReports.get(buildId);
+            if (null != riskReport && riskReport.isAvailable() && System.currentTimeMillis() - riskReport.loadedMillis >= availableTtlMillis) {
+                riskReports.remove(buildId);
+                return null;
+            }
+            return riskReport;
+        }
+    }
+
+    /**
+     * Looks at the artifacts of the build and caches the result once the build is finished.
+     */
+    public RiskReport load(@NotNull final SBuild build) {
+        final RiskReport riskReport = createRiskReport(build);
+        if (build.isFinished()) {
+            synchronized (riskReports) {
+                riskReports.put(build.getBuildId(), riskReport);
+            }
+        }
+        return riskReport;
+    }
+
+    private RiskReport createRiskReport(final SBuild build) {
+        // based on information found in the TeamCity blog:
+        // https://blog.jetbrains.com/teamcity/2012/06/teamcity-ivy-gradle-maven/
+        final String downloadPath = "/repository/download/" + build.getBuildTypeExternalId() + "/" + build.getBuildId() + ":id/" + RISK_REPORT_PATH;
+        if (!hasHubStep(build)) {
+            return new RiskReport(false, downloadPath);
+        }
+        final BuildArtifacts artifacts = build.getArtifacts(BuildArtifactsViewMode.VIEW_ALL);
+        final BuildArtifact riskReport = artifacts.getArtifact(RISK_REPORT_PATH);
+        final boolean available = null != riskReport && riskReport.isFile();
+        return new RiskReport(available, downloadPath);
+    }
+
+    /**
+     * Uses the number of Hub steps recorded in the parameters of the build itself, so later changes to its
+     * configuration do not matter. The artifacts of builds started before the count was recorded are looked at.
+     */
+    private boolean hasHubStep(final SBuild build) {
+        final String stepCount = build.getParametersProvider().get(HubConstantValues.HUB_STEP_COUNT);
+        if (null == stepCount) {
+            return true;
+        }
+        return NumberUtils.toInt(stepCount) > 0;
+    }
+
+    public static final class RiskReport {
+        private final boolean available;
+
+        private final String downloadPath;
+
+        private final long loadedMillis;
+
+        public RiskReport(final boolean available, final String downloadPath) {
+            this.available = available;
+            this.downloadPath = downloadPath;
+            loadedMillis = System.currentTimeMillis();
+        }
+
+        public boolean isAvailable() {
+            return available;
+        }
+
+        /**
+         * @return the path of the report below the context path of the server
+         */
+        public String getDownloadPath() {
+            return downloadPath;
+        }
+    }
+
+}
@@ -23,17 +23,16 @@
  */
 package com.blackducksoftware.integration.hub.teamcity.server.report;
 
-import java.io.File;
-import java.io.IOException;
 import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 
+import org.apache.commons.lang3.math.NumberUtils;
 import org.jetbrains.annotations.NotNull;
 
 import com.blackducksoftware.integration.hub.service.model.HubResourceBundleHelper;
-import com.blackducksoftware.integration.hub.teamcity.common.HubConstantValues;
 import com.blackducksoftware.integration.hub.teamcity.server.UrlUtil;
+import com.blackducksoftware.integration.hub.teamcity.server.report.HubRiskReportCache.RiskReport;
 
 import jetbrains.buildServer.controllers.BuildDataExtensionUtil;
 import jetbrains.buildServer.log.Loggers;
@@ -44,19 +43,27 @@ import jetbrains.buildServer.web.openapi.SimpleCustomTab;
 import jetbrains.buildServer.web.openapi.WebControllerManager;
 
 public class HubRiskReportTab extends SimpleCustomTab {
+    private static final String BUILD_ID_PARAMETER = "buildId";
+
+    private static final String RISK_REPORT_ATTRIBUTE = HubRiskReportTab.class.getName() + ".riskReport";
+
     private final SBuildServer server;
 
-    public HubRiskReportTab(@NotNull final WebControllerManager webControllerManager, final SBuildServer server) {
+    private final HubRiskReportCache riskReportCache;
+
+    public HubRiskReportTab(@NotNull final WebControllerManager webControllerManager, final SBuildServer server, @NotNull final HubRiskReportCache riskReportCache) {
         super(webControllerManager, PlaceId.BUILD_RESULTS_TAB, "hub", "hubRiskReportTab.jsp",
                 "Black Duck Hub Risk Report");
         this.server = server;
+        this.riskReportCache = riskReportCache;
         register();
     }
 
     @Override
     public void fillModel(final Map<String, Object> model, final HttpServletRequest request) {
         try {
-            final String hubRiskReportUrl = getRiskReportUrl(request, server);
+            final RiskReport riskReport = getRiskReport(request);
+            final String hubRiskReportUrl = null == riskReport ? null : request.getContextPath() + riskReport.getDownloadPath();
             model.put("hubRiskReportUrl", hubRiskReportUrl);
             final HubResourceBundleHelper bundle = new HubResourceBundleHelper();
             bundle.setKeyPrefix("hub.riskreport");
@@ -72,35 +79,34 @@ public class HubRiskReportTab extends SimpleCustomTab {
 
     @Override
     public boolean isAvailable(final HttpServletRequest request) {
-        final File riskReportFile = getRiskReportFile(request, server);
-        return riskReportFile != null && riskReportFile.exists();
+        final RiskReport riskReport = getRiskReport(request);
+        return null != riskReport && riskReport.isAvailable();
     }
 
-    private File getRiskReportFile(final HttpServletRequest request, final SBuildServer server) {
-        try {
+    /**
+     * A finished build is answered from the cache. Otherwise the build is resolved once per request, the tab asks for
+     * the same report in isAvailable and in fillModel.
+     */
+    private RiskReport getRiskReport(final HttpServletRequest request) {
+        final Object requestRiskReport = request.getAttribute(RISK_REPORT_ATTRIBUTE);
+        if (requestRiskReport instanceof RiskReport) {
+            return (RiskReport) requestRiskReport;
+        }
+        RiskReport riskReport = null;
+        final long buildId = NumberUtils.toLong(request.getParameter(BUILD_ID_PARAMETER), -1);
+        if (buildId >= 0) {
+            riskReport = riskReportCache.get(buildId);
+        }
+        if (null == riskReport) {
             final SBuild build = BuildDataExtensionUtil.retrieveBuild(request, server);
-            if (null == build || null == build.getArtifactsDirectory()) {
-                return null;
+            if (null != build) {
+                riskReport = riskReportCache.load(build);
             }
-            return new File(build.getArtifactsDirectory().getCanonicalPath() + File.separator + HubConstantValues.HUB_RISK_REPORT_DIRECTORY_NAME
-                                    + File.separator + HubConstantValues.HUB_RISK_REPORT_FILENAME);
-        } catch (final IOException e) {
-            Loggers.SERVER.error("Could not create the risk report file: " + e.getMessage());
-            return null;
         }
-    }
-
-    private String getRiskReportUrl(final HttpServletRequest request, final SBuildServer server) {
-        final SBuild build = BuildDataExtensionUtil.retrieveBuild(request, server);
-        if (null == build || null == build.getArtifactsDirectory()) {
-            return null;
+        if (null != riskReport) {
+            request.setAttribute(RISK_REPORT_ATTRIBUTE, riskReport);
         }
-        final String externalId = build.getBuildTypeExternalId();
-        // based on information found in the TeamCity blog:
-        // https://blog.jetbrains.com/teamcity/2012/06/teamcity-ivy-gradle-maven/
-        final String prefix = request.getContextPath() + "/repository/download/";
-        final String indexHtml = HubConstantValues.HUB_RISK_REPORT_DIRECTORY_NAME + "/riskreport.html";
-        final String reportUrl = prefix + externalId + "/" + build.getBuildId() + ":id/" + indexHtml;
-        return reportUrl;
+        return riskReport;
     }
+
 }
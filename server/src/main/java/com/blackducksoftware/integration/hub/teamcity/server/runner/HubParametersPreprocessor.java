@@ -27,18 +27,24 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
 
 import com.blackducksoftware.integration.hub.configuration.HubServerConfig;
+import com.blackducksoftware.integration.hub.teamcity.common.HubBundle;
 import com.blackducksoftware.integration.hub.teamcity.common.HubConstantValues;
+import com.blackducksoftware.integration.hub.teamcity.server.global.HubConfigSnapshot;
 import com.blackducksoftware.integration.hub.teamcity.server.global.HubServerListener;
 import com.blackducksoftware.integration.hub.teamcity.server.global.ServerHubConfigPersistenceManager;
 
 import jetbrains.buildServer.messages.Status;
 import jetbrains.buildServer.serverSide.ParametersPreprocessor;
+import jetbrains.buildServer.serverSide.SBuildRunnerDescriptor;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SFinishedBuild;
 import jetbrains.buildServer.serverSide.SRunningBuild;
 import jetbrains.buildServer.serverSide.buildLog.BuildLog;
 import jetbrains.buildServer.web.openapi.PluginDescriptor;
@@ -47,6 +53,7 @@ public class HubParametersPreprocessor implements ParametersPreprocessor {
     private final ServerHubConfigPersistenceManager serverPeristanceManager;
     private final PluginDescriptor pluginDescriptor;
     private BuildLog log = null;
+    private volatile ParameterOverlay parameterOverlay;
 
     public HubParametersPreprocessor(@NotNull final HubServerListener serverListener, @NotNull final PluginDescriptor pluginDescriptor) {
         serverPeristanceManager = serverListener.getConfigManager();
@@ -55,80 +62,116 @@ public class HubParametersPreprocessor implements ParametersPreprocessor {
 
     @Override
     public void fixRunBuildParameters(@NotNull final SRunningBuild build, @NotNull final Map<String, String> runParameters, @NotNull final Map<String, String> buildParameters) {
+        addStepCount(build, buildParameters);
+        if (!isHubBuildStepConfigured(runParameters)) {
+            return;
+        }
         log = build.getBuildLog();
-
-        if (isHubBuildStepConfigured(runParameters)) {
-            handleLog("Hub Plugin enabled.", null);
-            addGlobalParameterMap(runParameters);
-            addPluginData(runParameters);
+        handleLog("Hub Plugin enabled.", null);
+        addGlobalParameterMap(runParameters);
+        if (Boolean.parseBoolean(runParameters.get(HubConstantValues.HUB_SCAN_VCS_CHANGED_TARGETS))) {
+            addPreviousScanParameters(build, runParameters);
         }
     }
 
-    private void addGlobalParameterMap(final Map<String, String> runParameters) {
-        final HubServerConfig hubServerConfig = serverPeristanceManager.getHubServerConfig();
-        if (!runParameters.containsKey(HubConstantValues.HUB_URL)) {
-            runParameters.put(HubConstantValues.HUB_URL, StringUtils.trimToEmpty(hubServerConfig.getHubUrl().toString()));
-        }
-        if (!runParameters.containsKey(HubConstantValues.HUB_USERNAME)) {
-            runParameters.put(HubConstantValues.HUB_USERNAME, StringUtils.trimToEmpty(hubServerConfig.getGlobalCredentials().getUsername()));
+    /**
+     * Records how many Hub steps the build has as a parameter of the build itself, its settings may change later.
+     * Builds without a Hub step record none, so the risk report tab can tell them apart from older builds.
+     */
+    private void addStepCount(final SRunningBuild build, final Map<String, String> buildParameters) {
+        final SBuildType buildType = build.getBuildType();
+        if (buildType == null || buildParameters.containsKey(HubConstantValues.HUB_STEP_COUNT)) {
+            return;
         }
-        if (!runParameters.containsKey(HubConstantValues.HUB_PASSWORD)) {
-            runParameters.put(HubConstantValues.HUB_PASSWORD, StringUtils.trimToEmpty(hubServerConfig.getGlobalCredentials().getEncryptedPassword()));
-        }
-        if (!runParameters.containsKey(HubConstantValues.HUB_PASSWORD_LENGTH)) {
-            runParameters.put(HubConstantValues.HUB_PASSWORD_LENGTH, Integer.toString(hubServerConfig.getGlobalCredentials().getActualPasswordLength()));
+        int stepCount = 0;
+        for (final SBuildRunnerDescriptor buildRunner : buildType.getBuildRunners()) {
+            if (HubBundle.RUNNER_TYPE.equals(buildRunner.getRunType().getType()) && buildType.isEnabled(buildRunner.getId())) {
+                stepCount++;
+            }
         }
-        if (!runParameters.containsKey(HubConstantValues.HUB_CONNECTION_TIMEOUT)) {
-            runParameters.put(HubConstantValues.HUB_CONNECTION_TIMEOUT, String.valueOf(hubServerConfig.getTimeout()));
+        buildParameters.put(HubConstantValues.HUB_STEP_COUNT, String.valueOf(stepCount));
+    }
+
+    /**
+     * The VCS changes of a build only go back to the previous build, so a step may only scope its scan to them when
+     * it completed its scan in that build. Only steps that scan the changed targets need to know, the others skip
+     * the parameters of the previous build.
+     */
+    private void addPreviousScanParameters(final SRunningBuild build, final Map<String, String> runParameters) {
+        final SFinishedBuild previousBuild = build.getPreviousFinished();
+        if (previousBuild == null) {
+            return;
         }
-        if (!runParameters.containsKey(HubConstantValues.HUB_TRUST_SERVER_CERT)) {
-            runParameters.put(HubConstantValues.HUB_TRUST_SERVER_CERT, String.valueOf(hubServerConfig.isAlwaysTrustServerCertificate()));
+        for (final Map.Entry<String, String> parameter : previousBuild.getParametersProvider().getAll().entrySet()) {
+            if (parameter.getKey().startsWith(HubConstantValues.HUB_SCAN_COMPLETED)) {
+                final String stepId = parameter.getKey().substring(HubConstantValues.HUB_SCAN_COMPLETED.length());
+                runParameters.put(HubConstantValues.HUB_PREVIOUS_SCAN_COMPLETED + stepId, parameter.getValue());
+            }
         }
-        if (!runParameters.containsKey(HubConstantValues.HUB_WORKSPACE_CHECK)) {
-            runParameters.put(HubConstantValues.HUB_WORKSPACE_CHECK, String.valueOf(serverPeristanceManager.isHubWorkspaceCheck()));
+    }
+
+    private void addGlobalParameterMap(final Map<String, String> runParameters) {
+        // one snapshot for the whole step, a save in the meantime cannot mix two configurations
+        final HubConfigSnapshot configSnapshot = serverPeristanceManager.getConfigSnapshot();
+        for (final Map.Entry<String, String> parameter : getParameterOverlay(configSnapshot).entrySet()) {
+            // the parameters of the step win over the global configuration
+            runParameters.putIfAbsent(parameter.getKey(), parameter.getValue());
         }
+        runParameters.put(HubConstantValues.HUB_CONFIG_VERSION, String.valueOf(configSnapshot.getVersion()));
+    }
 
-        final String ignoredProxyHosts = hubServerConfig.getProxyInfo().getIgnoredProxyHosts();
-        if (!runParameters.containsKey(HubConstantValues.HUB_NO_PROXY_HOSTS) && StringUtils.isNotBlank(ignoredProxyHosts)) {
-            runParameters.put(HubConstantValues.HUB_NO_PROXY_HOSTS, StringUtils.trimToEmpty(ignoredProxyHosts));
+    /**
+     * The global parameters only change with the configuration, they are computed once for each snapshot.
+     */
+    private Map<String, String> getParameterOverlay(final HubConfigSnapshot configSnapshot) {
+        final ParameterOverlay overlay = parameterOverlay;
+        if (overlay != null && overlay.configSnapshot == configSnapshot) {
+            return overlay.parameters;
         }
+        final Map<String, String> parameters = createParameterOverlay(configSnapshot);
+        parameterOverlay = new ParameterOverlay(configSnapshot, parameters);
+        return parameters;
+    }
 
-        final String proxyHost = hubServerConfig.getProxyInfo().getHost();
-        final int proxyPort = hubServerConfig.getProxyInfo().getPort();
-        final String proxyUsername = hubServerConfig.getProxyInfo().getUsername();
-        final String proxyPassword = hubServerConfig.getProxyInfo().getEncryptedPassword();
-        final String proxyPasswordLength = Integer.toString(hubServerConfig.getProxyInfo().getActualPasswordLength());
-        if (StringUtils.isNotBlank(proxyHost) && proxyPort > 0) {
-            if (!runParameters.containsKey(HubConstantValues.HUB_PROXY_HOST)) {
-                runParameters.put(HubConstantValues.HUB_PROXY_HOST, StringUtils.trimToEmpty(proxyHost));
-            }
+    private Map<String, String> createParameterOverlay(final HubConfigSnapshot configSnapshot) {
+        final Map<String, String> parameters = new LinkedHashMap<>();
+        final HubServerConfig hubServerConfig = configSnapshot.getHubServerConfig();
+        if (hubServerConfig != null) {
+            parameters.put(HubConstantValues.HUB_URL, StringUtils.trimToEmpty(hubServerConfig.getHubUrl().toString()));
+            parameters.put(HubConstantValues.HUB_USERNAME, StringUtils.trimToEmpty(hubServerConfig.getGlobalCredentials().getUsername()));
+            parameters.put(HubConstantValues.HUB_PASSWORD, StringUtils.trimToEmpty(hubServerConfig.getGlobalCredentials().getEncryptedPassword()));
+            parameters.put(HubConstantValues.HUB_PASSWORD_LENGTH, Integer.toString(hubServerConfig.getGlobalCredentials().getActualPasswordLength()));
+            parameters.put(HubConstantValues.HUB_CONNECTION_TIMEOUT, String.valueOf(hubServerConfig.getTimeout()));
+            parameters.put(HubConstantValues.HUB_TRUST_SERVER_CERT, String.valueOf(hubServerConfig.isAlwaysTrustServerCertificate()));
+        }
+        parameters.put(HubConstantValues.HUB_WORKSPACE_CHECK, String.valueOf(configSnapshot.isHubWorkspaceCheck()));
 
-            if (!runParameters.containsKey(HubConstantValues.HUB_PROXY_PORT)) {
-                runParameters.put(HubConstantValues.HUB_PROXY_PORT, String.valueOf(proxyPort));
+        if (hubServerConfig != null) {
+            final String ignoredProxyHosts = hubServerConfig.getProxyInfo().getIgnoredProxyHosts();
+            if (StringUtils.isNotBlank(ignoredProxyHosts)) {
+                parameters.put(HubConstantValues.HUB_NO_PROXY_HOSTS, StringUtils.trimToEmpty(ignoredProxyHosts));
             }
 
-            if (StringUtils.isNotBlank(proxyUsername) && StringUtils.isNotBlank(proxyPassword)) {
-                if (!runParameters.containsKey(HubConstantValues.HUB_PROXY_USER)) {
-                    runParameters.put(HubConstantValues.HUB_PROXY_USER, StringUtils.trimToEmpty(proxyUsername));
-                }
-                if (!runParameters.containsKey(HubConstantValues.HUB_PROXY_PASS)) {
-                    runParameters.put(HubConstantValues.HUB_PROXY_PASS, StringUtils.trimToEmpty(proxyPassword));
-                }
-                if (!runParameters.containsKey(HubConstantValues.HUB_PROXY_PASS_LENGTH)) {
-                    runParameters.put(HubConstantValues.HUB_PROXY_PASS_LENGTH, proxyPasswordLength);
+            final String proxyHost = hubServerConfig.getProxyInfo().getHost();
+            final int proxyPort = hubServerConfig.getProxyInfo().getPort();
+            final String proxyUsername = hubServerConfig.getProxyInfo().getUsername();
+            final String proxyPassword = hubServerConfig.getProxyInfo().getEncryptedPassword();
+            final String proxyPasswordLength = Integer.toString(hubServerConfig.getProxyInfo().getActualPasswordLength());
+            if (StringUtils.isNotBlank(proxyHost) && proxyPort > 0) {
+                parameters.put(HubConstantValues.HUB_PROXY_HOST, StringUtils.trimToEmpty(proxyHost));
+                parameters.put(HubConstantValues.HUB_PROXY_PORT, String.valueOf(proxyPort));
+
+                if (StringUtils.isNotBlank(proxyUsername) && StringUtils.isNotBlank(proxyPassword)) {
+                    parameters.put(HubConstantValues.HUB_PROXY_USER, StringUtils.trimToEmpty(proxyUsername));
+                    parameters.put(HubConstantValues.HUB_PROXY_PASS, StringUtils.trimToEmpty(proxyPassword));
+                    parameters.put(HubConstantValues.HUB_PROXY_PASS_LENGTH, proxyPasswordLength);
                 }
             }
         }
-    }
-
-    private void addPluginData(final Map<String, String> runParameters) {
-        if (!runParameters.containsKey(HubConstantValues.PLUGIN_VERSION)) {
-            runParameters.put(HubConstantValues.PLUGIN_VERSION, pluginDescriptor.getPluginVersion());
-        }
 
-        if (!runParameters.containsKey(HubConstantValues.PLUGIN_NAME)) {
-            runParameters.put(HubConstantValues.PLUGIN_NAME, pluginDescriptor.getPluginName());
-        }
+        parameters.put(HubConstantValues.PLUGIN_VERSION, pluginDescriptor.getPluginVersion());
+        parameters.put(HubConstantValues.PLUGIN_NAME, pluginDescriptor.getPluginName());
+        return Collections.unmodifiableMap(parameters);
     }
 
     private void handleLog(final String txt, final Throwable e) {
@@ -145,4 +188,15 @@ public class HubParametersPreprocessor implements ParametersPreprocessor {
                        || runParameters.containsKey(HubConstantValues.HUB_SCAN_MEMORY);
     }
 
+    private static final class ParameterOverlay {
+        private final HubConfigSnapshot configSnapshot;
+
+        private final Map<String, String> parameters;
+
+        private ParameterOverlay(final HubConfigSnapshot configSnapshot, final Map<String, String> parameters) {
+            this.configSnapshot = configSnapshot;
+            this.parameters = parameters;
+        }
+    }
+
 }
@@ -162,6 +162,30 @@
 					</td>
 				</tr>
 				
+				<tr class="noBorder" id="blackDuckHubScanCliQuickStart" style="">
+					<th>
+						<label for="com.blackducksoftware.integration.hub.scanCliQuickStart">
+							Optimize scan CLI start-up: <bs:helpIcon
+								iconTitle="If checked, then the scan CLI JVM is started with options that shorten its start-up, which helps short scans of small targets." />
+						</label>
+					</th>
+					<td>
+						<props:checkboxProperty name="com.blackducksoftware.integration.hub.scanCliQuickStart" className="longField" />
+					</td>
+				</tr>
+
+				<tr class="noBorder" id="blackDuckHubScanCliClassDataSharing" style="">
+					<th>
+						<label for="com.blackducksoftware.integration.hub.scanCliClassDataSharing">
+							Share scan CLI class data: <bs:helpIcon
+								iconTitle="If checked, then the agent records a class-data sharing archive for the installed scan CLI version and starts the CLI from it. Requires a scan CLI runtime of Java 13 or later, otherwise it has no effect." />
+						</label>
+					</th>
+					<td>
+						<props:checkboxProperty name="com.blackducksoftware.integration.hub.scanCliClassDataSharing" className="longField" />
+					</td>
+				</tr>
+
 				<tr class="noBorder" id="blackDuckHubCodeLocationName" style="">
 					<th><label
 						for="com.blackducksoftware.integration.hub.codeLocationName">
@@ -239,6 +263,68 @@
 					</td>
 				</tr>
 				
+				<tr class="noBorder" id="scanVcsChangedTargets" style="">
+					<th>
+						<label for="com.blackducksoftware.integration.hub.scanVcsChangedTargets">
+							Scan only targets with VCS changes: <bs:helpIcon
+								iconTitle="If checked, then only the Scan Targets containing files changed in this build are scanned. The other targets keep the Code Locations of their previous scan. All targets are scanned when the build has no change information." />
+						</label>
+					</th>
+					<td>
+						<props:checkboxProperty name="com.blackducksoftware.integration.hub.scanVcsChangedTargets" className="longField" />
+					</td>
+				</tr>
+
+				<tr class="noBorder" id="incrementalScan" style="">
+					<th>
+						<label for="com.blackducksoftware.integration.hub.incrementalScan">
+							Incremental Scan: <bs:helpIcon
+								iconTitle="If checked, then a Scan Target whose files have not changed since its last successful scan on this agent is not scanned again." />
+						</label>
+					</th>
+					<td>
+						<props:checkboxProperty name="com.blackducksoftware.integration.hub.incrementalScan" className="longField" />
+					</td>
+				</tr>
+
+				<tr class="noBorder" id="parallelScan" style="">
+					<th>
+						<label for="com.blackducksoftware.integration.hub.parallelScan">
+							Scan Targets in parallel: <bs:helpIcon
+								iconTitle="If checked, then each Scan Target is scanned by its own CLI run and the runs execute at the same time. Previous Code Locations are not unmapped or deleted in this mode." />
+						</label>
+					</th>
+					<td>
+						<props:checkboxProperty name="com.blackducksoftware.integration.hub.parallelScan" className="longField" />
+					</td>
+				</tr>
+
+				<tr class="noBorder" id="parallelScanMaxConcurrency" style="">
+					<th><label
+						for="com.blackducksoftware.integration.hub.parallelScanMaxConcurrency">
+							Maximum parallel scans: <bs:helpIcon
+								iconTitle="The maximum number of Scan Targets scanned at the same time. Default : 2" />
+					</label></th>
+
+					<td> <props:textProperty
+							name="com.blackducksoftware.integration.hub.parallelScanMaxConcurrency"
+							className="longField" />
+					</td>
+				</tr>
+
+				<tr class="noBorder" id="parallelScanMemory" style="">
+					<th><label
+						for="com.blackducksoftware.integration.hub.parallelScanMemory">
+							Scan Memory per target (in MB's): <bs:helpIcon
+								iconTitle="The amount of memory for each parallel scan to use in MB's. Default : the Hub Scan Memory" />
+					</label></th>
+
+					<td> <props:textProperty
+							name="com.blackducksoftware.integration.hub.parallelScanMemory"
+							className="longField" />
+					</td>
+				</tr>
+
 				<tr class="noBorder" id="excludePatterns" style="">
 					<th><label
 						for="com.blackducksoftware.integration.hub.excludePatterns">
@@ -40,6 +40,12 @@
                 name="com.blackducksoftware.integration.hub.scanMemory"
                 emptyValue="4096"/>
         </div>
+        <div class="parameter">
+            Optimize scan CLI start-up: <props:displayValue name="com.blackducksoftware.integration.hub.scanCliQuickStart" />
+        </div>
+        <div class="parameter">
+            Share scan CLI class data: <props:displayValue name="com.blackducksoftware.integration.hub.scanCliClassDataSharing" />
+        </div>
         <div class="parameter">
             Code Location Name: <props:displayValue
                 name="com.blackducksoftware.integration.hub.codeLocationName" />
@@ -60,6 +66,24 @@
             Scan Targets: <props:displayValue
                 name="com.blackducksoftware.integration.hub.targets" />
         </div>
+        <div class="parameter">
+            Scan only targets with VCS changes: <props:displayValue name="com.blackducksoftware.integration.hub.scanVcsChangedTargets" />
+        </div>
+        <div class="parameter">
+            Incremental Scan: <props:displayValue name="com.blackducksoftware.integration.hub.incrementalScan" />
+        </div>
+        <div class="parameter">
+            Scan Targets in parallel: <props:displayValue name="com.blackducksoftware.integration.hub.parallelScan" />
+        </div>
+        <div class="parameter">
+            Maximum parallel scans: <props:displayValue
+                name="com.blackducksoftware.integration.hub.parallelScanMaxConcurrency"
+                emptyValue="2"/>
+        </div>
+        <div class="parameter">
+            Scan Memory per target (in MB's): <props:displayValue
+                name="com.blackducksoftware.integration.hub.parallelScanMemory" />
+        </div>
         <div class="parameter">
             Directory Exclusion Patterns: <props:displayValue
                 name="com.blackducksoftware.integration.hub.excludePatterns" />
@@ -223,6 +223,22 @@
                 }
             }), false);
 
+            return false;
+        },
+        rollback: function () {
+            if (!confirm('Roll the Hub settings back to the ones saved before the current settings?')) {
+                return false;
+            }
+            BS.FormSaver.save(this, $('bdHubForm').action + '?rollback=true', OO.extend(BS.ErrorsAwareListener, {
+                errorSaving: function (elem) {
+                    Config.showConfigDialog(false, getElementValue(elem));
+                },
+                onSuccessfulSave: function () {
+                    // the form shows the settings that were rolled back to
+                    window.location.reload();
+                }
+            }), false);
+
             return false;
         }
     }));
@@ -424,6 +440,9 @@
         <div class="saveButtonsBlock" id="saveButtonsBlock">
             <input type="button" value="Save" id=saveButton class="btn btn_primary submitButton" onclick="Config.save();"></input>
             <input type="button" value="Test connection" class="btn btn_primary submitButton" id="testConnection" onclick="TestConnectionDialog.testConnection();"></input>
+            <c:if test="${hubConfigPersistenceManager.rollbackAvailable}">
+                <input type="button" value="Roll back" class="btn submitButton" id="rollbackButton" onclick="Config.rollback();"></input>
+            </c:if>
             <input type="hidden" id="publicKey" name="publicKey" value="<c:out value='${hubConfigPersistenceManager.hexEncodedPublicKey}'/>"/>
         </div>
     </form>
@@ -176,6 +176,22 @@ public class HubServerLoggerTest {
         assertTrue(output, output.contains("This error definitely Should be logged"));
     }
 
+    @Test
+    public void testRepeatedErrorLogsTheReference() {
+        final HubServerLogger logger = new HubServerLogger();
+        logger.setLogLevel(LogLevel.ERROR);
+        for (int i = 0; i < 3; i++) {
+            logger.error("Repeated failure", new Exception("Repeated error " + i));
+        }
+
+        final String output = byteOutput.toString();
+
+        assertTrue(output, output.contains("Repeated error 0"));
+        assertTrue(output, !output.contains("Repeated error 1"));
+        assertTrue(output, output.contains("Repeated failure (same stack trace as #"));
+        assertTrue(output, output.contains("repeated 2 times"));
+    }
+
     @Test
     public void testWarn() {
         final HubServerLogger logger = new HubServerLogger();
@@ -0,0 +1,257 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Server
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.server.global;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import com.blackducksoftware.integration.hub.configuration.HubServerConfigBuilder;
+
+import jetbrains.buildServer.serverSide.ServerPaths;
+
+public class ServerHubConfigPersistenceManagerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerPaths serverPaths;
+
+    @Before
+    public void setUp() {
+        serverPaths = Mockito.mock(ServerPaths.class);
+        Mockito.when(serverPaths.getConfigDir()).thenReturn(folder.getRoot().getAbsolutePath());
+    }
+
+    @Test
+    public void testSavedFileIsNotReloaded() throws IOException {
+        final ServerHubConfigPersistenceManager persistenceManager = createSavedManager();
+
+        assertFalse(persistenceManager.reloadIfChanged());
+    }
+
+    @Test
+    public void testChangedFileIsReloaded() throws IOException {
+        final ServerHubConfigPersistenceManager persistenceManager = createSavedManager();
+        final long configVersion = persistenceManager.getConfigVersion();
+
+        final File configFile = persistenceManager.getConfigFile();
+        final String json = FileUtils.readFileToString(configFile, StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(configFile, json.replace("\"hubWorkspaceCheck\":true", "\"hubWorkspaceCheck\":false"), StandardCharsets.UTF_8);
+
+        assertTrue(persistenceManager.reloadIfChanged());
+        assertFalse(persistenceManager.isHubWorkspaceCheck());
+        assertTrue(persistenceManager.getConfigVersion() > configVersion);
+        assertFalse(persistenceManager.reloadIfChanged());
+    }
+
+    @Test
+    public void testTouchedFileIsNotParsed() throws IOException {
+        final ServerHubConfigPersistenceManager persistenceManager = createSavedManager();
+        final long configVersion = persistenceManager.getConfigVersion();
+
+        final File configFile = persistenceManager.getConfigFile();
+        assertTrue(configFile.setLastModified(configFile.lastModified() + 10000));
+
+        assertFalse(persistenceManager.reloadIfChanged());
+        assertEquals(configVersion, persistenceManager.getConfigVersion());
+    }
+
+    @Test
+    public void testWatcherReloadsChangedFile() throws IOException, InterruptedException {
+        final ServerHubConfigPersistenceManager persistenceManager = createSavedManager();
+        persistenceManager.startWatching();
+        try {
+            final File configFile = persistenceManager.getConfigFile();
+            final String json = FileUtils.readFileToString(configFile, StandardCharsets.UTF_8);
+            FileUtils.writeStringToFile(configFile, json.replace("\"hubWorkspaceCheck\":true", "\"hubWorkspaceCheck\":false"), StandardCharsets.UTF_8);
+
+            // some platforms poll for changes
+            final long deadline = System.currentTimeMillis() + 30000;
+            while (persistenceManager.isHubWorkspaceCheck() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            assertFalse(persistenceManager.isHubWorkspaceCheck());
+        } finally {
+            persistenceManager.stopWatching();
+        }
+    }
+
+    @Test
+    public void testSettingTheSameValuesKeepsTheVersion() throws IOException {
+        final ServerHubConfigPersistenceManager persistenceManager = createSavedManager();
+        final long configVersion = persistenceManager.getConfigVersion();
+        final HubServerConfigBuilder builder = new HubServerConfigBuilder();
+        builder.setHubUrl("https://hub.example.com");
+        builder.setUsername("user");
+        builder.setPassword("password");
+        builder.setTimeout("120");
+
+        persistenceManager.setConfig(builder.buildObject(), true);
+        persistenceManager.setHubWorkspaceCheck(true);
+        assertEquals(configVersion, persistenceManager.getConfigVersion());
+
+        persistenceManager.setHubWorkspaceCheck(false);
+        assertTrue(persistenceManager.getConfigVersion() > configVersion);
+    }
+
+    @Test
+    public void testSavesKeepNumberedSnapshots() throws IOException {
+        final ServerHubConfigPersistenceManager persistenceManager = createSavedManager();
+        for (int i = 0; i < ServerHubConfigPersistenceManager.MAX_SNAPSHOTS + 2; i++) {
+            persistenceManager.setHubWorkspaceCheck(i % 2 != 0);
+            persistenceManager.persist();
+        }
+
+        final List<Long> versions = persistenceManager.getSnapshotVersions();
+        assertEquals(ServerHubConfigPersistenceManager.MAX_SNAPSHOTS, versions.size());
+        assertEquals(Long.valueOf(ServerHubConfigPersistenceManager.MAX_SNAPSHOTS + 3), versions.get(versions.size() - 1));
+        for (final String fileName : folder.getRoot().list()) {
+            assertFalse(fileName, fileName.endsWith(".tmp"));
+        }
+    }
+
+    @Test
+    public void testUnchangedSaveKeepsTheSnapshots() throws IOException {
+        final ServerHubConfigPersistenceManager persistenceManager = createSavedManager();
+        persistenceManager.setHubWorkspaceCheck(false);
+        persistenceManager.persist();
+        persistenceManager.persist();
+
+        assertEquals(Arrays.asList(1L, 2L), persistenceManager.getSnapshotVersions());
+        assertTrue(persistenceManager.rollback());
+        assertTrue(persistenceManager.isHubWorkspaceCheck());
+    }
+
+    @Test
+    public void testRollbackRestoresPreviousSave() throws IOException {
+        final ServerHubConfigPersistenceManager persistenceManager = createSavedManager();
+        persistenceManager.setHubWorkspaceCheck(false);
+        persistenceManager.persist();
+
+        assertTrue(persistenceManager.rollback());
+        assertTrue(persistenceManager.isHubWorkspaceCheck());
+        assertEquals(Arrays.asList(1L, 2L, 3L), persistenceManager.getSnapshotVersions());
+
+        final ServerHubConfigPersistenceManager reloaded = new ServerHubConfigPersistenceManager(serverPaths);
+        assertTrue(reloaded.isHubWorkspaceCheck());
+    }
+
+    @Test
+    public void testRepeatedRollbacksKeepGoingBack() throws IOException {
+        final ServerHubConfigPersistenceManager persistenceManager = createSavedManager();
+        saveHubUrl(persistenceManager, "https://second.example.com");
+        saveHubUrl(persistenceManager, "https://third.example.com");
+
+        assertTrue(persistenceManager.rollback());
+        assertEquals("https://second.example.com", persistenceManager.getHubServerConfig().getHubUrl().toString());
+        assertTrue(persistenceManager.isRollbackAvailable());
+
+        assertTrue(persistenceManager.rollback());
+        assertEquals("https://hub.example.com", persistenceManager.getHubServerConfig().getHubUrl().toString());
+        assertFalse(persistenceManager.isRollbackAvailable());
+        assertFalse(persistenceManager.rollback());
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), persistenceManager.getSnapshotVersions());
+
+        // a save after the rollbacks starts over from the newest snapshot
+        saveHubUrl(persistenceManager, "https://fourth.example.com");
+        assertTrue(persistenceManager.rollback());
+        assertEquals("https://hub.example.com", persistenceManager.getHubServerConfig().getHubUrl().toString());
+    }
+
+    @Test
+    public void testSnapshotVersionsAreListedOnStart() throws IOException {
+        final ServerHubConfigPersistenceManager persistenceManager = createSavedManager();
+        saveHubUrl(persistenceManager, "https://second.example.com");
+
+        final ServerHubConfigPersistenceManager reloaded = new ServerHubConfigPersistenceManager(serverPaths);
+        assertEquals(Arrays.asList(1L, 2L), reloaded.getSnapshotVersions());
+        assertTrue(reloaded.isRollbackAvailable());
+    }
+
+    @Test
+    public void testMissingConfigFileLoadsNewestSnapshot() throws IOException {
+        final ServerHubConfigPersistenceManager persistenceManager = createSavedManager();
+        persistenceManager.setHubWorkspaceCheck(false);
+        persistenceManager.persist();
+        assertTrue(persistenceManager.getConfigFile().delete());
+
+        final ServerHubConfigPersistenceManager reloaded = new ServerHubConfigPersistenceManager(serverPaths);
+        assertFalse(reloaded.isHubWorkspaceCheck());
+        assertEquals("https://hub.example.com", reloaded.getHubServerConfig().getHubUrl().toString());
+    }
+
+    @Test
+    public void testSetConfigPublishesNewSnapshot() throws IOException {
+        final ServerHubConfigPersistenceManager persistenceManager = createSavedManager();
+        final HubConfigSnapshot before = persistenceManager.getConfigSnapshot();
+
+        persistenceManager.setConfig(null, false);
+
+        final HubConfigSnapshot after = persistenceManager.getConfigSnapshot();
+        assertNull(after.getHubServerConfig());
+        assertFalse(after.isHubWorkspaceCheck());
+        assertTrue(after.getVersion() > before.getVersion());
+        assertNotNull(before.getHubServerConfig());
+        assertTrue(before.isHubWorkspaceCheck());
+    }
+
+    private void saveHubUrl(final ServerHubConfigPersistenceManager persistenceManager, final String hubUrl) throws IOException {
+        final HubServerConfigBuilder builder = new HubServerConfigBuilder();
+        builder.setHubUrl(hubUrl);
+        builder.setUsername("user");
+        builder.setPassword("password");
+        builder.setTimeout("120");
+        persistenceManager.setHubServerConfig(builder.buildObject());
+        persistenceManager.persist();
+    }
+
+    private ServerHubConfigPersistenceManager createSavedManager() throws IOException {
+        final ServerHubConfigPersistenceManager persistenceManager = new ServerHubConfigPersistenceManager(serverPaths);
+        final HubServerConfigBuilder builder = new HubServerConfigBuilder();
+        builder.setHubUrl("https://hub.example.com");
+        builder.setUsername("user");
+        builder.setPassword("password");
+        builder.setTimeout("120");
+        persistenceManager.setHubServerConfig(builder.buildObject());
+        persistenceManager.setHubWorkspaceCheck(true);
+        persistenceManager.persist();
+        return persistenceManager;
+    }
+
+}
@@ -0,0 +1,127 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Server
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.server.report;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.blackducksoftware.integration.hub.teamcity.common.HubConstantValues;
+import com.blackducksoftware.integration.hub.teamcity.server.report.HubRiskReportCache.RiskReport;
+
+import jetbrains.buildServer.parameters.ParametersProvider;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifact;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifacts;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifactsViewMode;
+
+public class HubRiskReportCacheTest {
+    private HubRiskReportCache riskReportCache;
+
+    @Before
+    public void setUp() {
+        riskReportCache = new HubRiskReportCache();
+    }
+
+    @Test
+    public void testFinishedBuildIsCachedOnFirstView() {
+        final SBuild build = createBuild(42, "1", true, true);
+        assertNull(riskReportCache.get(42));
+
+        assertTrue(riskReportCache.load(build).isAvailable());
+
+        final RiskReport riskReport = riskReportCache.get(42);
+        assertNotNull(riskReport);
+        assertTrue(riskReport.isAvailable());
+        assertEquals("/repository/download/Project_Build/42:id/Hub_Risk_Report/riskreport.html", riskReport.getDownloadPath());
+    }
+
+    @Test
+    public void testRunningBuildIsNotCached() {
+        final SBuild build = createBuild(7, "1", false, false);
+
+        assertFalse(riskReportCache.load(build).isAvailable());
+        assertNull(riskReportCache.get(7));
+    }
+
+    @Test
+    public void testArtifactsOfBuildsWithoutHubStepsAreNotLookedAt() {
+        final SBuild build = createBuild(9, "0", true, true);
+
+        assertFalse(riskReportCache.load(build).isAvailable());
+        assertFalse(riskReportCache.get(9).isAvailable());
+        Mockito.verify(build, Mockito.never()).getArtifacts(Mockito.any(BuildArtifactsViewMode.class));
+    }
+
+    @Test
+    public void testArtifactsOfBuildsWithoutRecordedStepsAreLookedAt() {
+        final SBuild build = createBuild(11, null, true, true);
+
+        assertTrue(riskReportCache.load(build).isAvailable());
+    }
+
+    @Test
+    public void testAvailableReportExpires() {
+        riskReportCache = new HubRiskReportCache(0);
+        riskReportCache.load(createBuild(42, "1", true, true));
+
+        assertNull(riskReportCache.get(42));
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        for (int i = 0; i <= HubRiskReportCache.MAX_BUILDS; i++) {
+            riskReportCache.load(createBuild(i, "1", false, true));
+        }
+
+        assertNull(riskReportCache.get(0));
+        assertNotNull(riskReportCache.get(HubRiskReportCache.MAX_BUILDS));
+    }
+
+    private SBuild createBuild(final long buildId, final String stepCount, final boolean withRiskReport, final boolean finished) {
+        final BuildArtifacts artifacts = Mockito.mock(BuildArtifacts.class);
+        if (withRiskReport) {
+            final BuildArtifact riskReport = Mockito.mock(BuildArtifact.class);
+            Mockito.when(riskReport.isFile()).thenReturn(true);
+            Mockito.when(artifacts.getArtifact("Hub_Risk_Report/riskreport.html")).thenReturn(riskReport);
+        }
+        final ParametersProvider parametersProvider = Mockito.mock(ParametersProvider.class);
+        Mockito.when(parametersProvider.get(HubConstantValues.HUB_STEP_COUNT)).thenReturn(stepCount);
+
+        final SBuild build = Mockito.mock(SBuild.class);
+        Mockito.when(build.getBuildId()).thenReturn(buildId);
+        Mockito.when(build.getBuildTypeExternalId()).thenReturn("Project_Build");
+        Mockito.when(build.getParametersProvider()).thenReturn(parametersProvider);
+        Mockito.when(build.isFinished()).thenReturn(finished);
+        Mockito.when(build.getArtifacts(BuildArtifactsViewMode.VIEW_ALL)).thenReturn(artifacts);
+        return build;
+    }
+
+}
@@ -0,0 +1,218 @@
+/**
+ * Black Duck Hub Plug-In for TeamCity Server
+ *
+ * Copyright (C) 2018 Black Duck Software, Inc.
+ * http://www.blackducksoftware.com/
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.blackducksoftware.integration.hub.teamcity.server.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import com.blackducksoftware.integration.hub.configuration.HubServerConfig;
+import com.blackducksoftware.integration.hub.configuration.HubServerConfigBuilder;
+import com.blackducksoftware.integration.hub.teamcity.common.HubBundle;
+import com.blackducksoftware.integration.hub.teamcity.common.HubConstantValues;
+import com.blackducksoftware.integration.hub.teamcity.helper.TestBuildLog;
+import com.blackducksoftware.integration.hub.teamcity.mocks.MockPluginDescriptor;
+import com.blackducksoftware.integration.hub.teamcity.mocks.MockSRunningBuild;
+import com.blackducksoftware.integration.hub.teamcity.server.global.HubServerListener;
+import com.blackducksoftware.integration.hub.teamcity.server.global.ServerHubConfigPersistenceManager;
+
+import jetbrains.buildServer.parameters.ParametersProvider;
+import jetbrains.buildServer.serverSide.RunType;
+import jetbrains.buildServer.serverSide.SBuildRunnerDescriptor;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SFinishedBuild;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import jetbrains.buildServer.serverSide.ServerPaths;
+
+public class HubParametersPreprocessorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerHubConfigPersistenceManager persistenceManager;
+
+    private HubParametersPreprocessor preprocessor;
+
+    private SRunningBuild build;
+
+    @Before
+    public void setUp() {
+        final ServerPaths serverPaths = Mockito.mock(ServerPaths.class);
+        Mockito.when(serverPaths.getConfigDir()).thenReturn(folder.getRoot().getAbsolutePath());
+        persistenceManager = new ServerHubConfigPersistenceManager(serverPaths);
+        persistenceManager.setConfig(createHubServerConfig("https://hub.example.com"), true);
+
+        final HubServerListener serverListener = Mockito.mock(HubServerListener.class);
+        Mockito.when(serverListener.getConfigManager()).thenReturn(persistenceManager);
+        preprocessor = new HubParametersPreprocessor(serverListener, MockPluginDescriptor.getMockedPluginDescriptor());
+        build = MockSRunningBuild.getMockedSRunningBuild(new TestBuildLog());
+    }
+
+    @Test
+    public void testOtherStepsAreNotChanged() {
+        final Map<String, String> runParameters = new HashMap<>();
+        runParameters.put("teamcity.step.mode", "default");
+
+        preprocessor.fixRunBuildParameters(build, runParameters, new HashMap<String, String>());
+
+        assertEquals(1, runParameters.size());
+    }
+
+    @Test
+    public void testGlobalParametersAreAdded() {
+        final Map<String, String> runParameters = createHubStepParameters();
+
+        preprocessor.fixRunBuildParameters(build, runParameters, new HashMap<String, String>());
+
+        assertEquals("https://hub.example.com", runParameters.get(HubConstantValues.HUB_URL));
+        assertEquals("user", runParameters.get(HubConstantValues.HUB_USERNAME));
+        assertEquals("true", runParameters.get(HubConstantValues.HUB_WORKSPACE_CHECK));
+        assertEquals(String.valueOf(persistenceManager.getConfigVersion()), runParameters.get(HubConstantValues.HUB_CONFIG_VERSION));
+        assertFalse(runParameters.containsKey(HubConstantValues.HUB_PROXY_HOST));
+    }
+
+    @Test
+    public void testStepParametersWin() {
+        final Map<String, String> runParameters = createHubStepParameters();
+        runParameters.put(HubConstantValues.HUB_URL, "https://other.example.com");
+
+        preprocessor.fixRunBuildParameters(build, runParameters, new HashMap<String, String>());
+
+        assertEquals("https://other.example.com", runParameters.get(HubConstantValues.HUB_URL));
+    }
+
+    @Test
+    public void testChangedConfigIsUsed() {
+        preprocessor.fixRunBuildParameters(build, createHubStepParameters(), new HashMap<String, String>());
+        persistenceManager.setConfig(createHubServerConfig("https://new.example.com"), false);
+
+        final Map<String, String> runParameters = createHubStepParameters();
+        preprocessor.fixRunBuildParameters(build, runParameters, new HashMap<String, String>());
+
+        assertEquals("https://new.example.com", runParameters.get(HubConstantValues.HUB_URL));
+        assertEquals("false", runParameters.get(HubConstantValues.HUB_WORKSPACE_CHECK));
+        assertTrue(runParameters.containsKey(HubConstantValues.HUB_CONFIG_VERSION));
+    }
+
+    @Test
+    public void testPreviousScanIsOnlyReadForChangedTargetScans() {
+        final SFinishedBuild previousBuild = Mockito.mock(SFinishedBuild.class);
+        final ParametersProvider parametersProvider = Mockito.mock(ParametersProvider.class);
+        Mockito.when(parametersProvider.getAll()).thenReturn(Collections.singletonMap(HubConstantValues.HUB_SCAN_COMPLETED + "RUNNER_1", "true"));
+        Mockito.when(previousBuild.getParametersProvider()).thenReturn(parametersProvider);
+        Mockito.when(build.getPreviousFinished()).thenReturn(previousBuild);
+
+        final Map<String, String> runParameters = createHubStepParameters();
+        preprocessor.fixRunBuildParameters(build, runParameters, new HashMap<String, String>());
+        assertFalse(runParameters.containsKey(HubConstantValues.HUB_PREVIOUS_SCAN_COMPLETED + "RUNNER_1"));
+        Mockito.verify(build, Mockito.never()).getPreviousFinished();
+
+        final Map<String, String> changedTargetsParameters = createHubStepParameters();
+        changedTargetsParameters.put(HubConstantValues.HUB_SCAN_VCS_CHANGED_TARGETS, "true");
+        preprocessor.fixRunBuildParameters(build, changedTargetsParameters, new HashMap<String, String>());
+        assertEquals("true", changedTargetsParameters.get(HubConstantValues.HUB_PREVIOUS_SCAN_COMPLETED + "RUNNER_1"));
+    }
+
+    @Test
+    public void testNoPreviousScanWithoutAPreviousBuild() {
+        final Map<String, String> runParameters = createHubStepParameters();
+        runParameters.put(HubConstantValues.HUB_SCAN_VCS_CHANGED_TARGETS, "true");
+
+        preprocessor.fixRunBuildParameters(build, runParameters, new HashMap<String, String>());
+
+        for (final String parameter : runParameters.keySet()) {
+            assertFalse(parameter, parameter.startsWith(HubConstantValues.HUB_PREVIOUS_SCAN_COMPLETED));
+        }
+    }
+
+    @Test
+    public void testEnabledHubStepsAreCounted() {
+        final SBuildType buildType = Mockito.mock(SBuildType.class);
+        final List<SBuildRunnerDescriptor> buildRunners = Arrays.asList(createBuildRunner("RUNNER_1", HubBundle.RUNNER_TYPE), createBuildRunner("RUNNER_2", "Maven2"),
+                createBuildRunner("RUNNER_3", HubBundle.RUNNER_TYPE), createBuildRunner("RUNNER_4", HubBundle.RUNNER_TYPE));
+        Mockito.when(buildType.getBuildRunners()).thenReturn(buildRunners);
+        Mockito.when(buildType.isEnabled(Mockito.anyString())).thenReturn(true);
+        Mockito.when(buildType.isEnabled("RUNNER_4")).thenReturn(false);
+        Mockito.when(build.getBuildType()).thenReturn(buildType);
+
+        final Map<String, String> buildParameters = new HashMap<>();
+        preprocessor.fixRunBuildParameters(build, createHubStepParameters(), buildParameters);
+
+        assertEquals("2", buildParameters.get(HubConstantValues.HUB_STEP_COUNT));
+    }
+
+    @Test
+    public void testBuildsWithoutHubStepsRecordNoSteps() {
+        final SBuildType buildType = Mockito.mock(SBuildType.class);
+        final List<SBuildRunnerDescriptor> buildRunners = Arrays.asList(createBuildRunner("RUNNER_1", "Maven2"));
+        Mockito.when(buildType.getBuildRunners()).thenReturn(buildRunners);
+        Mockito.when(buildType.isEnabled(Mockito.anyString())).thenReturn(true);
+        Mockito.when(build.getBuildType()).thenReturn(buildType);
+
+        final Map<String, String> runParameters = new HashMap<>();
+        runParameters.put("teamcity.step.mode", "default");
+        final Map<String, String> buildParameters = new HashMap<>();
+        preprocessor.fixRunBuildParameters(build, runParameters, buildParameters);
+
+        assertEquals("0", buildParameters.get(HubConstantValues.HUB_STEP_COUNT));
+        assertEquals(1, runParameters.size());
+    }
+
+    private Map<String, String> createHubStepParameters() {
+        final Map<String, String> runParameters = new HashMap<>();
+        runParameters.put(HubConstantValues.HUB_PROJECT_NAME, "project");
+        runParameters.put(HubConstantValues.HUB_PROJECT_VERSION, "1.0");
+        return runParameters;
+    }
+
+    private SBuildRunnerDescriptor createBuildRunner(final String id, final String runnerType) {
+        final RunType runType = Mockito.mock(RunType.class);
+        Mockito.when(runType.getType()).thenReturn(runnerType);
+        final SBuildRunnerDescriptor buildRunner = Mockito.mock(SBuildRunnerDescriptor.class);
+        Mockito.when(buildRunner.getId()).thenReturn(id);
+        Mockito.when(buildRunner.getRunType()).thenReturn(runType);
+        return buildRunner;
+    }
+
+    private HubServerConfig createHubServerConfig(final String hubUrl) {
+        final HubServerConfigBuilder builder = new HubServerConfigBuilder();
+        builder.setHubUrl(hubUrl);
+        builder.setUsername("user");
+        builder.setPassword("password");
+        builder.setTimeout("120");
+        return builder.buildObject();
+    }
+
+}